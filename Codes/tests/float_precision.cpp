@@ -0,0 +1,20 @@
+#include <iostream>
+using namespace std;
+int main() {
+    float sum = 0;
+    for (int i = 0; i < 1000; i++) {
+        sum = sum + 0.1;
+    }
+    cout << sum << endl;
+    float f = 16777216;
+    f = f + 1;
+    int i = f;
+    cout << i << endl;
+    float g = 16777216;
+    g += 1;
+    cout << (g == 16777216) << endl;
+    float third = 1;
+    third = third / 3;
+    cout << (third == 1.0 / 3) << endl;
+    return 0;
+}
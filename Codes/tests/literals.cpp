@@ -0,0 +1,7 @@
+#include <iostream>
+using namespace std;
+int main() {
+    cout << "héllo €" << endl;
+    cout << "latin " << endl;
+    return 0;
+}
@@ -0,0 +1,21 @@
+#include <iostream>
+using namespace std;
+int main() {
+    int n = 0;
+    if (n != 0 && 10 / n > 1) {
+        cout << "divided" << endl;
+    }
+    if (n == 0 || 10 / n > 1) {
+        cout << "skipped" << endl;
+    }
+    int k = 0;
+    int a = (k > 5) && (k++ > 0);
+    cout << a << " " << k << " ";
+    int b = (k < 5) || (k++ > 0);
+    cout << k << " " << b << endl;
+    float f = 0.5;
+    int c = f && n;
+    int d = n || f;
+    cout << c << " " << d << endl;
+    return 0;
+}
@@ -0,0 +1,298 @@
+import java.util.List;
+
+// Typed syntax tree the back end works from. Built from the parser output by
+// AstBuilder, so the source is tokenized and parsed only once. Every node keeps
+// the index of the token it came from for diagnostics.
+final class Ast {
+    private Ast() {
+    }
+
+    abstract static class Node {
+        final int token;
+
+        Node(int token) {
+            this.token = token;
+        }
+    }
+
+    abstract static class Statement extends Node {
+        Statement(int token) {
+            super(token);
+        }
+    }
+
+    abstract static class Expression extends Node {
+        Expression(int token) {
+            super(token);
+        }
+    }
+
+    static final class Program {
+        final List<Statement> statements;
+
+        Program(List<Statement> statements) {
+            this.statements = statements;
+        }
+    }
+
+    // Statements
+
+    static final class Include extends Statement {
+        final String header;
+
+        Include(int token, String header) {
+            super(token);
+            this.header = header;
+        }
+    }
+
+    static final class Function extends Statement {
+        final String name;
+        final Block body;
+
+        Function(int token, String name, Block body) {
+            super(token);
+            this.name = name;
+            this.body = body;
+        }
+    }
+
+    static final class Block extends Statement {
+        final List<Statement> statements;
+
+        Block(int token, List<Statement> statements) {
+            super(token);
+            this.statements = statements;
+        }
+    }
+
+    // int a = 1, b; -- type is TokenKind.INT or TokenKind.FLOAT
+    static final class VariableDeclaration extends Statement {
+        final int type;
+        final List<Declarator> declarators;
+
+        VariableDeclaration(int token, int type, List<Declarator> declarators) {
+            super(token);
+            this.type = type;
+            this.declarators = declarators;
+        }
+    }
+
+    static final class Declarator {
+        final Name name;
+        // null when the variable is not initialized
+        final Expression initializer;
+
+        Declarator(Name name, Expression initializer) {
+            this.name = name;
+            this.initializer = initializer;
+        }
+    }
+
+    static final class ExpressionStatement extends Statement {
+        final Expression expression;
+
+        ExpressionStatement(int token, Expression expression) {
+            super(token);
+            this.expression = expression;
+        }
+    }
+
+    static final class If extends Statement {
+        final Expression condition;
+        final Statement then;
+
+        If(int token, Expression condition, Statement then) {
+            super(token);
+            this.condition = condition;
+            this.then = then;
+        }
+    }
+
+    static final class While extends Statement {
+        final Expression condition;
+        final Statement body;
+
+        While(int token, Expression condition, Statement body) {
+            super(token);
+            this.condition = condition;
+            this.body = body;
+        }
+    }
+
+    static final class For extends Statement {
+        final Statement init;
+        final Expression condition;
+        final Expression update;
+        final Statement body;
+
+        For(int token, Statement init, Expression condition, Expression update, Statement body) {
+            super(token);
+            this.init = init;
+            this.condition = condition;
+            this.update = update;
+            this.body = body;
+        }
+    }
+
+    // cin >> a >> b;
+    static final class Input extends Statement {
+        final List<Name> targets;
+
+        Input(int token, List<Name> targets) {
+            super(token);
+            this.targets = targets;
+        }
+    }
+
+    // cout << a << endl;
+    static final class Output extends Statement {
+        final List<Expression> values;
+
+        Output(int token, List<Expression> values) {
+            super(token);
+            this.values = values;
+        }
+    }
+
+    static final class Return extends Statement {
+        final Expression value;
+
+        Return(int token, Expression value) {
+            super(token);
+            this.value = value;
+        }
+    }
+
+    static final class Break extends Statement {
+        Break(int token) {
+            super(token);
+        }
+    }
+
+    static final class Continue extends Statement {
+        Continue(int token) {
+            super(token);
+        }
+    }
+
+    // Expressions. Operators are TokenKind values.
+
+    // target = value, and the compound forms += -= *= /=
+    static final class Assign extends Expression {
+        final int operator;
+        final Name target;
+        final Expression value;
+
+        Assign(int token, int operator, Name target, Expression value) {
+            super(token);
+            this.operator = operator;
+            this.target = target;
+            this.value = value;
+        }
+    }
+
+    static final class Binary extends Expression {
+        final int operator;
+        final Expression left;
+        final Expression right;
+
+        Binary(int token, int operator, Expression left, Expression right) {
+            super(token);
+            this.operator = operator;
+            this.left = left;
+            this.right = right;
+        }
+    }
+
+    // -a, +a, !a
+    static final class Unary extends Expression {
+        final int operator;
+        final Expression operand;
+
+        Unary(int token, int operator, Expression operand) {
+            super(token);
+            this.operator = operator;
+            this.operand = operand;
+        }
+    }
+
+    // a++, a--
+    static final class Postfix extends Expression {
+        final int operator;
+        final Name operand;
+
+        Postfix(int token, int operator, Name operand) {
+            super(token);
+            this.operator = operator;
+            this.operand = operand;
+        }
+    }
+
+    // Parenthesized expression, kept so the tree can be printed back as written
+    static final class Group extends Expression {
+        final Expression inner;
+
+        Group(int token, Expression inner) {
+            super(token);
+            this.inner = inner;
+        }
+    }
+
+    static final class Call extends Expression {
+        final String name;
+        final List<Expression> arguments;
+
+        Call(int token, String name, List<Expression> arguments) {
+            super(token);
+            this.name = name;
+            this.arguments = arguments;
+        }
+    }
+
+    // Variable reference; id is the interned identifier id from the TokenBuffer
+    static final class Name extends Expression {
+        final String name;
+        final int id;
+
+        Name(int token, String name, int id) {
+            super(token);
+            this.name = name;
+            this.id = id;
+        }
+    }
+
+    static final class IntLiteral extends Expression {
+        final String text;
+
+        IntLiteral(int token, String text) {
+            super(token);
+            this.text = text;
+        }
+    }
+
+    static final class FloatLiteral extends Expression {
+        final String text;
+
+        FloatLiteral(int token, String text) {
+            super(token);
+            this.text = text;
+        }
+    }
+
+    // String or character literal, quotes included
+    static final class StringLiteral extends Expression {
+        final String text;
+
+        StringLiteral(int token, String text) {
+            super(token);
+            this.text = text;
+        }
+    }
+
+    static final class Endl extends Expression {
+        Endl(int token) {
+            super(token);
+        }
+    }
+}
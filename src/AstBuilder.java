@@ -0,0 +1,209 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Lowers a FlatParseTree to an Ast.Program. Reads node kinds and token indexes
+// straight from the arena; names and literal text come from the TokenBuffer.
+final class AstBuilder {
+    private final FlatParseTree tree;
+    private final TokenBuffer tokens;
+
+    private AstBuilder(FlatParseTree tree) {
+        this.tree = tree;
+        this.tokens = tree.tokens;
+    }
+
+    static Ast.Program build(FlatParseTree tree) throws Exception {
+        AstBuilder builder = new AstBuilder(tree);
+        return new Ast.Program(builder.statements(tree.root()));
+    }
+
+    private List<Ast.Statement> statements(int parent) throws Exception {
+        List<Ast.Statement> statements = new ArrayList<>();
+        for (int child = tree.firstChild(parent); child != FlatParseTree.NONE; child = tree.nextSibling(child)) {
+            Ast.Statement statement = statement(child);
+            if (statement != null) {
+                statements.add(statement);
+            }
+        }
+        return statements;
+    }
+
+    // null for nodes without meaning to the back end (using namespace std;)
+    private Ast.Statement statement(int node) throws Exception {
+        int token = tree.token(node);
+        int first = tree.firstChild(node);
+        switch (tree.kind(node)) {
+            case NodeKind.INCLUDE:
+                return new Ast.Include(token, tokens.text(tree.token(first)));
+            case NodeKind.USING_NAMESPACE:
+                return null;
+            case NodeKind.MAIN_FUNCTION:
+                return new Ast.Function(token, "main", new Ast.Block(token, statements(node)));
+            case NodeKind.BLOCK:
+                return new Ast.Block(token, statements(node));
+            case NodeKind.VARIABLE_DECLARATION:
+                return variableDeclaration(node);
+            case NodeKind.ASSIGNMENT:
+                return new Ast.ExpressionStatement(token,
+                        new Ast.Assign(token, TokenKind.ASSIGN, name(token), expression(first)));
+            case NodeKind.CALL:
+                return new Ast.ExpressionStatement(token, call(node));
+            case NodeKind.EXPRESSION:
+                return new Ast.ExpressionStatement(token, expression(node));
+            case NodeKind.RETURN:
+                return new Ast.Return(token, expression(first));
+            case NodeKind.IF:
+                return new Ast.If(token, expression(first), body(node, tree.nextSibling(first)));
+            case NodeKind.WHILE:
+                return new Ast.While(token, expression(first), body(node, tree.nextSibling(first)));
+            case NodeKind.FOR: {
+                int condition = tree.nextSibling(first);
+                int update = tree.nextSibling(condition);
+                return new Ast.For(token, statement(first), expression(condition), expression(update),
+                        body(node, tree.nextSibling(update)));
+            }
+            case NodeKind.INPUT: {
+                List<Ast.Name> targets = new ArrayList<>();
+                for (int child = first; child != FlatParseTree.NONE; child = tree.nextSibling(child)) {
+                    targets.add(name(tree.token(child)));
+                }
+                return new Ast.Input(token, targets);
+            }
+            case NodeKind.OUTPUT: {
+                List<Ast.Expression> values = new ArrayList<>();
+                for (int child = first; child != FlatParseTree.NONE; child = tree.nextSibling(child)) {
+                    values.add(expression(child));
+                }
+                return new Ast.Output(token, values);
+            }
+            case NodeKind.CONTINUE:
+                return new Ast.Continue(token);
+            case NodeKind.BREAK:
+                return new Ast.Break(token);
+            default:
+                throw error(token, "Unexpected statement: " + tree.text(node));
+        }
+    }
+
+    // Body statement of if/while/for; a body the parser dropped becomes an empty block
+    private Ast.Statement body(int parent, int node) throws Exception {
+        Ast.Statement statement = node != FlatParseTree.NONE ? statement(node) : null;
+        return statement != null ? statement : new Ast.Block(tree.token(parent), new ArrayList<>());
+    }
+
+    // Children alternate name, [initializer], name, [initializer], ...
+    private Ast.Statement variableDeclaration(int node) throws Exception {
+        List<Ast.Declarator> declarators = new ArrayList<>();
+        int child = tree.firstChild(node);
+        while (child != FlatParseTree.NONE) {
+            Ast.Name name = name(tree.token(child));
+            child = tree.nextSibling(child);
+            Ast.Expression initializer = null;
+            if (child != FlatParseTree.NONE && tree.kind(child) == NodeKind.EXPRESSION) {
+                initializer = expression(child);
+                child = tree.nextSibling(child);
+            }
+            declarators.add(new Ast.Declarator(name, initializer));
+        }
+        int token = tree.token(node);
+        return new Ast.VariableDeclaration(token, tokens.kind(token), declarators);
+    }
+
+    private Ast.Call call(int node) throws Exception {
+        List<Ast.Expression> arguments = new ArrayList<>();
+        int argumentList = tree.firstChild(node);
+        for (int child = tree.firstChild(argumentList); child != FlatParseTree.NONE; child = tree.nextSibling(child)) {
+            arguments.add(expression(child));
+        }
+        int token = tree.token(node);
+        return new Ast.Call(token, tokens.text(token), arguments);
+    }
+
+    private Ast.Expression expression(int node) throws Exception {
+        int token = tree.token(node);
+        int first = tree.firstChild(node);
+        switch (tree.kind(node)) {
+            case NodeKind.EXPRESSION:
+                return expression(first);
+            case NodeKind.GROUP:
+                return new Ast.Group(token, expression(first));
+            case NodeKind.BINARY: {
+                // Down the left operands of a chain like a + b + c and back up
+                // again, so a long chain does not take a frame per operator
+                int[] chain = new int[8];
+                int depth = 0;
+                int left = node;
+                while (tree.kind(left) == NodeKind.BINARY) {
+                    if (depth == chain.length) {
+                        chain = Arrays.copyOf(chain, depth * 2);
+                    }
+                    chain[depth++] = left;
+                    left = tree.firstChild(left);
+                }
+                Ast.Expression result = expression(left);
+                while (depth > 0) {
+                    int binary = chain[--depth];
+                    result = binary(binary, result, expression(tree.nextSibling(tree.firstChild(binary))));
+                }
+                return result;
+            }
+            case NodeKind.UNARY:
+                return new Ast.Unary(token, tokens.kind(token), expression(first));
+            case NodeKind.POSTFIX:
+                return new Ast.Postfix(token, tokens.kind(token), variable(expression(first)));
+            case NodeKind.TOKEN:
+                return operand(token);
+            default:
+                throw error(token, "Unexpected expression: " + tree.text(node));
+        }
+    }
+
+    private Ast.Expression binary(int node, Ast.Expression left, Ast.Expression right) throws Exception {
+        int token = tree.token(node);
+        int operator = tokens.kind(token);
+        if (operator == TokenKind.ASSIGN || operator == TokenKind.PLUS_ASSIGN
+                || operator == TokenKind.MINUS_ASSIGN || operator == TokenKind.STAR_ASSIGN
+                || operator == TokenKind.SLASH_ASSIGN) {
+            return new Ast.Assign(token, operator, variable(left), right);
+        }
+        return new Ast.Binary(token, operator, left, right);
+    }
+
+    private Ast.Expression operand(int token) throws Exception {
+        switch (tokens.kind(token)) {
+            case TokenKind.IDENTIFIER:
+                return name(token);
+            case TokenKind.NUMBER: {
+                String text = tokens.text(token);
+                return text.indexOf('.') >= 0 ? new Ast.FloatLiteral(token, text) : new Ast.IntLiteral(token, text);
+            }
+            case TokenKind.STRING:
+                return new Ast.StringLiteral(token, tokens.text(token));
+            case TokenKind.ENDL:
+                return new Ast.Endl(token);
+            default:
+                throw error(token, "Unexpected operand: " + tokens.describe(token));
+        }
+    }
+
+    private Ast.Name name(int token) {
+        return new Ast.Name(token, tokens.text(token), tokens.identifier(token));
+    }
+
+    // Assignment targets and ++/-- operands must be plain variables
+    private Ast.Name variable(Ast.Expression expression) throws Exception {
+        Ast.Expression inner = expression;
+        while (inner instanceof Ast.Group group) {
+            inner = group.inner;
+        }
+        if (inner instanceof Ast.Name name) {
+            return name;
+        }
+        throw error(expression.token, "Expected a variable");
+    }
+
+    private Exception error(int token, String message) {
+        return new Exception(tokens.diagnostic(token, message).toString());
+    }
+}
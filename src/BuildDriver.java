@@ -0,0 +1,148 @@
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+// Compiles many translation units in one JVM. Units run in parallel on a
+// fork-join pool; results are reported in input order, so the output does not
+// depend on scheduling.
+public class BuildDriver {
+    public static void main(String[] args) {
+        int parallelism = Runtime.getRuntime().availableProcessors();
+        CompileOptions options = new CompileOptions();
+        options.headers = new HeaderCache();
+        String mode = "build";
+        boolean stats = false;
+        String cacheDirectory = null;
+        long cacheMegabytes = 256;
+        ProgramRunner.Engine engine = ProgramRunner.Engine.VM;
+        List<String> disabledPasses = new ArrayList<>();
+        List<String> inputs = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-j") && i + 1 < args.length) {
+                parallelism = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-O0")) {
+                options.optimize = false;
+            } else if (args[i].startsWith("-fno-")) {
+                disabledPasses.add(args[i].substring("-fno-".length()));
+            } else if (args[i].equals("-r") && i + 1 < args.length) {
+                options.registers = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--run") || args[i].equals("--diff")) {
+                mode = args[i].substring(2);
+            } else if (args[i].equals("--jvm")) {
+                engine = ProgramRunner.Engine.JVM;
+            } else if (args[i].equals("--native")) {
+                engine = ProgramRunner.Engine.NATIVE;
+            } else if (args[i].equals("-S")) {
+                options.assembly = true;
+            } else if (args[i].equals("-I") && i + 1 < args.length) {
+                options.includePaths.add(Paths.get(args[++i]));
+            } else if (args[i].equals("--stats")) {
+                stats = true;
+            } else if (args[i].equals("--cache") && i + 1 < args.length) {
+                cacheDirectory = args[++i];
+            } else if (args[i].equals("--cache-size") && i + 1 < args.length) {
+                cacheMegabytes = Long.parseLong(args[++i]);
+            } else {
+                inputs.add(args[i]);
+            }
+        }
+        try {
+            for (String pass : disabledPasses) {
+                options.disabledPasses |= TacOptimizer.passBit(pass);
+            }
+            if (cacheDirectory != null) {
+                options.cache = new CompileCache(Paths.get(cacheDirectory), cacheMegabytes << 20);
+            }
+            List<Path> units = collectUnits(inputs);
+            if (mode.equals("run")) {
+                System.exit(ProgramRunner.runUnits(units, options, engine));
+            } else if (mode.equals("diff")) {
+                System.exit(ProgramRunner.checkUnits(units, options, engine, System.out) > 0 ? 1 : 0);
+            }
+            List<CompileResult> results = build(units, parallelism, options);
+            int failed = report(results, System.out, System.err);
+            if (stats) {
+                // On stderr, so the listing on stdout is unchanged
+                List<CompileStats> unitStats = new ArrayList<>(results.size());
+                for (CompileResult result : results) {
+                    unitStats.add(result.stats);
+                }
+                System.err.print(CompileStats.report(unitStats));
+            }
+            if (failed > 0) {
+                System.exit(1);
+            }
+        } catch (Exception e) {
+            System.err.println(e.getMessage());
+            System.exit(2);
+        }
+    }
+
+    // Directories are searched recursively for C++ sources, sorted by path
+    static List<Path> collectUnits(List<String> inputs) throws IOException {
+        List<Path> units = new ArrayList<>();
+        for (String input : inputs) {
+            Path path = Paths.get(input);
+            if (Files.isDirectory(path)) {
+                try (Stream<Path> files = Files.walk(path)) {
+                    units.addAll(files.filter(Files::isRegularFile)
+                            .filter(BuildDriver::isSourceFile)
+                            .sorted()
+                            .collect(Collectors.toList()));
+                }
+            } else {
+                units.add(path);
+            }
+        }
+        return units;
+    }
+
+    private static boolean isSourceFile(Path path) {
+        String name = path.getFileName().toString();
+        return name.endsWith(".cpp") || name.endsWith(".cc") || name.endsWith(".cxx");
+    }
+
+    static List<CompileResult> build(List<Path> units, int parallelism, CompileOptions options) {
+        ForkJoinPool pool = new ForkJoinPool(Math.max(1, parallelism));
+        try {
+            List<ForkJoinTask<CompileResult>> tasks = new ArrayList<>(units.size());
+            for (Path unit : units) {
+                tasks.add(pool.submit(() -> Compiler.compileFile(unit, options)));
+            }
+            List<CompileResult> results = new ArrayList<>(units.size());
+            for (ForkJoinTask<CompileResult> task : tasks) {
+                results.add(task.join());
+            }
+            return results;
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    // Returns the number of units that failed
+    static int report(List<CompileResult> results, PrintStream out, PrintStream err) {
+        int failed = 0;
+        for (CompileResult result : results) {
+            out.println("#### " + result.name + " ####");
+            for (String instr : result.code) {
+                out.println(instr);
+            }
+            for (String diagnostic : result.diagnostics) {
+                err.println(result.name + ": " + diagnostic);
+            }
+            if (!result.succeeded()) {
+                failed++;
+            }
+        }
+        out.println(results.size() + " unit(s), " + failed + " failed");
+        return failed;
+    }
+}
@@ -2,32 +2,124 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
 
 public class CodeReader {
     private static String HLL;
 
-    public static String read(String filePath) {
+    public static String read(String filePath) throws IOException {
         StringBuilder stringBuilder = new StringBuilder();
-        try {
-            File file = new File(filePath);
-            BufferedReader bufferedReader = new BufferedReader(new FileReader(file));
+        File file = new File(filePath);
+        try (BufferedReader bufferedReader = new BufferedReader(new FileReader(file))) {
             String line;
             while ((line = bufferedReader.readLine()) != null) {
                 stringBuilder.append(line).append("\n");
             }
-            bufferedReader.close();
-        } catch (IOException e) {
-            e.printStackTrace();
         }
         HLL = stringBuilder.toString();
         return HLL;
     }
 
-    public static void main() {
+    // Maps the file instead of copying it onto the heap; the result can be handed
+    // straight to SourceScanner
+    public static CharSequence map(String filePath) throws IOException {
+        return map(Paths.get(filePath));
+    }
+
+    public static CharSequence map(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Source file too large: " + path);
+            }
+            int chunkCount = (int) ((size + MappedSource.CHUNK_SIZE - 1) >>> MappedSource.CHUNK_BITS);
+            MappedByteBuffer[] chunks = new MappedByteBuffer[chunkCount];
+            for (int i = 0; i < chunkCount; i++) {
+                long offset = (long) i << MappedSource.CHUNK_BITS;
+                long length = Math.min(MappedSource.CHUNK_SIZE, size - offset);
+                chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+            }
+            // The mappings stay valid after the channel is closed
+            return new MappedSource(chunks, 0, (int) size);
+        }
+    }
+
+    public static void main() throws IOException {
         CodeReader codeReader = new CodeReader();
         String filePath = "Codes/main.cpp"; // Specify the path to your C++ file
         String code = codeReader.read(filePath);
         System.out.println("Contents of the file:");
         System.out.println(code);
     }
-}
\ No newline at end of file
+}
+
+// Read-only view of a memory-mapped file. Bytes are decoded one to one
+// (ISO-8859-1), which is exact for ASCII sources and keeps charAt random
+// access; anything else can only appear inside literals and comments.
+class MappedSource implements CharSequence {
+    static final int CHUNK_BITS = 30;
+    static final long CHUNK_SIZE = 1L << CHUNK_BITS;
+    private static final int CHUNK_MASK = (int) CHUNK_SIZE - 1;
+
+    private final MappedByteBuffer[] chunks;
+    private final int offset;
+    private final int length;
+
+    MappedSource(MappedByteBuffer[] chunks, int offset, int length) {
+        this.chunks = chunks;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index < 0 || index >= length) {
+            throw new IndexOutOfBoundsException(index);
+        }
+        int at = offset + index;
+        return (char) (chunks[at >>> CHUNK_BITS].get(at & CHUNK_MASK) & 0xff);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        if (start < 0 || end > length || start > end) {
+            throw new IndexOutOfBoundsException("[" + start + ", " + end + ")");
+        }
+        return new MappedSource(chunks, offset + start, end - start);
+    }
+
+    // Hashes the mapped bytes in place
+    void digest(MessageDigest digest) {
+        int done = 0;
+        while (done < length) {
+            int at = offset + done;
+            int n = Math.min(length - done, (int) (CHUNK_SIZE - (at & CHUNK_MASK)));
+            digest.update(chunks[at >>> CHUNK_BITS].slice(at & CHUNK_MASK, n));
+            done += n;
+        }
+    }
+
+    @Override
+    public String toString() {
+        byte[] bytes = new byte[length];
+        int done = 0;
+        while (done < length) {
+            int at = offset + done;
+            int n = Math.min(length - done, (int) (CHUNK_SIZE - (at & CHUNK_MASK)));
+            chunks[at >>> CHUNK_BITS].get(at & CHUNK_MASK, bytes, done, n);
+            done += n;
+        }
+        return new String(bytes, StandardCharsets.ISO_8859_1);
+    }
+}
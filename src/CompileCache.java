@@ -0,0 +1,284 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+// On-disk cache of compile results, content-addressed by the SHA-256 of the
+// source text and the options that change the output. An entry holds the
+// listing, the diagnostics and the final TAC, so a hit skips every phase. It
+// also lists the headers the unit included with their size and modification
+// time, and the include candidates that did not exist; an entry whose headers
+// changed, or where a missing one appeared, is a miss.
+// Entries are written to a temp file and moved into place, so readers never
+// see a partial entry and concurrent writers of one key are harmless. The
+// modification time of an entry is its last use; the least recently used
+// entries are deleted when the directory grows past its size limit.
+final class CompileCache {
+    private static final int MAGIC = 0x54414343; // "TACC"
+    // Bump when the entry layout or the compiler's output changes
+    private static final int VERSION = 5;
+    private static final String SUFFIX = ".entry";
+
+    private final Path directory;
+    private final long maxBytes;
+    // Approximate, kept up to date by this process; rescanned on eviction
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    CompileCache(Path directory, long maxBytes) throws IOException {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        Files.createDirectories(directory);
+        long total = 0;
+        for (Path entry : entries()) {
+            total += size(entry);
+        }
+        bytes.set(total);
+    }
+
+    // Hex SHA-256 of the format version, the options, the unit's directory,
+    // which quoted includes are resolved against, and the source
+    static String key(String name, CharSequence source, CompileOptions options) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        StringBuilder header = new StringBuilder();
+        header.append(VERSION).append(':').append(options.optimize).append(':').append(options.disabledPasses)
+                .append(':').append(options.registers)
+                .append(':').append(options.assembly).append(':').append(Preprocessor.unitPath(name).getParent());
+        for (Path includePath : options.includePaths) {
+            header.append(':').append(includePath.toAbsolutePath().normalize());
+        }
+        header.append('\n');
+        digest.update(header.toString().getBytes(StandardCharsets.UTF_8));
+        digestSource(digest, source);
+        StringBuilder hex = new StringBuilder(64);
+        for (byte b : digest.digest()) {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return hex.toString();
+    }
+
+    // The source's bytes as read: a mapped file straight from the mapping,
+    // anything else a byte per char, as sources are decoded (ISO-8859-1)
+    private static void digestSource(MessageDigest digest, CharSequence source) {
+        if (source instanceof MappedSource mapped) {
+            mapped.digest(digest);
+            return;
+        }
+        byte[] buffer = new byte[Math.min(source.length(), 8192)];
+        for (int done = 0; done < source.length(); ) {
+            int n = Math.min(buffer.length, source.length() - done);
+            for (int i = 0; i < n; i++) {
+                buffer[i] = (byte) source.charAt(done + i);
+            }
+            digest.update(buffer, 0, n);
+            done += n;
+        }
+    }
+
+    // The cached result under key with the given unit name, null on a miss or
+    // an unreadable entry
+    CompileResult load(String key, String name) {
+        Path entry = directory.resolve(key + SUFFIX);
+        CompileResult result = new CompileResult(name);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(entry)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Not a cache entry");
+            }
+            int dependencies = in.readInt();
+            for (int i = 0; i < dependencies; i++) {
+                Path header = Path.of(in.readUTF());
+                long length = in.readLong();
+                long modified = in.readLong();
+                if (!unchanged(header, length, modified)) {
+                    misses.incrementAndGet();
+                    return null;
+                }
+                result.dependencies.add(header);
+            }
+            readLines(in, result.code);
+            readLines(in, result.diagnostics);
+            if (in.readBoolean()) {
+                result.tac = Tac.read(in);
+            }
+        } catch (NoSuchFileException e) {
+            misses.incrementAndGet();
+            return null;
+        } catch (IOException | RuntimeException e) {
+            // Corrupt or from another version: drop it and compile again
+            delete(entry);
+            misses.incrementAndGet();
+            return null;
+        }
+        try {
+            Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException e) {
+            // Evicted meanwhile; the result read is still good
+        }
+        hits.incrementAndGet();
+        return result;
+    }
+
+    void store(String key, CompileResult result) throws IOException {
+        Path entry = directory.resolve(key + SUFFIX);
+        Path temp = Files.createTempFile(directory, key, ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(result.dependencies.size());
+                for (Path header : result.dependencies) {
+                    out.writeUTF(header.toString());
+                    if (Files.isRegularFile(header)) {
+                        BasicFileAttributes attributes = Files.readAttributes(header, BasicFileAttributes.class);
+                        out.writeLong(attributes.size());
+                        out.writeLong(attributes.lastModifiedTime().toMillis());
+                    } else {
+                        // Looked for and not found
+                        out.writeLong(-1);
+                        out.writeLong(-1);
+                    }
+                }
+                writeLines(out, result.code);
+                writeLines(out, result.diagnostics);
+                out.writeBoolean(result.tac != null);
+                if (result.tac != null) {
+                    result.tac.write(out);
+                }
+            }
+            long size = Files.size(temp);
+            try {
+                Files.move(temp, entry, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, entry, StandardCopyOption.REPLACE_EXISTING);
+            }
+            if (bytes.addAndGet(size) > maxBytes) {
+                evict();
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    // Deletes the least recently used entries until the cache is at 3/4 of its limit
+    private synchronized void evict() throws IOException {
+        List<Path> entries = entries();
+        List<FileTime> times = new ArrayList<>(entries.size());
+        long total = 0;
+        for (Path entry : entries) {
+            total += size(entry);
+        }
+        if (total <= maxBytes) {
+            bytes.set(total);
+            return;
+        }
+        Integer[] order = new Integer[entries.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+            times.add(lastModified(entries.get(i)));
+        }
+        Arrays.sort(order, Comparator.comparing(times::get));
+        long target = maxBytes / 4 * 3;
+        for (int i = 0; i < order.length && total > target; i++) {
+            Path entry = entries.get(order[i]);
+            long size = size(entry);
+            if (delete(entry)) {
+                total -= size;
+            }
+        }
+        bytes.set(total);
+    }
+
+    private static boolean unchanged(Path header, long length, long modified) {
+        if (length < 0) {
+            return !Files.isRegularFile(header);
+        }
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(header, BasicFileAttributes.class);
+            return attributes.size() == length && attributes.lastModifiedTime().toMillis() == modified;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private List<Path> entries() throws IOException {
+        List<Path> entries = new ArrayList<>();
+        try (Stream<Path> files = Files.list(directory)) {
+            files.filter(file -> file.getFileName().toString().endsWith(SUFFIX)).forEach(entries::add);
+        }
+        return entries;
+    }
+
+    private static long size(Path entry) {
+        try {
+            return Files.size(entry);
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private static FileTime lastModified(Path entry) {
+        try {
+            return Files.getLastModifiedTime(entry);
+        } catch (IOException e) {
+            return FileTime.fromMillis(0);
+        }
+    }
+
+    private static boolean delete(Path entry) {
+        try {
+            return Files.deleteIfExists(entry);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    long hits() {
+        return hits.get();
+    }
+
+    long misses() {
+        return misses.get();
+    }
+
+    // Strings are written as length and UTF-8 bytes, since writeUTF stops at 64K
+    private static void writeLines(DataOutputStream out, List<String> lines) throws IOException {
+        out.writeInt(lines.size());
+        for (String line : lines) {
+            byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    private static void readLines(DataInputStream in, List<String> lines) throws IOException {
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            byte[] bytes = new byte[in.readInt()];
+            in.readFully(bytes);
+            lines.add(new String(bytes, StandardCharsets.UTF_8));
+        }
+    }
+}
@@ -0,0 +1,144 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Sends units to a running CompileServer and prints the results the way a
+// local build does, so it can stand in for launching the compiler per file.
+// Units are spread over a few connections; output keeps input order.
+//
+// Usage: CompileClient <socket-path|host:port> <dir|file>... [-j connections] [-O0] [-fno-<pass>]... [-r registers] [-S]
+//        CompileClient <socket-path|host:port> --shutdown
+public class CompileClient {
+    public static void main(String[] args) {
+        if (args.length == 0) {
+            System.err.println("Usage: CompileClient <socket-path|host:port> <dir|file>... [-j connections] [-O0] [-fno-<pass>]... [-r registers] [-S]");
+            System.exit(2);
+        }
+        int connections = 4;
+        boolean shutdown = false;
+        CompileOptions options = new CompileOptions();
+        List<String> disabledPasses = new ArrayList<>();
+        List<String> inputs = new ArrayList<>();
+        for (int i = 1; i < args.length; i++) {
+            if (args[i].equals("-j") && i + 1 < args.length) {
+                connections = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-O0")) {
+                options.optimize = false;
+            } else if (args[i].startsWith("-fno-")) {
+                disabledPasses.add(args[i].substring("-fno-".length()));
+            } else if (args[i].equals("-r") && i + 1 < args.length) {
+                options.registers = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-S")) {
+                options.assembly = true;
+            } else if (args[i].equals("--shutdown")) {
+                shutdown = true;
+            } else {
+                inputs.add(args[i]);
+            }
+        }
+        try {
+            for (String pass : disabledPasses) {
+                options.disabledPasses |= TacOptimizer.passBit(pass);
+            }
+            SocketAddress address = CompileServer.address(args[0]);
+            if (shutdown) {
+                try (SocketChannel channel = open(address)) {
+                    DataOutputStream out = new DataOutputStream(Channels.newOutputStream(channel));
+                    out.writeByte(CompileServer.SHUTDOWN);
+                    out.flush();
+                }
+                return;
+            }
+            List<Path> units = BuildDriver.collectUnits(inputs);
+            List<CompileResult> results = compile(address, units, options, Math.max(1, connections));
+            if (BuildDriver.report(results, System.out, System.err) > 0) {
+                System.exit(1);
+            }
+        } catch (Exception e) {
+            System.err.println(e.getMessage());
+            System.exit(2);
+        }
+    }
+
+    static List<CompileResult> compile(SocketAddress address, List<Path> units, CompileOptions options, int connections)
+            throws Exception {
+        CompileResult[] results = new CompileResult[units.size()];
+        AtomicInteger next = new AtomicInteger();
+        Exception[] failure = new Exception[1];
+        List<Thread> threads = new ArrayList<>();
+        for (int c = 0; c < Math.min(connections, units.size()); c++) {
+            threads.add(Thread.ofVirtual().start(() -> {
+                try (SocketChannel channel = open(address)) {
+                    DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+                    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+                    for (int i = next.getAndIncrement(); i < results.length; i = next.getAndIncrement()) {
+                        results[i] = request(in, out, units.get(i), options);
+                    }
+                } catch (Exception e) {
+                    // Anything, so no unit is left without a result unnoticed
+                    synchronized (failure) {
+                        if (failure[0] == null) {
+                            failure[0] = e;
+                        }
+                    }
+                    // The other connections stop after their current unit
+                    next.set(results.length);
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        if (failure[0] != null) {
+            throw new IOException("Compile server request failed: " + failure[0], failure[0]);
+        }
+        return List.of(results);
+    }
+
+    // The protocol family, Unix-domain or TCP, follows the address
+    private static SocketChannel open(SocketAddress address) throws IOException {
+        return SocketChannel.open(address);
+    }
+
+    private static CompileResult request(DataInputStream in, DataOutputStream out, Path unit, CompileOptions options)
+            throws IOException {
+        CompileResult result = new CompileResult(unit.toString());
+        byte[] source;
+        try {
+            source = Files.readAllBytes(unit);
+        } catch (IOException e) {
+            result.diagnostics.add("I/O error: " + e);
+            return result;
+        }
+        out.writeByte(CompileServer.COMPILE);
+        // Absolute, so the server resolves quoted includes from the unit's directory
+        out.writeUTF(unit.toAbsolutePath().toString());
+        out.writeBoolean(options.optimize);
+        out.writeInt(options.disabledPasses);
+        out.writeInt(options.registers);
+        out.writeBoolean(options.assembly);
+        out.writeInt(source.length);
+        out.write(source);
+        out.flush();
+        while (true) {
+            int kind = in.readUnsignedByte();
+            if (kind == CompileServer.END) {
+                return result;
+            }
+            byte[] line = new byte[in.readInt()];
+            in.readFully(line);
+            (kind == CompileServer.CODE ? result.code : result.diagnostics).add(new String(line, StandardCharsets.UTF_8));
+        }
+    }
+}
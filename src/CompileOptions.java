@@ -0,0 +1,20 @@
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+// Options for compiling one translation unit, shared by every unit of a build
+final class CompileOptions {
+    boolean optimize = true;
+    // Bits of TacOptimizer.PASSES switched off with -fno-<pass>
+    int disabledPasses;
+    // Temps are allocated to this many int and float registers; 0 leaves them as generated
+    int registers;
+    // List x86-64 assembly instead of TAC
+    boolean assembly;
+    // Results of earlier compiles; null compiles every unit
+    CompileCache cache;
+    // Searched for #include files after the including file's directory
+    List<Path> includePaths = new ArrayList<>();
+    // Scanned headers shared by the units; null scans them for each unit
+    HeaderCache headers;
+}
@@ -0,0 +1,220 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+
+// Compile daemon: keeps one warm JVM and serves compile requests over a
+// Unix-domain socket, or a loopback port for an address of the form host:port.
+// Each connection gets a virtual thread and carries requests one after
+// another. At most maxInFlight compiles run at once; a request waits for a
+// permit before it is read, so a busy server stops draining its sockets and
+// clients block on write instead of piling work up in memory.
+//
+// Usage: CompileServer <socket-path|host:port> [-c max-in-flight] [-I dir]... [--cache dir [--cache-size MB]]
+//
+// Protocol, all big-endian as written by DataOutputStream:
+//   request:  byte COMPILE, UTF name (the unit's path, for quoted includes), boolean optimize,
+//             int disabled passes, int registers, boolean assembly, int length, length bytes of source
+//             | byte SHUTDOWN
+//   response: (byte CODE | byte DIAGNOSTIC, int length, UTF-8 bytes)*, byte END
+public class CompileServer {
+    static final int COMPILE = 1;
+    static final int SHUTDOWN = 2;
+    static final int END = 0;
+    static final int CODE = 1;
+    static final int DIAGNOSTIC = 2;
+    // Sources larger than this are refused rather than buffered
+    static final int MAX_SOURCE = 64 << 20;
+
+    private final ServerSocketChannel server;
+    private final Path socketFile;
+    private final Semaphore inFlight;
+    // Connections beyond this wait in the listen backlog
+    private final Semaphore connections;
+    private final CompileCache cache;
+    private final List<Path> includePaths;
+    // Headers stay scanned from one request to the next
+    private final HeaderCache headers = new HeaderCache();
+    private volatile boolean stopping;
+
+    CompileServer(String address, int maxInFlight, CompileCache cache, List<Path> includePaths) throws IOException {
+        SocketAddress socketAddress = address(address);
+        if (socketAddress instanceof UnixDomainSocketAddress) {
+            socketFile = ((UnixDomainSocketAddress) socketAddress).getPath();
+            // Left behind by a server that did not shut down cleanly
+            Files.deleteIfExists(socketFile);
+            server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        } else {
+            socketFile = null;
+            server = ServerSocketChannel.open();
+        }
+        server.bind(socketAddress);
+        this.inFlight = new Semaphore(maxInFlight);
+        this.connections = new Semaphore(maxInFlight * 16);
+        this.cache = cache;
+        this.includePaths = includePaths;
+    }
+
+    public static void main(String[] args) {
+        if (args.length == 0) {
+            System.err.println("Usage: CompileServer <socket-path|host:port> [-c max-in-flight] [-I dir]... [--cache dir [--cache-size MB]]");
+            System.exit(2);
+        }
+        int maxInFlight = Runtime.getRuntime().availableProcessors();
+        String cacheDirectory = null;
+        long cacheMegabytes = 256;
+        List<Path> includePaths = new ArrayList<>();
+        for (int i = 1; i < args.length; i++) {
+            if (args[i].equals("-c") && i + 1 < args.length) {
+                maxInFlight = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-I") && i + 1 < args.length) {
+                includePaths.add(Paths.get(args[++i]));
+            } else if (args[i].equals("--cache") && i + 1 < args.length) {
+                cacheDirectory = args[++i];
+            } else if (args[i].equals("--cache-size") && i + 1 < args.length) {
+                cacheMegabytes = Long.parseLong(args[++i]);
+            } else {
+                System.err.println("Unknown option " + args[i]);
+                System.exit(2);
+            }
+        }
+        try {
+            CompileCache cache = cacheDirectory != null
+                    ? new CompileCache(Paths.get(cacheDirectory), cacheMegabytes << 20) : null;
+            CompileServer server = new CompileServer(args[0], Math.max(1, maxInFlight), cache, includePaths);
+            System.err.println("Listening on " + args[0]);
+            server.serve();
+        } catch (Exception e) {
+            System.err.println(e.getMessage());
+            System.exit(2);
+        }
+    }
+
+    // A path, or host:port on a loopback interface
+    static SocketAddress address(String address) {
+        int colon = address.lastIndexOf(':');
+        if (colon > 0 && colon + 1 < address.length() && address.substring(colon + 1).chars().allMatch(Character::isDigit)) {
+            InetSocketAddress inet = new InetSocketAddress(address.substring(0, colon),
+                    Integer.parseInt(address.substring(colon + 1)));
+            if (inet.isUnresolved() || !inet.getAddress().isLoopbackAddress()) {
+                throw new IllegalArgumentException("Not a loopback address: " + address);
+            }
+            return inet;
+        }
+        return UnixDomainSocketAddress.of(address);
+    }
+
+    void serve() throws IOException, InterruptedException {
+        try {
+            while (!stopping) {
+                connections.acquire();
+                SocketChannel channel;
+                try {
+                    channel = server.accept();
+                } catch (ClosedChannelException e) {
+                    break;
+                }
+                Thread.ofVirtual().start(() -> {
+                    try {
+                        handle(channel);
+                    } finally {
+                        connections.release();
+                    }
+                });
+            }
+        } finally {
+            close();
+        }
+    }
+
+    private void close() throws IOException {
+        stopping = true;
+        server.close();
+        if (socketFile != null) {
+            Files.deleteIfExists(socketFile);
+        }
+    }
+
+    private void handle(SocketChannel channel) {
+        try (channel) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+            while (true) {
+                int op;
+                try {
+                    op = in.readUnsignedByte();
+                } catch (EOFException e) {
+                    return;
+                }
+                if (op == SHUTDOWN) {
+                    close();
+                    return;
+                }
+                if (op != COMPILE) {
+                    return;
+                }
+                inFlight.acquire();
+                try {
+                    String name = in.readUTF();
+                    CompileOptions options = new CompileOptions();
+                    options.optimize = in.readBoolean();
+                    options.disabledPasses = in.readInt();
+                    options.registers = in.readInt();
+                    options.assembly = in.readBoolean();
+                    options.cache = cache;
+                    options.includePaths = includePaths;
+                    options.headers = headers;
+                    int length = in.readInt();
+                    if (length < 0 || length > MAX_SOURCE) {
+                        writeLine(out, DIAGNOSTIC, "Source too large: " + length + " bytes");
+                        out.writeByte(END);
+                        out.flush();
+                        return;
+                    }
+                    byte[] source = new byte[length];
+                    in.readFully(source);
+                    // Bytes as chars, the way CodeReader.map reads a local file
+                    CompileResult result = Compiler.compile(name, new String(source, StandardCharsets.ISO_8859_1), options);
+                    writeLines(out, CODE, result.code);
+                    writeLines(out, DIAGNOSTIC, result.diagnostics);
+                    out.writeByte(END);
+                    out.flush();
+                } finally {
+                    inFlight.release();
+                }
+            }
+        } catch (IOException | InterruptedException e) {
+            // The client went away; nothing to report to
+        }
+    }
+
+    private static void writeLines(DataOutputStream out, int kind, List<String> lines) throws IOException {
+        for (String line : lines) {
+            writeLine(out, kind, line);
+        }
+    }
+
+    private static void writeLine(DataOutputStream out, int kind, String line) throws IOException {
+        byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+        out.writeByte(kind);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+}
@@ -0,0 +1,178 @@
+import java.lang.management.ManagementFactory;
+import java.util.List;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+// Time, allocation and sizes of each phase of one unit's compile. Phases run
+// one after another on one thread, so a single open phase is tracked. Each
+// phase is also a JFR event, which costs nothing unless a recording enables it.
+final class CompileStats {
+    enum Phase {
+        CACHE, READ, SCAN, PARSE, AST, RESOLVE, TAC, OPTIMIZE, ALLOCATE, EMIT
+    }
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    final String unit;
+    final long[] nanos = new long[Phase.values().length];
+    final long[] bytes = new long[Phase.values().length];
+    int tokens;
+    int nodes;
+    // TAC instructions as generated and after optimization
+    int instructions;
+    int optimizedInstructions;
+    // Answered from the compile cache; only the read and cache phases ran
+    boolean cached;
+
+    private Phase current;
+    private long startNanos;
+    private long startBytes;
+    private PhaseEvent event;
+
+    CompileStats(String unit) {
+        this.unit = unit;
+    }
+
+    void begin(Phase phase) {
+        current = phase;
+        event = new PhaseEvent();
+        event.begin();
+        startBytes = THREADS.getThreadAllocatedBytes(Thread.currentThread().threadId());
+        startNanos = System.nanoTime();
+    }
+
+    // Closes the open phase; count is the tokens, nodes or instructions it produced
+    void end(int count) {
+        long elapsed = System.nanoTime() - startNanos;
+        long allocated = THREADS.getThreadAllocatedBytes(Thread.currentThread().threadId()) - startBytes;
+        nanos[current.ordinal()] += elapsed;
+        bytes[current.ordinal()] += allocated;
+        event.end();
+        if (event.shouldCommit()) {
+            event.unit = unit;
+            event.phase = current.name().toLowerCase();
+            event.allocated = allocated;
+            event.count = count;
+            event.commit();
+        }
+        event = null;
+        current = null;
+    }
+
+    // Closes the open phase, if any, when it threw
+    void abort() {
+        if (current != null) {
+            end(0);
+        }
+    }
+
+    long totalNanos() {
+        long total = 0;
+        for (long n : nanos) {
+            total += n;
+        }
+        return total;
+    }
+
+    void appendJson(StringBuilder out) {
+        out.append("{\"unit\":\"");
+        appendEscaped(out, unit);
+        out.append("\",\"cached\":").append(cached)
+                .append(",\"tokens\":").append(tokens)
+                .append(",\"nodes\":").append(nodes)
+                .append(",\"instructions\":").append(instructions)
+                .append(",\"optimizedInstructions\":").append(optimizedInstructions)
+                .append(",\"nanos\":").append(totalNanos())
+                .append(",\"phases\":{");
+        appendPhases(out, nanos, bytes);
+        out.append("}}");
+    }
+
+    // {"units":[...],"total":{...}}, totals summed over the units that have stats
+    static String report(List<CompileStats> units) {
+        StringBuilder out = new StringBuilder();
+        long[] nanos = new long[Phase.values().length];
+        long[] bytes = new long[Phase.values().length];
+        long tokens = 0;
+        long nodes = 0;
+        long instructions = 0;
+        int cached = 0;
+        out.append("{\"units\":[");
+        for (int i = 0; i < units.size(); i++) {
+            CompileStats stats = units.get(i);
+            if (i > 0) {
+                out.append(',');
+            }
+            out.append("\n  ");
+            stats.appendJson(out);
+            for (int p = 0; p < nanos.length; p++) {
+                nanos[p] += stats.nanos[p];
+                bytes[p] += stats.bytes[p];
+            }
+            tokens += stats.tokens;
+            nodes += stats.nodes;
+            instructions += stats.instructions;
+            if (stats.cached) {
+                cached++;
+            }
+        }
+        out.append("\n],\n\"total\":{\"units\":").append(units.size())
+                .append(",\"cached\":").append(cached)
+                .append(",\"tokens\":").append(tokens)
+                .append(",\"nodes\":").append(nodes)
+                .append(",\"instructions\":").append(instructions)
+                .append(",\"phases\":{");
+        appendPhases(out, nanos, bytes);
+        out.append("}}}\n");
+        return out.toString();
+    }
+
+    private static void appendPhases(StringBuilder out, long[] nanos, long[] bytes) {
+        Phase[] phases = Phase.values();
+        for (int p = 0; p < phases.length; p++) {
+            if (p > 0) {
+                out.append(',');
+            }
+            out.append('"').append(phases[p].name().toLowerCase()).append("\":{\"nanos\":").append(nanos[p])
+                    .append(",\"bytes\":").append(bytes[p]).append('}');
+        }
+    }
+
+    private static void appendEscaped(StringBuilder out, String text) {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '"' || c == '\\') {
+                out.append('\\').append(c);
+            } else if (c < 0x20) {
+                out.append(String.format("\\u%04x", (int) c));
+            } else {
+                out.append(c);
+            }
+        }
+    }
+
+    @Name("compiler.Phase")
+    @Label("Compiler Phase")
+    @Category("Compiler")
+    @Description("One phase of compiling a translation unit")
+    static final class PhaseEvent extends jdk.jfr.Event {
+        @Label("Unit")
+        String unit;
+
+        @Label("Phase")
+        String phase;
+
+        @Label("Allocated")
+        @DataAmount
+        long allocated;
+
+        @Label("Count")
+        @Description("Tokens, tree nodes or TAC instructions produced by the phase")
+        int count;
+    }
+}
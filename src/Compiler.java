@@ -0,0 +1,163 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+// The read -> preprocess and lex -> parse -> AST -> resolve names -> TAC ->
+// optimize -> allocate pipeline for one translation unit, listing TAC or
+// assembly. With a cache in the options, an
+// unchanged unit is answered from it without running any phase.
+// Nothing is printed here; output and diagnostics are collected in the result
+// so units can be compiled concurrently and reported in a fixed order.
+class Compiler {
+    static CompileResult compileFile(Path path, CompileOptions options) {
+        CompileStats stats = new CompileStats(path.toString());
+        CharSequence source;
+        stats.begin(CompileStats.Phase.READ);
+        try {
+            source = CodeReader.map(path);
+        } catch (IOException e) {
+            stats.end(0);
+            CompileResult result = new CompileResult(path.toString());
+            result.diagnostics.add("I/O error: " + e);
+            result.stats = stats;
+            return result;
+        }
+        stats.end(source.length());
+        return compile(path.toString(), source, options, stats);
+    }
+
+    static CompileResult compile(String name, CharSequence source, CompileOptions options) {
+        return compile(name, source, options, new CompileStats(name));
+    }
+
+    private static CompileResult compile(String name, CharSequence source, CompileOptions options, CompileStats stats) {
+        if (options.cache == null) {
+            CompileResult result = new CompileResult(name);
+            result.stats = stats;
+            build(result, source, options, stats);
+            return result;
+        }
+        stats.begin(CompileStats.Phase.CACHE);
+        String key = CompileCache.key(name, source, options);
+        CompileResult cached = options.cache.load(key, name);
+        stats.end(0);
+        if (cached != null) {
+            stats.cached = true;
+            cached.stats = stats;
+            return cached;
+        }
+        CompileResult result = new CompileResult(name);
+        result.stats = stats;
+        build(result, source, options, stats);
+        if (result.exhausted) {
+            return result;
+        }
+        stats.begin(CompileStats.Phase.CACHE);
+        try {
+            options.cache.store(key, result);
+        } catch (IOException e) {
+            // A cache that cannot be written only costs the next compile
+        }
+        stats.end(0);
+        return result;
+    }
+
+    private static void build(CompileResult result, CharSequence source, CompileOptions options, CompileStats stats) {
+        try {
+            stats.begin(CompileStats.Phase.SCAN);
+            Preprocessor preprocessor = new Preprocessor(options.includePaths, options.headers);
+            TokenBuffer tokens = preprocessor.run(result.name, source);
+            result.dependencies.addAll(preprocessor.dependencies);
+            stats.tokens = tokens.size();
+            stats.end(stats.tokens);
+            if (!preprocessor.diagnostics.isEmpty()) {
+                for (Diagnostic diagnostic : preprocessor.diagnostics) {
+                    result.diagnostics.add(diagnostic.toString());
+                }
+                return;
+            }
+
+            stats.begin(CompileStats.Phase.PARSE);
+            Parser parser = new Parser(tokens, true);
+            FlatParseTree tree = parser.parseFlat();
+            stats.nodes = tree.size();
+            stats.end(stats.nodes);
+            List<Diagnostic> parseErrors = parser.getDiagnostics();
+            if (!parseErrors.isEmpty()) {
+                for (Diagnostic diagnostic : parseErrors) {
+                    result.diagnostics.add(diagnostic.toString());
+                }
+                return;
+            }
+
+            stats.begin(CompileStats.Phase.AST);
+            Ast.Program program = AstBuilder.build(tree);
+            stats.end(0);
+
+            stats.begin(CompileStats.Phase.RESOLVE);
+            SemanticAnalyzer names = SemanticAnalyzer.analyze(program, tokens);
+            stats.end(0);
+            if (!names.diagnostics.isEmpty()) {
+                for (Diagnostic diagnostic : names.diagnostics) {
+                    result.diagnostics.add(diagnostic.toString());
+                }
+                return;
+            }
+
+            stats.begin(CompileStats.Phase.TAC);
+            Tac tac = new ThreeAddressCodeGenerator().generate(program, tokens.identifiers, names);
+            stats.instructions = tac.size();
+            stats.end(stats.instructions);
+            if (options.optimize) {
+                stats.begin(CompileStats.Phase.OPTIMIZE);
+                new TacOptimizer(options.disabledPasses).run(tac);
+                stats.end(tac.size());
+            }
+            stats.optimizedInstructions = tac.size();
+            if (options.registers > 0) {
+                stats.begin(CompileStats.Phase.ALLOCATE);
+                LinearScan.allocate(tac, options.registers).rewrite();
+                stats.end(tac.size());
+            }
+            stats.begin(CompileStats.Phase.EMIT);
+            result.code.addAll(options.assembly ? X86Backend.assembleLines(tac) : tac.toStrings());
+            stats.end(result.code.size());
+            result.tac = tac;
+        } catch (Exception e) {
+            stats.abort();
+            result.diagnostics.add(e.getMessage() != null ? e.getMessage() : e.toString());
+        } catch (StackOverflowError | OutOfMemoryError e) {
+            // Fails this unit only; units compiled alongside it go on
+            stats.abort();
+            result.exhausted = true;
+            result.diagnostics.add(e instanceof StackOverflowError
+                    ? "Stack overflow: the unit is nested too deeply to compile"
+                    : "Out of memory compiling the unit");
+        }
+    }
+}
+
+class CompileResult {
+    final String name;
+    final List<String> code;
+    final List<String> diagnostics;
+    // The compiled code, for back ends; null if the unit failed
+    Tac tac;
+    CompileStats stats;
+    // Headers the unit included and include candidates that did not exist,
+    // which a cached result depends on
+    final List<Path> dependencies = new ArrayList<>();
+    // Failed for lack of stack or heap, which is not cached
+    boolean exhausted;
+
+    CompileResult(String name) {
+        this.name = name;
+        this.code = new ArrayList<>();
+        this.diagnostics = new ArrayList<>();
+    }
+
+    boolean succeeded() {
+        return diagnostics.isEmpty();
+    }
+}
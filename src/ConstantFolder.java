@@ -0,0 +1,131 @@
+// Evaluates Tac operators on constant operands. Ints follow 32-bit C++ int
+// arithmetic; an operation with a float operand is done in double. Shared by
+// the local folding in TacOptimizer and by SparseConstantPropagation.
+final class ConstantFolder {
+    private ConstantFolder() {
+    }
+
+    // The constant result of op on constant operands, 0 when it cannot be
+    // folded (non-constant operand, division by zero, float %)
+    static int fold(Tac tac, Tac.Opcode op, int a, int b) {
+        if (op.isUnary()) {
+            return foldUnary(tac, op, a);
+        }
+        if (!op.isBinary()) {
+            return 0;
+        }
+        int tagA = Tac.tag(a);
+        int tagB = Tac.tag(b);
+        boolean intA = tagA == Tac.INT;
+        boolean intB = tagB == Tac.INT;
+        if (intA && intB) {
+            int x = (int) tac.intValue(a);
+            int y = (int) tac.intValue(b);
+            switch (op) {
+                case ADD:
+                    return tac.intConstant(x + y);
+                case SUB:
+                    return tac.intConstant(x - y);
+                case MUL:
+                    return tac.intConstant(x * y);
+                case DIV:
+                    return y != 0 ? tac.intConstant(x / y) : 0;
+                case MOD:
+                    return y != 0 ? tac.intConstant(x % y) : 0;
+                default:
+                    return foldComparison(tac, op, Integer.compare(x, y), x != 0, y != 0);
+            }
+        }
+        boolean numberA = intA || tagA == Tac.FLOAT;
+        boolean numberB = intB || tagB == Tac.FLOAT;
+        if (numberA && numberB) {
+            double x = intA ? (int) tac.intValue(a) : tac.floatValue(a);
+            double y = intB ? (int) tac.intValue(b) : tac.floatValue(b);
+            switch (op) {
+                case ADD:
+                    return tac.floatConstant(x + y);
+                case SUB:
+                    return tac.floatConstant(x - y);
+                case MUL:
+                    return tac.floatConstant(x * y);
+                case DIV:
+                    return tac.floatConstant(x / y);
+                case MOD:
+                    return 0;
+                default:
+                    if ((Double.isNaN(x) || Double.isNaN(y)) && op != Tac.Opcode.AND && op != Tac.Opcode.OR) {
+                        // Every comparison with NaN is false but !=
+                        return tac.intConstant(op == Tac.Opcode.NE ? 1 : 0);
+                    }
+                    // Not Double.compare, which orders -0.0 before 0.0
+                    return foldComparison(tac, op, x < y ? -1 : (x > y ? 1 : 0), x != 0, y != 0);
+            }
+        }
+        return 0;
+    }
+
+    private static int foldComparison(Tac tac, Tac.Opcode op, int compare, boolean x, boolean y) {
+        boolean value;
+        switch (op) {
+            case LT:
+                value = compare < 0;
+                break;
+            case GT:
+                value = compare > 0;
+                break;
+            case LE:
+                value = compare <= 0;
+                break;
+            case GE:
+                value = compare >= 0;
+                break;
+            case EQ:
+                value = compare == 0;
+                break;
+            case NE:
+                value = compare != 0;
+                break;
+            case AND:
+                value = x && y;
+                break;
+            case OR:
+                value = x || y;
+                break;
+            default:
+                return 0;
+        }
+        return tac.intConstant(value ? 1 : 0);
+    }
+
+    private static int foldUnary(Tac tac, Tac.Opcode op, int a) {
+        int tag = Tac.tag(a);
+        if (tag == Tac.INT) {
+            int x = (int) tac.intValue(a);
+            return tac.intConstant(op == Tac.Opcode.NEG ? -x : (x == 0 ? 1 : 0));
+        }
+        if (tag == Tac.FLOAT) {
+            double x = tac.floatValue(a);
+            return op == Tac.Opcode.NEG ? tac.floatConstant(-x) : tac.intConstant(x == 0 ? 1 : 0);
+        }
+        return 0;
+    }
+
+    // Whether a branch on the constant condition is taken: JUMP_IF_FALSE jumps on zero
+    static boolean isFalse(Tac tac, int condition) {
+        return Tac.tag(condition) == Tac.INT ? (int) tac.intValue(condition) == 0 : tac.floatValue(condition) == 0;
+    }
+
+    static boolean sameConstant(Tac tac, int a, int b) {
+        if (Tac.tag(a) != Tac.tag(b)) {
+            return false;
+        }
+        switch (Tac.tag(a)) {
+            case Tac.INT:
+                return tac.intValue(a) == tac.intValue(b);
+            case Tac.FLOAT:
+                return Double.doubleToLongBits(tac.floatValue(a)) == Double.doubleToLongBits(tac.floatValue(b));
+            default:
+                return a == b;
+        }
+    }
+}
@@ -0,0 +1,175 @@
+import java.util.Arrays;
+
+// Basic blocks of a Tac and the edges between them. Block b holds instructions
+// [start(b), end(b)); block 0 is the entry. Successors and predecessors are
+// stored compressed: the edges of block b are edges[first[b] .. first[b + 1]).
+final class ControlFlowGraph {
+    final Tac tac;
+    private final int[] starts;
+    private final int blockCount;
+    private final int[] successorFirst;
+    private final int[] successors;
+    private final int[] predecessorFirst;
+    private final int[] predecessors;
+
+    ControlFlowGraph(Tac tac) {
+        this.tac = tac;
+        int size = tac.size();
+
+        int count = 0;
+        int[] leaders = new int[size + 1];
+        for (int i = 0; i < size; i++) {
+            if (tac.isLeader(i)) {
+                leaders[count++] = i;
+            }
+        }
+        leaders[count] = size;
+        starts = Arrays.copyOf(leaders, count + 1);
+        blockCount = count;
+
+        int[] labelBlocks = new int[tac.labelCount()];
+        for (int b = 0; b < blockCount; b++) {
+            if (tac.op(starts[b]) == Tac.Opcode.LABEL) {
+                labelBlocks[Tac.index(tac.a(starts[b]))] = b;
+            }
+        }
+
+        // At most two successors per block: a jump target and the fall-through
+        int[] targets = new int[blockCount * 2];
+        successorFirst = new int[blockCount + 1];
+        int edges = 0;
+        for (int b = 0; b < blockCount; b++) {
+            successorFirst[b] = edges;
+            int last = starts[b + 1] - 1;
+            Tac.Opcode op = tac.op(last);
+            boolean fallsThrough = op != Tac.Opcode.JUMP && op != Tac.Opcode.RETURN;
+            if (op == Tac.Opcode.JUMP) {
+                targets[edges++] = labelBlocks[Tac.index(tac.a(last))];
+            } else if (op == Tac.Opcode.JUMP_IF_FALSE) {
+                targets[edges++] = labelBlocks[Tac.index(tac.b(last))];
+            }
+            if (fallsThrough && b + 1 < blockCount && (edges == successorFirst[b] || targets[edges - 1] != b + 1)) {
+                targets[edges++] = b + 1;
+            }
+        }
+        successorFirst[blockCount] = edges;
+        successors = Arrays.copyOf(targets, edges);
+
+        predecessorFirst = new int[blockCount + 1];
+        for (int e = 0; e < edges; e++) {
+            predecessorFirst[successors[e] + 1]++;
+        }
+        for (int b = 0; b < blockCount; b++) {
+            predecessorFirst[b + 1] += predecessorFirst[b];
+        }
+        predecessors = new int[edges];
+        int[] fill = Arrays.copyOf(predecessorFirst, blockCount);
+        for (int b = 0; b < blockCount; b++) {
+            for (int e = successorFirst[b]; e < successorFirst[b + 1]; e++) {
+                predecessors[fill[successors[e]]++] = b;
+            }
+        }
+    }
+
+    int blockCount() {
+        return blockCount;
+    }
+
+    int start(int block) {
+        return starts[block];
+    }
+
+    int end(int block) {
+        return starts[block + 1];
+    }
+
+    // Block containing the instruction, by binary search over block starts
+    int blockOf(int instruction) {
+        int index = Arrays.binarySearch(starts, 0, blockCount, instruction);
+        return index >= 0 ? index : -index - 2;
+    }
+
+    int successorCount(int block) {
+        return successorFirst[block + 1] - successorFirst[block];
+    }
+
+    int successor(int block, int k) {
+        return successors[successorFirst[block] + k];
+    }
+
+    // Edges are numbered 0 .. edgeCount() - 1 in successor order
+    int edgeCount() {
+        return successors.length;
+    }
+
+    int successorEdge(int block, int k) {
+        return successorFirst[block] + k;
+    }
+
+    // Position of from among the predecessors of block, -1 if it is not one
+    int predecessorIndex(int block, int from) {
+        for (int k = 0; k < predecessorCount(block); k++) {
+            if (predecessor(block, k) == from) {
+                return k;
+            }
+        }
+        return -1;
+    }
+
+    int predecessorCount(int block) {
+        return predecessorFirst[block + 1] - predecessorFirst[block];
+    }
+
+    int predecessor(int block, int k) {
+        return predecessors[predecessorFirst[block] + k];
+    }
+
+    // Blocks reachable from the entry in reverse postorder, by iterative DFS
+    int[] reversePostorder() {
+        int[] order = new int[blockCount];
+        if (blockCount == 0) {
+            return order;
+        }
+        boolean[] visited = new boolean[blockCount];
+        int[] stack = new int[blockCount];
+        int[] nextEdge = new int[blockCount];
+        int depth = 0;
+        int position = blockCount;
+        stack[depth++] = 0;
+        visited[0] = true;
+        while (depth > 0) {
+            int block = stack[depth - 1];
+            if (nextEdge[block] < successorCount(block)) {
+                int successor = successor(block, nextEdge[block]++);
+                if (!visited[successor]) {
+                    visited[successor] = true;
+                    stack[depth++] = successor;
+                }
+            } else {
+                depth--;
+                order[--position] = block;
+            }
+        }
+        return Arrays.copyOfRange(order, position, blockCount);
+    }
+
+    // B0 [0, 4) -> B1 B2, followed by the block's instructions
+    @Override
+    public String toString() {
+        StringBuilder out = new StringBuilder();
+        for (int b = 0; b < blockCount; b++) {
+            out.append('B').append(b).append(" [").append(start(b)).append(", ").append(end(b)).append(')');
+            if (successorCount(b) > 0) {
+                out.append(" ->");
+                for (int k = 0; k < successorCount(b); k++) {
+                    out.append(" B").append(successor(b, k));
+                }
+            }
+            out.append('\n');
+            for (int i = start(b); i < end(b); i++) {
+                out.append("    ").append(tac.instructionText(i)).append('\n');
+            }
+        }
+        return out.toString();
+    }
+}
@@ -0,0 +1,299 @@
+import java.util.Arrays;
+import java.util.function.IntFunction;
+
+// Iterative bitset dataflow over the basic blocks of a ControlFlowGraph. Each
+// block has gen and kill sets, and solve() finds the fixed point of
+// out = gen | (in & ~kill) for forward problems (in and out swap roles for
+// backward ones), meeting at joins by union or by intersection. All sets of
+// one kind live in a single long[]: block b owns words() longs from
+// b * words(), so thousands of bits per block cost a few hundred bytes and a
+// meet is a loop over longs. The worklist is seeded in reverse postorder
+// (postorder going backward), which settles code without loops in one pass.
+final class Dataflow {
+    final ControlFlowGraph cfg;
+    final boolean forward;
+    final boolean union;
+    private final int bits;
+    private final int words;
+    private final long[] gen;
+    private final long[] kill;
+    private final long[] in;
+    private final long[] out;
+    // Blocks taken off the worklist by the last solve()
+    private int visits;
+
+    Dataflow(ControlFlowGraph cfg, int bits, boolean forward, boolean union) {
+        this.cfg = cfg;
+        this.bits = bits;
+        this.forward = forward;
+        this.union = union;
+        words = (bits + 63) >>> 6;
+        int length = cfg.blockCount() * words;
+        gen = new long[length];
+        kill = new long[length];
+        in = new long[length];
+        out = new long[length];
+    }
+
+    // Live variables and temps: bits are Tac slots, live-in and live-out per block
+    static Dataflow liveness(ControlFlowGraph cfg) {
+        Tac tac = cfg.tac;
+        Dataflow live = new Dataflow(cfg, tac.slotCount(), false, true);
+        for (int block = 0; block < cfg.blockCount(); block++) {
+            int base = block * live.words;
+            for (int i = cfg.end(block) - 1; i >= cfg.start(block); i--) {
+                if (tac.op(i).writesDst()) {
+                    int dst = tac.slot(tac.dst(i));
+                    clear(live.gen, base, dst);
+                    set(live.kill, base, dst);
+                }
+                int a = tac.slot(tac.a(i));
+                int b = tac.slot(tac.b(i));
+                if (a >= 0) {
+                    set(live.gen, base, a);
+                }
+                if (b >= 0) {
+                    set(live.gen, base, b);
+                }
+            }
+        }
+        live.solve();
+        return live;
+    }
+
+    // Reaching definitions: bit i stands for the definition made by
+    // instruction i, so the sets are as wide as the Tac
+    static Dataflow reachingDefinitions(ControlFlowGraph cfg) {
+        Tac tac = cfg.tac;
+        int size = tac.size();
+        int slots = tac.slotCount();
+        Dataflow reaching = new Dataflow(cfg, size, true, true);
+
+        // Defining instructions per slot, compressed
+        int[] slotDefFirst = new int[slots + 1];
+        for (int i = 0; i < size; i++) {
+            if (tac.op(i).writesDst()) {
+                slotDefFirst[tac.slot(tac.dst(i)) + 1]++;
+            }
+        }
+        for (int s = 0; s < slots; s++) {
+            slotDefFirst[s + 1] += slotDefFirst[s];
+        }
+        int[] slotDefs = new int[slotDefFirst[slots]];
+        int[] fill = Arrays.copyOf(slotDefFirst, slots);
+        for (int i = 0; i < size; i++) {
+            if (tac.op(i).writesDst()) {
+                slotDefs[fill[tac.slot(tac.dst(i))]++] = i;
+            }
+        }
+
+        // Walking each block backwards, the first definition of a slot seen is
+        // the one that leaves the block; it kills every other one of the slot
+        int[] seenIn = new int[slots];
+        Arrays.fill(seenIn, -1);
+        for (int block = 0; block < cfg.blockCount(); block++) {
+            int base = block * reaching.words;
+            for (int i = cfg.end(block) - 1; i >= cfg.start(block); i--) {
+                if (!tac.op(i).writesDst()) {
+                    continue;
+                }
+                int slot = tac.slot(tac.dst(i));
+                if (seenIn[slot] == block) {
+                    continue;
+                }
+                seenIn[slot] = block;
+                set(reaching.gen, base, i);
+                for (int d = slotDefFirst[slot]; d < slotDefFirst[slot + 1]; d++) {
+                    set(reaching.kill, base, slotDefs[d]);
+                }
+            }
+        }
+        reaching.solve();
+        return reaching;
+    }
+
+    void gen(int block, int bit) {
+        set(gen, block * words, bit);
+    }
+
+    void kill(int block, int bit) {
+        set(kill, block * words, bit);
+    }
+
+    void solve() {
+        int blocks = cfg.blockCount();
+        int[] order = cfg.reversePostorder();
+        if (!forward) {
+            for (int i = 0, j = order.length - 1; i < j; i++, j--) {
+                int swap = order[i];
+                order[i] = order[j];
+                order[j] = swap;
+            }
+        }
+        // Meet side and transfer side of each block in the direction of the flow
+        long[] before = forward ? in : out;
+        long[] after = forward ? out : in;
+        Arrays.fill(before, 0);
+        Arrays.fill(after, 0);
+        if (!union) {
+            // Intersection starts from the full set, bits past the end excepted
+            for (int block : order) {
+                int base = block * words;
+                Arrays.fill(after, base, base + words, -1L);
+                if ((bits & 63) != 0) {
+                    after[base + words - 1] = (1L << bits) - 1;
+                }
+            }
+        }
+
+        boolean[] reachable = new boolean[blocks];
+        boolean[] queued = new boolean[blocks];
+        int[] queue = new int[blocks + 1];
+        int head = 0;
+        int tail = 0;
+        for (int block : order) {
+            reachable[block] = true;
+            queued[block] = true;
+            queue[tail++] = block;
+        }
+        visits = 0;
+        while (head != tail) {
+            int block = queue[head];
+            head = head == blocks ? 0 : head + 1;
+            queued[block] = false;
+            visits++;
+
+            int base = block * words;
+            meet(block, before, after, base, reachable);
+            boolean changed = false;
+            for (int w = 0; w < words; w++) {
+                long value = gen[base + w] | (before[base + w] & ~kill[base + w]);
+                if (value != after[base + w]) {
+                    after[base + w] = value;
+                    changed = true;
+                }
+            }
+            if (!changed) {
+                continue;
+            }
+            int count = forward ? cfg.successorCount(block) : cfg.predecessorCount(block);
+            for (int k = 0; k < count; k++) {
+                int next = forward ? cfg.successor(block, k) : cfg.predecessor(block, k);
+                if (reachable[next] && !queued[next]) {
+                    queued[next] = true;
+                    queue[tail] = next;
+                    tail = tail == blocks ? 0 : tail + 1;
+                }
+            }
+        }
+    }
+
+    // before[block] = meet of after[] over the blocks flowing into it. The
+    // program entry (forward) and exits (backward) also meet the empty set.
+    private void meet(int block, long[] before, long[] after, int base, boolean[] reachable) {
+        int count = forward ? cfg.predecessorCount(block) : cfg.successorCount(block);
+        boolean boundary = forward ? block == 0 : exits(block);
+        boolean first = true;
+        if (boundary) {
+            Arrays.fill(before, base, base + words, 0);
+            first = false;
+        }
+        for (int k = 0; k < count; k++) {
+            int from = forward ? cfg.predecessor(block, k) : cfg.successor(block, k);
+            if (!reachable[from]) {
+                continue;
+            }
+            int source = from * words;
+            if (first) {
+                System.arraycopy(after, source, before, base, words);
+                first = false;
+            } else if (union) {
+                for (int w = 0; w < words; w++) {
+                    before[base + w] |= after[source + w];
+                }
+            } else {
+                for (int w = 0; w < words; w++) {
+                    before[base + w] &= after[source + w];
+                }
+            }
+        }
+        if (first) {
+            Arrays.fill(before, base, base + words, 0);
+        }
+    }
+
+    // Whether control can leave the program from the end of the block
+    private boolean exits(int block) {
+        Tac.Opcode last = cfg.tac.op(cfg.end(block) - 1);
+        return last == Tac.Opcode.RETURN || (block == cfg.blockCount() - 1 && last != Tac.Opcode.JUMP);
+    }
+
+    int bits() {
+        return bits;
+    }
+
+    int words() {
+        return words;
+    }
+
+    int visits() {
+        return visits;
+    }
+
+    boolean in(int block, int bit) {
+        return get(in, block * words, bit);
+    }
+
+    boolean out(int block, int bit) {
+        return get(out, block * words, bit);
+    }
+
+    long[] newSet() {
+        return new long[words];
+    }
+
+    void copyIn(int block, long[] set) {
+        System.arraycopy(in, block * words, set, 0, words);
+    }
+
+    void copyOut(int block, long[] set) {
+        System.arraycopy(out, block * words, set, 0, words);
+    }
+
+    // Bit operations on a set stored from base in a larger array; base 0 for a
+    // set of its own
+
+    static boolean get(long[] set, int base, int bit) {
+        return (set[base + (bit >>> 6)] & (1L << bit)) != 0;
+    }
+
+    static void set(long[] set, int base, int bit) {
+        set[base + (bit >>> 6)] |= 1L << bit;
+    }
+
+    static void clear(long[] set, int base, int bit) {
+        set[base + (bit >>> 6)] &= ~(1L << bit);
+    }
+
+    // in/out sets per block with bits printed by name, for debugging
+    String toString(IntFunction<String> names) {
+        StringBuilder text = new StringBuilder();
+        for (int block = 0; block < cfg.blockCount(); block++) {
+            text.append('B').append(block).append(" in {");
+            appendSet(text, in, block, names);
+            text.append(" } out {");
+            appendSet(text, out, block, names);
+            text.append(" }\n");
+        }
+        return text.toString();
+    }
+
+    private void appendSet(StringBuilder text, long[] sets, int block, IntFunction<String> names) {
+        int base = block * words;
+        for (int w = 0; w < words; w++) {
+            for (long word = sets[base + w]; word != 0; word &= word - 1) {
+                text.append(' ').append(names.apply((w << 6) + Long.numberOfTrailingZeros(word)));
+            }
+        }
+    }
+}
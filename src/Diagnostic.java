@@ -0,0 +1,24 @@
+// A problem found while compiling, located by line and column in the source,
+// or in an included file when file is set
+class Diagnostic {
+    final String file;
+    final String message;
+    final int line;
+    final int column;
+
+    Diagnostic(String message, int line, int column) {
+        this(null, message, line, column);
+    }
+
+    Diagnostic(String file, String message, int line, int column) {
+        this.file = file;
+        this.message = message;
+        this.line = line;
+        this.column = column;
+    }
+
+    @Override
+    public String toString() {
+        return (file != null ? file + ":" : "") + line + ":" + column + ": " + message;
+    }
+}
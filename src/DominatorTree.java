@@ -0,0 +1,154 @@
+import java.util.Arrays;
+
+// Immediate dominators by the Cooper-Harvey-Kennedy iteration over reverse
+// postorder, the dominator tree and dominance frontiers. Blocks unreachable
+// from the entry have no dominator and are left out of the tree.
+final class DominatorTree {
+    final ControlFlowGraph cfg;
+    private final int[] order;
+    private final int[] orderNumbers;
+    private final int[] idoms;
+    private final int[] childFirst;
+    private final int[] children;
+    private final int[] frontierFirst;
+    private final int[] frontiers;
+
+    DominatorTree(ControlFlowGraph cfg) {
+        this.cfg = cfg;
+        int blocks = cfg.blockCount();
+        order = cfg.reversePostorder();
+        orderNumbers = new int[blocks];
+        Arrays.fill(orderNumbers, -1);
+        for (int i = 0; i < order.length; i++) {
+            orderNumbers[order[i]] = i;
+        }
+
+        idoms = new int[blocks];
+        Arrays.fill(idoms, -1);
+        if (blocks > 0) {
+            idoms[0] = 0;
+        }
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int i = 1; i < order.length; i++) {
+                int block = order[i];
+                int idom = -1;
+                for (int k = 0; k < cfg.predecessorCount(block); k++) {
+                    int predecessor = cfg.predecessor(block, k);
+                    if (idoms[predecessor] < 0) {
+                        continue;
+                    }
+                    idom = idom < 0 ? predecessor : intersect(predecessor, idom);
+                }
+                if (idoms[block] != idom) {
+                    idoms[block] = idom;
+                    changed = true;
+                }
+            }
+        }
+
+        // Children grouped by parent, in reverse postorder
+        childFirst = new int[blocks + 1];
+        for (int i = 1; i < order.length; i++) {
+            childFirst[idoms[order[i]] + 1]++;
+        }
+        for (int b = 0; b < blocks; b++) {
+            childFirst[b + 1] += childFirst[b];
+        }
+        children = new int[Math.max(0, order.length - 1)];
+        int[] fill = Arrays.copyOf(childFirst, blocks);
+        for (int i = 1; i < order.length; i++) {
+            children[fill[idoms[order[i]]]++] = order[i];
+        }
+
+        // A join point is in the frontier of every block on the way up from
+        // each of its predecessors to its immediate dominator. Counted first,
+        // then filled.
+        frontierFirst = new int[blocks + 1];
+        walkFrontiers(null, null);
+        for (int b = 0; b < blocks; b++) {
+            frontierFirst[b + 1] += frontierFirst[b];
+        }
+        frontiers = new int[frontierFirst[blocks]];
+        walkFrontiers(Arrays.copyOf(frontierFirst, blocks), frontiers);
+    }
+
+    // Counts into frontierFirst[b + 1] when out is null, else stores at positions[b]
+    private void walkFrontiers(int[] positions, int[] out) {
+        int[] lastAdded = new int[cfg.blockCount()];
+        Arrays.fill(lastAdded, -1);
+        for (int block : order) {
+            if (cfg.predecessorCount(block) < 2) {
+                continue;
+            }
+            for (int k = 0; k < cfg.predecessorCount(block); k++) {
+                int runner = cfg.predecessor(block, k);
+                if (idoms[runner] < 0) {
+                    continue;
+                }
+                while (runner != idoms[block] && lastAdded[runner] != block) {
+                    lastAdded[runner] = block;
+                    if (out == null) {
+                        frontierFirst[runner + 1]++;
+                    } else {
+                        out[positions[runner]++] = block;
+                    }
+                    runner = idoms[runner];
+                }
+            }
+        }
+    }
+
+    private int intersect(int a, int b) {
+        while (a != b) {
+            while (orderNumbers[a] > orderNumbers[b]) {
+                a = idoms[a];
+            }
+            while (orderNumbers[b] > orderNumbers[a]) {
+                b = idoms[b];
+            }
+        }
+        return a;
+    }
+
+    boolean isReachable(int block) {
+        return idoms[block] >= 0;
+    }
+
+    // Immediate dominator; the entry is its own, -1 for unreachable blocks
+    int idom(int block) {
+        return idoms[block];
+    }
+
+    boolean dominates(int a, int b) {
+        if (!isReachable(b)) {
+            return false;
+        }
+        while (orderNumbers[b] > orderNumbers[a]) {
+            b = idoms[b];
+        }
+        return a == b;
+    }
+
+    // Reachable blocks in reverse postorder
+    int[] order() {
+        return order;
+    }
+
+    int childCount(int block) {
+        return childFirst[block + 1] - childFirst[block];
+    }
+
+    int child(int block, int k) {
+        return children[childFirst[block] + k];
+    }
+
+    int frontierCount(int block) {
+        return frontierFirst[block + 1] - frontierFirst[block];
+    }
+
+    int frontier(int block, int k) {
+        return frontiers[frontierFirst[block] + k];
+    }
+}
@@ -0,0 +1,178 @@
+import java.util.Arrays;
+
+// Arena parse tree: one table of int columns instead of a ParseTreeNode,
+// ArrayList and String per node. Children are linked through firstChild /
+// nextSibling. Statement and keyword wrappers and punctuation are not stored;
+// a node's text is read from its token when needed.
+final class FlatParseTree implements ParseTreeBuilder {
+    static final int NONE = -1;
+
+    final TokenBuffer tokens;
+    private int[] kinds;
+    private int[] tokenIndexes;
+    private int[] firstChildren;
+    private int[] nextSiblings;
+    private int[] lastChildren;
+    private int size;
+
+    FlatParseTree(TokenBuffer tokens) {
+        this.tokens = tokens;
+        int capacity = Math.max(16, tokens.size());
+        kinds = new int[capacity];
+        tokenIndexes = new int[capacity];
+        firstChildren = new int[capacity];
+        nextSiblings = new int[capacity];
+        lastChildren = new int[capacity];
+        allocate(NodeKind.ROOT, NONE);
+    }
+
+    public int root() {
+        return 0;
+    }
+
+    public int node(int parent, int kind, int token) {
+        if (kind == NodeKind.STATEMENT || kind == NodeKind.KEYWORD) {
+            // Wrappers collapse into their parent
+            return parent;
+        }
+        int node = allocate(kind, token);
+        if (parent != NO_PARENT) {
+            addChild(parent, node);
+        }
+        return node;
+    }
+
+    public void addChild(int parent, int child) {
+        int last = lastChildren[parent];
+        if (last == NONE) {
+            firstChildren[parent] = child;
+        } else {
+            nextSiblings[last] = child;
+        }
+        lastChildren[parent] = child;
+    }
+
+    public void punctuation(int parent, String text) {
+    }
+
+    public void span(int node, int offset, int count, boolean statementList) {
+    }
+
+    public void error(int node, String message) {
+    }
+
+    private int allocate(int kind, int token) {
+        if (size == kinds.length) {
+            int capacity = size * 2;
+            kinds = Arrays.copyOf(kinds, capacity);
+            tokenIndexes = Arrays.copyOf(tokenIndexes, capacity);
+            firstChildren = Arrays.copyOf(firstChildren, capacity);
+            nextSiblings = Arrays.copyOf(nextSiblings, capacity);
+            lastChildren = Arrays.copyOf(lastChildren, capacity);
+        }
+        kinds[size] = kind;
+        tokenIndexes[size] = token;
+        firstChildren[size] = NONE;
+        nextSiblings[size] = NONE;
+        lastChildren[size] = NONE;
+        return size++;
+    }
+
+    int size() {
+        return size;
+    }
+
+    int kind(int node) {
+        return kinds[node];
+    }
+
+    int token(int node) {
+        return tokenIndexes[node];
+    }
+
+    int firstChild(int node) {
+        return firstChildren[node];
+    }
+
+    int nextSibling(int node) {
+        return nextSiblings[node];
+    }
+
+    int childCount(int node) {
+        int count = 0;
+        for (int child = firstChildren[node]; child != NONE; child = nextSiblings[child]) {
+            count++;
+        }
+        return count;
+    }
+
+    // Name of the node kind, or the text of its token
+    String text(int node) {
+        String name = NodeKind.name(kinds[node]);
+        return name != null ? name : tokens.text(tokenIndexes[node]);
+    }
+
+    interface Visitor {
+        // Return false to skip the children of node
+        boolean enter(FlatParseTree tree, int node);
+
+        void exit(FlatParseTree tree, int node);
+    }
+
+    // Depth-first walk with an explicit stack; exit is called after all children
+    void walk(Visitor visitor) {
+        walk(root(), visitor);
+    }
+
+    void walk(int start, Visitor visitor) {
+        int[] stack = new int[32];
+        int depth = 0;
+        if (!visitor.enter(this, start)) {
+            visitor.exit(this, start);
+            return;
+        }
+        stack[depth++] = start;
+        int next = firstChildren[start];
+        while (depth > 0) {
+            if (next != NONE) {
+                if (visitor.enter(this, next)) {
+                    if (depth == stack.length) {
+                        stack = Arrays.copyOf(stack, depth * 2);
+                    }
+                    stack[depth++] = next;
+                    next = firstChildren[next];
+                    continue;
+                }
+                visitor.exit(this, next);
+                next = nextSiblings[next];
+            } else {
+                int done = stack[--depth];
+                visitor.exit(this, done);
+                next = depth > 0 ? nextSiblings[done] : NONE;
+            }
+        }
+    }
+
+    // Indented outline of the tree, for debugging
+    @Override
+    public String toString() {
+        StringBuilder out = new StringBuilder();
+        walk(new Visitor() {
+            private int depth;
+
+            public boolean enter(FlatParseTree tree, int node) {
+                for (int i = 0; i < depth; i++) {
+                    out.append("  ");
+                }
+                out.append(tree.text(node)).append('\n');
+                depth++;
+                return true;
+            }
+
+            public void exit(FlatParseTree tree, int node) {
+                depth--;
+            }
+        });
+        return out.toString();
+    }
+}
@@ -0,0 +1,79 @@
+import java.util.Arrays;
+
+// Editable text as one char array with a gap at the last edit. Replacing text
+// moves the gap there, so consecutive edits near each other copy only the
+// characters between them instead of everything after the edit.
+final class GapBuffer implements CharSequence {
+    private char[] chars;
+    private int gapStart;
+    private int gapEnd;
+
+    GapBuffer(CharSequence text) {
+        chars = new char[Math.max(16, text.length() * 2)];
+        for (int i = 0; i < text.length(); i++) {
+            chars[i] = text.charAt(i);
+        }
+        gapStart = text.length();
+        gapEnd = chars.length;
+    }
+
+    void replace(int start, int end, CharSequence text) {
+        if (start < 0 || start > end || end > length()) {
+            throw new IndexOutOfBoundsException("Replace [" + start + ", " + end + ") outside text of length " + length());
+        }
+        moveGap(end);
+        gapStart = start;
+        if (gapEnd - gapStart < text.length()) {
+            int tail = chars.length - gapEnd;
+            int capacity = Math.max(chars.length * 2, length() + text.length() + 16);
+            char[] grown = new char[capacity];
+            System.arraycopy(chars, 0, grown, 0, gapStart);
+            System.arraycopy(chars, gapEnd, grown, capacity - tail, tail);
+            chars = grown;
+            gapEnd = capacity - tail;
+        }
+        for (int i = 0; i < text.length(); i++) {
+            chars[gapStart++] = text.charAt(i);
+        }
+    }
+
+    private void moveGap(int position) {
+        if (position < gapStart) {
+            int count = gapStart - position;
+            System.arraycopy(chars, position, chars, gapEnd - count, count);
+            gapStart -= count;
+            gapEnd -= count;
+        } else if (position > gapStart) {
+            int count = position - gapStart;
+            System.arraycopy(chars, gapEnd, chars, gapStart, count);
+            gapStart += count;
+            gapEnd += count;
+        }
+    }
+
+    @Override
+    public int length() {
+        return chars.length - (gapEnd - gapStart);
+    }
+
+    @Override
+    public char charAt(int index) {
+        return chars[index < gapStart ? index : index + gapEnd - gapStart];
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        StringBuilder text = new StringBuilder(end - start);
+        for (int i = start; i < end; i++) {
+            text.append(charAt(i));
+        }
+        return text;
+    }
+
+    @Override
+    public String toString() {
+        char[] text = Arrays.copyOf(chars, length());
+        System.arraycopy(chars, gapEnd, text, gapStart, chars.length - gapEnd);
+        return new String(text);
+    }
+}
@@ -0,0 +1,103 @@
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.RandomAccess;
+
+// Array list with a gap at the last change, for the statements of a statement
+// list: replacing a run of statements copies only the elements between it and
+// the previous change, not everything after it.
+final class GapList<E> extends AbstractList<E> implements RandomAccess {
+    private Object[] elements;
+    private int gapStart;
+    private int gapEnd;
+
+    GapList(Collection<? extends E> initial) {
+        elements = Arrays.copyOf(initial.toArray(), Math.max(8, initial.size() * 2), Object[].class);
+        gapStart = initial.size();
+        gapEnd = elements.length;
+    }
+
+    @Override
+    public int size() {
+        return elements.length - (gapEnd - gapStart);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public E get(int index) {
+        return (E) elements[at(index)];
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public E set(int index, E element) {
+        int at = at(index);
+        E previous = (E) elements[at];
+        elements[at] = element;
+        return previous;
+    }
+
+    @Override
+    public void add(int index, E element) {
+        replace(index, index, List.of(element));
+    }
+
+    @Override
+    public E remove(int index) {
+        E removed = get(index);
+        replace(index, index + 1, List.of());
+        return removed;
+    }
+
+    @Override
+    protected void removeRange(int from, int to) {
+        replace(from, to, List.of());
+    }
+
+    // Replaces elements [from, to) with the given ones
+    void replace(int from, int to, List<? extends E> with) {
+        if (from < 0 || from > to || to > size()) {
+            throw new IndexOutOfBoundsException("Range [" + from + ", " + to + ") outside list of size " + size());
+        }
+        moveGap(to);
+        Arrays.fill(elements, from, gapStart, null);
+        gapStart = from;
+        if (gapEnd - gapStart < with.size()) {
+            int tail = elements.length - gapEnd;
+            int capacity = Math.max(elements.length * 2, size() + with.size() + 8);
+            Object[] grown = new Object[capacity];
+            System.arraycopy(elements, 0, grown, 0, gapStart);
+            System.arraycopy(elements, gapEnd, grown, capacity - tail, tail);
+            elements = grown;
+            gapEnd = capacity - tail;
+        }
+        for (E element : with) {
+            elements[gapStart++] = element;
+        }
+        modCount++;
+    }
+
+    private void moveGap(int index) {
+        if (index < gapStart) {
+            int count = gapStart - index;
+            System.arraycopy(elements, index, elements, gapEnd - count, count);
+            Arrays.fill(elements, index, Math.min(gapStart, gapEnd - count), null);
+            gapStart -= count;
+            gapEnd -= count;
+        } else if (index > gapStart) {
+            int count = index - gapStart;
+            System.arraycopy(elements, gapEnd, elements, gapStart, count);
+            Arrays.fill(elements, Math.max(gapEnd, gapStart + count), gapEnd + count, null);
+            gapStart += count;
+            gapEnd += count;
+        }
+    }
+
+    private int at(int index) {
+        if (index < 0 || index >= size()) {
+            throw new IndexOutOfBoundsException("Index " + index + " outside list of size " + size());
+        }
+        return index < gapStart ? index : index + gapEnd - gapStart;
+    }
+}
@@ -0,0 +1,34 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Scanned headers kept in memory across units and compiles, keyed by absolute
+// path. A header is scanned again only when its size or modification time
+// changes, so the cost of a repeated #include is one stat.
+final class HeaderCache {
+    private final ConcurrentHashMap<Path, Preprocessor.SourceFile> files = new ConcurrentHashMap<>();
+
+    Preprocessor.SourceFile get(Path path) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        long length = attributes.size();
+        long modified = attributes.lastModifiedTime().toMillis();
+        Preprocessor.SourceFile file = files.get(path);
+        if (file != null && file.length == length && file.modified == modified) {
+            return file;
+        }
+        // Read as ISO-8859-1, like CodeReader.map, so offsets are byte offsets
+        String text = new String(Files.readAllBytes(path), StandardCharsets.ISO_8859_1);
+        file = Preprocessor.SourceFile.scan(path.toString(), text);
+        file.length = length;
+        file.modified = modified;
+        files.put(path, file);
+        return file;
+    }
+
+    int size() {
+        return files.size();
+    }
+}
@@ -0,0 +1,108 @@
+import java.util.Arrays;
+
+// Interns identifier spellings to dense int ids. Open addressing over the
+// characters of the source, so a name is only turned into a String the first
+// time it is seen.
+final class IdentifierTable {
+    private int[] slots;     // id + 1, 0 when empty
+    private int[] hashes;
+    private String[] names;
+    private int size;
+
+    IdentifierTable() {
+        slots = new int[64];
+        hashes = new int[16];
+        names = new String[16];
+    }
+
+    int size() {
+        return size;
+    }
+
+    String name(int id) {
+        return names[id];
+    }
+
+    int intern(String name) {
+        return intern(name, 0, name.length());
+    }
+
+    int intern(CharSequence s, int start, int length) {
+        int hash = 0;
+        for (int i = 0; i < length; i++) {
+            hash = 31 * hash + s.charAt(start + i);
+        }
+        int mask = slots.length - 1;
+        int slot = mix(hash) & mask;
+        while (slots[slot] != 0) {
+            int id = slots[slot] - 1;
+            if (hashes[id] == hash && equals(names[id], s, start, length)) {
+                return id;
+            }
+            slot = (slot + 1) & mask;
+        }
+        if (size == names.length) {
+            names = Arrays.copyOf(names, size * 2);
+            hashes = Arrays.copyOf(hashes, size * 2);
+        }
+        int id = size++;
+        names[id] = s.subSequence(start, start + length).toString();
+        hashes[id] = hash;
+        slots[slot] = id + 1;
+        if (size * 2 > slots.length) {
+            rehash();
+        }
+        return id;
+    }
+
+    // Looks a name up without interning it, -1 when absent
+    int find(String name) {
+        return find(name, 0, name.length());
+    }
+
+    int find(CharSequence s, int start, int length) {
+        int hash = 0;
+        for (int i = 0; i < length; i++) {
+            hash = 31 * hash + s.charAt(start + i);
+        }
+        int mask = slots.length - 1;
+        int slot = mix(hash) & mask;
+        while (slots[slot] != 0) {
+            int id = slots[slot] - 1;
+            if (hashes[id] == hash && equals(names[id], s, start, length)) {
+                return id;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    private void rehash() {
+        int[] grown = new int[slots.length * 2];
+        int mask = grown.length - 1;
+        for (int id = 0; id < size; id++) {
+            int slot = mix(hashes[id]) & mask;
+            while (grown[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            grown[slot] = id + 1;
+        }
+        slots = grown;
+    }
+
+    private static int mix(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    private static boolean equals(String name, CharSequence s, int start, int length) {
+        if (name.length() != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (name.charAt(i) != s.charAt(start + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
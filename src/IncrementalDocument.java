@@ -0,0 +1,393 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+// Source text kept together with its tokens and parse tree for editor use.
+// An edit re-lexes only the tokens around the change, until the scanner lands
+// on an old token boundary again, and re-parses only the statements of the
+// innermost statement list (program, main body or block) holding the damage.
+// Every other ParseTreeNode subtree is kept as is.
+//
+// The text, the tokens and each statement list keep a gap at the last edit,
+// and what lies after a gap is stored relative to the end, so an edit costs
+// the damage plus the distance from the previous edit, whatever the size of
+// the document. Syntax errors are recovered from per statement as in the
+// compiler, so the tree survives them and only the damaged statements are
+// parsed again.
+public class IncrementalDocument {
+    private final GapBuffer text;
+    private final TokenBuffer tokens;
+    private ParseTreeNode tree;
+    // Statements of the tree that have a parse error
+    private int errors;
+
+    // Work done by the last edit
+    int relexedTokens;
+    int reparsedStatements;
+    boolean fullReparse;
+
+    // Scratch arrays for re-lexed tokens
+    private int[] kinds = new int[16];
+    private int[] starts = new int[16];
+    private int[] lengths = new int[16];
+
+    public IncrementalDocument(String initialText) {
+        text = new GapBuffer(initialText);
+        tokens = TokenBuffer.scan(text);
+        reparseAll();
+    }
+
+    public String text() {
+        return text.toString();
+    }
+
+    TokenBuffer tokens() {
+        return tokens;
+    }
+
+    // Also while the text has errors: statements that fail to parse are cut
+    // short and marked, see error()
+    public ParseTreeNode tree() {
+        return tree;
+    }
+
+    // The first parse error in the text, null if there is none. Searches the tree.
+    public String error() {
+        return errors == 0 ? null : firstError(tree);
+    }
+
+    public void edit(int offset, int removedLength, String insertedText) {
+        if (offset < 0 || removedLength < 0 || offset + removedLength > text.length()) {
+            throw new IndexOutOfBoundsException("Edit [" + offset + ", " + (offset + removedLength)
+                    + ") outside text of length " + text.length());
+        }
+        int newEditEnd = offset + insertedText.length();
+
+        // Re-lex from the end of the last token before the edit; a token end is
+        // never inside a comment, so the scanner can restart there
+        int first = tokens.firstEndingAtOrAfter(offset);
+        int scanFrom = first > 0 ? tokens.end(first - 1) : 0;
+        // Tokens ending at the edit stay put; from the next one on, tokens are
+        // kept relative to the end of the text and so follow the edit
+        int untouched = first;
+        while (untouched < tokens.size() && tokens.end(untouched) <= offset) {
+            untouched++;
+        }
+        tokens.moveGap(untouched);
+        text.replace(offset, offset + removedLength, insertedText);
+
+        SourceScanner scanner = new SourceScanner(text, scanFrom, text.length());
+        int resync = tokens.size();
+        int old = first;
+        int count = 0;
+        while (scanner.next()) {
+            if (scanner.start >= newEditEnd) {
+                // Past the edit, scanning from the same position as before gives the same tokens
+                while (old < tokens.size() && tokens.start(old) < scanner.start) {
+                    old++;
+                }
+                if (old < tokens.size() && tokens.start(old) == scanner.start) {
+                    resync = old;
+                    break;
+                }
+            }
+            if (count == kinds.length) {
+                kinds = Arrays.copyOf(kinds, count * 2);
+                starts = Arrays.copyOf(starts, count * 2);
+                lengths = Arrays.copyOf(lengths, count * 2);
+            }
+            kinds[count] = scanner.kind;
+            starts[count] = scanner.start;
+            lengths[count] = scanner.end - scanner.start;
+            count++;
+        }
+        relexedTokens = count;
+
+        // Leading tokens that ended before the edit and came back unchanged are not damaged
+        int same = 0;
+        while (same < count && first + same < untouched && tokens.kind(first + same) == kinds[same]
+                && tokens.start(first + same) == starts[same] && tokens.length(first + same) == lengths[same]) {
+            same++;
+        }
+        int damageStart = first + same;
+        int oldDamageEnd = resync;
+        tokens.splice(damageStart, oldDamageEnd, kinds, starts, lengths, same, count - same);
+        int newDamageEnd = damageStart + count - same;
+
+        reparsedStatements = 0;
+        fullReparse = false;
+        if (damageStart != oldDamageEnd || damageStart != newDamageEnd) {
+            try {
+                reparse(damageStart, oldDamageEnd, newDamageEnd);
+            } catch (Exception e) {
+                reparseAll();
+            }
+        }
+    }
+
+    private void reparseAll() {
+        fullReparse = true;
+        try {
+            tree = new Parser(tokens, true).parse();
+        } catch (Exception e) {
+            throw new IllegalStateException("Recovering parse failed", e);
+        }
+        errors = countErrors(tree);
+    }
+
+    // Damage covers old tokens [damageStart, oldDamageEnd), now [damageStart, newDamageEnd).
+    // The tree is left alone until the new statements have parsed.
+    private void reparse(int damageStart, int oldDamageEnd, int newDamageEnd) throws Exception {
+        int delta = newDamageEnd - oldDamageEnd;
+
+        // Walk down through statements and statement lists that enclose the
+        // damage, with the start of each and, in lists, the index of the next
+        List<ParseTreeNode> path = new ArrayList<>();
+        int[] pathStarts = new int[16];
+        int[] pathIndexes = new int[16];
+        path.add(tree);
+        int listDepth = 0;
+        ParseTreeNode current = tree;
+        int base = 0;
+        while (true) {
+            ParseTreeNode inner;
+            int index = -1;
+            if (current.statementList) {
+                index = firstEndingAfter(current, base, damageStart);
+                inner = null;
+                if (index < current.children.size() && current.children.get(index).hasSpan()) {
+                    ParseTreeNode child = current.children.get(index);
+                    int start = base + current.offsetOf(index);
+                    if (start < damageStart && oldDamageEnd < start + child.tokenCount) {
+                        inner = child;
+                    }
+                }
+            } else {
+                inner = findEnclosing(current, base, damageStart, oldDamageEnd);
+            }
+            if (inner == null) {
+                break;
+            }
+            int depth = path.size() - 1;
+            if (depth + 1 == pathStarts.length) {
+                pathStarts = Arrays.copyOf(pathStarts, pathStarts.length * 2);
+                pathIndexes = Arrays.copyOf(pathIndexes, pathIndexes.length * 2);
+            }
+            pathStarts[depth] = base;
+            pathIndexes[depth] = index;
+            base += current.statementList ? current.offsetOf(index) : inner.tokenOffset;
+            path.add(inner);
+            if (inner.statementList) {
+                listDepth = path.size() - 1;
+            }
+            current = inner;
+        }
+        ParseTreeNode list = path.get(listDepth);
+        int listStart = listDepth == path.size() - 1 ? base : pathStarts[listDepth];
+
+        // Old statements of the list from the first one reaching into the damage
+        // or ending right before it, as where a statement ends can depend on
+        // the token after it; without one, new statements go after the last
+        int from = spannedFrom(list);
+        int to = spannedTo(list);
+        int firstIndex = firstEndingAfter(list, listStart, damageStart - 1);
+        int position;
+        if (firstIndex < to) {
+            position = listStart + list.offsetOf(firstIndex);
+        } else {
+            firstIndex = to;
+            position = to > from ? listStart + list.offsetOf(to - 1) + list.children.get(to - 1).tokenCount : listStart;
+        }
+
+        // Parse statements until the parser is past the damage and on the start of an old statement
+        Parser parser = new Parser(tokens, true);
+        ParseTreeNode scratch = new ParseTreeNode("scratch");
+        int newListEnd = listStart + list.tokenCount + delta;
+        int reuse = firstIndex;
+        while (position < newListEnd) {
+            if (position >= newDamageEnd) {
+                while (reuse < to && listStart + list.offsetOf(reuse) + delta < position) {
+                    reuse++;
+                }
+                if (reuse < to && listStart + list.offsetOf(reuse) >= oldDamageEnd
+                        && listStart + list.offsetOf(reuse) + delta == position) {
+                    break;
+                }
+            }
+            if (list != tree && tokens.kind(position) == TokenKind.RBRACE) {
+                throw new Exception("A '}' inside the statement list now closes it");
+            }
+            position = parser.parseStatementAt(position, listStart, scratch);
+            reparsedStatements++;
+        }
+        if (position > newListEnd) {
+            throw new Exception("Re-parse ran past the end of the statement list");
+        }
+        if (position == newListEnd) {
+            reuse = to;
+        }
+        // A list open at the end of input leaves the missing '}' to be reported
+        // by the innermost one; that is now either a new statement or its owner
+        ParseTreeNode owner = null;
+        String ownerError = null;
+        if (list != tree && position == newListEnd && newListEnd == tokens.size()) {
+            owner = path.get(listDepth - 1);
+            ownerError = parser.reportedUnclosedAtEnd() ? null : Parser.errorText(Parser.UNCLOSED_AT_END);
+        }
+
+        // Spans on the path grow by delta. Lists move their gap behind the path
+        // first, so what follows moves with their tokenCount; in statements the
+        // few spans after the damage are moved one by one.
+        for (int i = firstIndex; i < reuse; i++) {
+            errors -= countErrors(list.children.get(i));
+        }
+        errors += countErrors(scratch);
+        if (owner != null) {
+            errors += (ownerError != null ? 1 : 0) - (owner.error != null ? 1 : 0);
+            owner.error = ownerError;
+        }
+        list.replaceChildren(firstIndex, reuse, scratch.children);
+        list.tokenCount += delta;
+        for (int depth = listDepth - 1; depth >= 0; depth--) {
+            ParseTreeNode node = path.get(depth);
+            if (node.statementList) {
+                node.moveGap(pathIndexes[depth] + 1);
+            } else {
+                shiftAfter(node, pathStarts[depth], oldDamageEnd, delta, path.get(depth + 1));
+            }
+            node.tokenCount += delta;
+        }
+    }
+
+    // Index of the first child of a statement list whose span ends after
+    // position, by binary search over its statements; the end of them if none
+    private static int firstEndingAfter(ParseTreeNode list, int listStart, int position) {
+        int low = spannedFrom(list);
+        int high = spannedTo(list);
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (listStart + list.offsetOf(mid) + list.children.get(mid).tokenCount <= position) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    // The statements of a list come after its leading punctuation and before
+    // its closing '}', which is missing when the input ends first
+    private static int spannedFrom(ParseTreeNode list) {
+        int from = 0;
+        int to = spannedTo(list);
+        while (from < to && !list.children.get(from).hasSpan()) {
+            from++;
+        }
+        return from;
+    }
+
+    private static int spannedTo(ParseTreeNode list) {
+        int to = list.children.size();
+        if (to > 0 && !list.children.get(to - 1).hasSpan() && list.children.get(to - 1).value.equals("}")) {
+            to--;
+        }
+        return to;
+    }
+
+    // Spanned node below a statement that holds the whole damage: a statement
+    // has to contain it strictly (its first and last tokens untouched), a
+    // statement list only has to contain it within its braces
+    private static ParseTreeNode findEnclosing(ParseTreeNode parent, int base, int damageStart, int damageEnd) {
+        for (ParseTreeNode child : parent.children) {
+            if (child.hasSpan()) {
+                int start = base + child.tokenOffset;
+                int end = start + child.tokenCount;
+                if (child.statementList ? start <= damageStart && damageEnd <= end
+                        : start < damageStart && damageEnd < end) {
+                    return child;
+                }
+            } else {
+                ParseTreeNode found = findEnclosing(child, base, damageStart, damageEnd);
+                if (found != null) {
+                    return found;
+                }
+            }
+        }
+        return null;
+    }
+
+    // Moves the spans below a statement that start after the damage, without
+    // entering them: their own contents are relative to themselves
+    private static void shiftAfter(ParseTreeNode parent, int base, int damageEnd, int delta, ParseTreeNode onPath) {
+        for (ParseTreeNode child : parent.children) {
+            if (!child.hasSpan()) {
+                shiftAfter(child, base, damageEnd, delta, onPath);
+            } else if (child != onPath && base + child.tokenOffset >= damageEnd) {
+                child.tokenOffset += delta;
+            }
+        }
+    }
+
+    private static int countErrors(ParseTreeNode node) {
+        int count = node.error != null ? 1 : 0;
+        for (ParseTreeNode child : node.children) {
+            count += countErrors(child);
+        }
+        return count;
+    }
+
+    // A statement gives up after the statements nested in it, so those come first
+    private static String firstError(ParseTreeNode node) {
+        for (ParseTreeNode child : node.children) {
+            String error = firstError(child);
+            if (error != null) {
+                return error;
+            }
+        }
+        return node.error;
+    }
+
+    public static void RunIncrementalTest() {
+        String code = "int main() {\nint x = 1;\nint y = 2;\nwhile (x < 10) {\nx = x + y;\n}\ncout << x;\nreturn 0;\n}";
+        IncrementalDocument document = new IncrementalDocument(code);
+        String[][] edits = {
+                {"x + y", "x * y + 1"},
+                {"int y = 2;", "int y = 2;\nint z = 3;"},
+                {"cout << x;", ""},
+                {"while", "whlie"},
+                {"whlie", "while"},
+        };
+        for (String[] edit : edits) {
+            String current = document.text();
+            int offset = current.indexOf(edit[0]);
+            document.edit(offset, edit[0].length(), edit[1]);
+
+            ParseTreeNode expected;
+            try {
+                expected = new Parser(TokenBuffer.scan(document.text()), true).parse();
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+            boolean same = sameTree(expected, document.tree());
+            System.out.println((same ? "\u001B[32m+ " : "\u001B[31m- ") + "'" + edit[0] + "' -> '" + edit[1]
+                    + "': relexed " + document.relexedTokens + ", reparsed " + document.reparsedStatements
+                    + (document.fullReparse ? " (full)" : "")
+                    + (document.error() != null ? ", " + document.error() : ""));
+        }
+    }
+
+    // Spans are compared through offsetOf(), as the gaps of the two trees differ
+    static boolean sameTree(ParseTreeNode a, ParseTreeNode b) {
+        if (!a.value.equals(b.value) || a.children.size() != b.children.size() || !Objects.equals(a.error, b.error)
+                || (a.hasSpan() && a.tokenCount != b.tokenCount)) {
+            return false;
+        }
+        for (int i = 0; i < a.children.size(); i++) {
+            if (a.offsetOf(i) != b.offsetOf(i) || !sameTree(a.children.get(i), b.children.get(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
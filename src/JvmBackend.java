@@ -0,0 +1,541 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+// Translates a Tac into JVM bytecode and defines it as a hidden class, so a
+// program that is run many times is compiled by the JIT like any other Java
+// method. The whole program is one static method
+// int run(ProgramInput, ProgramOutput): Tac has no function boundaries, since
+// function bodies are emitted in line and calls are opaque. Variables and temps
+// become int or double locals by their Tac type. The class file is written by
+// hand at version 49, which the JVM verifies by type inference, so no stack
+// map frames are needed.
+final class JvmBackend {
+    static final MethodType PROGRAM_TYPE = MethodType.methodType(int.class, ProgramInput.class, ProgramOutput.class);
+
+    private static final String CLASS_NAME = "CompiledProgram";
+    private static final int MAX_CODE = 65535;
+
+    // Opcodes used
+    private static final int ICONST_0 = 0x03;
+    private static final int ICONST_1 = 0x04;
+    private static final int DCONST_0 = 0x0e;
+    private static final int DCONST_1 = 0x0f;
+    private static final int BIPUSH = 0x10;
+    private static final int SIPUSH = 0x11;
+    private static final int LDC_W = 0x13;
+    private static final int LDC2_W = 0x14;
+    private static final int ILOAD = 0x15;
+    private static final int DLOAD = 0x18;
+    private static final int ALOAD_0 = 0x2a;
+    private static final int ALOAD_1 = 0x2b;
+    private static final int ISTORE = 0x36;
+    private static final int DSTORE = 0x39;
+    private static final int DUP = 0x59;
+    private static final int IADD = 0x60;
+    private static final int DADD = 0x63;
+    private static final int INEG = 0x74;
+    private static final int DNEG = 0x77;
+    private static final int IAND = 0x7e;
+    private static final int IOR = 0x80;
+    private static final int IXOR = 0x82;
+    private static final int I2D = 0x87;
+    private static final int F2D = 0x8d;
+    private static final int D2I = 0x8e;
+    private static final int D2F = 0x90;
+    private static final int DCMPL = 0x97;
+    private static final int DCMPG = 0x98;
+    private static final int IFEQ = 0x99;
+    private static final int IFNE = 0x9a;
+    private static final int IFLT = 0x9b;
+    private static final int IFGE = 0x9c;
+    private static final int IFGT = 0x9d;
+    private static final int IFLE = 0x9e;
+    private static final int IF_ICMPEQ = 0x9f;
+    private static final int IF_ICMPNE = 0xa0;
+    private static final int IF_ICMPLT = 0xa1;
+    private static final int IF_ICMPGE = 0xa2;
+    private static final int IF_ICMPGT = 0xa3;
+    private static final int IF_ICMPLE = 0xa4;
+    private static final int GOTO = 0xa7;
+    private static final int IRETURN = 0xac;
+    private static final int INVOKEVIRTUAL = 0xb6;
+    private static final int INVOKESPECIAL = 0xb7;
+    private static final int NEW = 0xbb;
+    private static final int ATHROW = 0xbf;
+    private static final int WIDE = 0xc4;
+
+    private final Tac tac;
+    private final ConstantPool pool = new ConstantPool();
+    private byte[] code = new byte[256];
+    private int length;
+    private final int[] locals;
+    private int maxLocals;
+
+    // Jumps to patch: offset of the jump instruction and the Tac label
+    private int[] jumps = new int[16];
+    private int[] jumpLabels = new int[16];
+    private int jumpCount;
+
+    private JvmBackend(Tac tac) {
+        this.tac = tac;
+        locals = new int[tac.slotCount()];
+        // Locals 0 and 1 are the input and output
+        maxLocals = 2;
+        for (int slot = 0; slot < locals.length; slot++) {
+            locals[slot] = maxLocals;
+            maxLocals += tac.isFloat(tac.slotOperand(slot)) ? 2 : 1;
+        }
+    }
+
+    // Defines the program as a hidden class next to this one and returns its
+    // run method, of type PROGRAM_TYPE
+    static MethodHandle compile(Tac tac) throws ReflectiveOperationException {
+        MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(classFile(tac), true);
+        return lookup.findStatic(lookup.lookupClass(), "run", PROGRAM_TYPE);
+    }
+
+    static byte[] classFile(Tac tac) {
+        JvmBackend backend = new JvmBackend(tac);
+        backend.generate();
+        return backend.write();
+    }
+
+    // Runs a compiled program on the streams and gives its exit code
+    static int run(MethodHandle program, InputStream input, OutputStream output) throws Exception {
+        ProgramOutput out = new ProgramOutput(output);
+        try {
+            return (int) program.invokeExact(new ProgramInput(input), out);
+        } catch (Exception | Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new IllegalStateException(t);
+        } finally {
+            out.flush();
+        }
+    }
+
+    // Code generation
+
+    private void generate() {
+        // The verifier wants every local assigned before it is read
+        for (int slot = 0; slot < locals.length; slot++) {
+            if (tac.isFloat(tac.slotOperand(slot))) {
+                op(DCONST_0);
+                local(DSTORE, locals[slot]);
+            } else {
+                op(ICONST_0);
+                local(ISTORE, locals[slot]);
+            }
+        }
+        int[] labelOffsets = new int[tac.labelCount()];
+        for (int i = 0; i < tac.size(); i++) {
+            Tac.Opcode op = tac.op(i);
+            int dst = tac.dst(i);
+            int a = tac.a(i);
+            int b = tac.b(i);
+            switch (op) {
+                case COPY:
+                    load(a, tac.isFloat(dst));
+                    store(dst, tac.isFloat(dst));
+                    break;
+                case READ:
+                    op(ALOAD_0);
+                    invoke(INVOKEVIRTUAL, "ProgramInput",
+                            tac.isSingle(dst) ? "readSingle" : tac.isFloat(dst) ? "readFloat" : "readInt",
+                            tac.isFloat(dst) ? "()D" : "()I");
+                    store(dst, tac.isFloat(dst));
+                    break;
+                case WRITE:
+                    op(ALOAD_1);
+                    if (Tac.tag(a) == Tac.STRING) {
+                        constant(pool.string(new String(ProgramOutput.literalBytes(tac.stringValue(a)), StandardCharsets.ISO_8859_1)));
+                        invoke(INVOKEVIRTUAL, "ProgramOutput", "writeString", "(Ljava/lang/String;)V");
+                    } else {
+                        load(a, tac.isFloat(a));
+                        invoke(INVOKEVIRTUAL, "ProgramOutput", tac.isFloat(a) ? "writeFloat" : "writeInt",
+                                tac.isFloat(a) ? "(D)V" : "(I)V");
+                    }
+                    break;
+                case RETURN:
+                    if (Tac.tag(a) == Tac.NONE) {
+                        op(ICONST_0);
+                    } else {
+                        load(a, false);
+                    }
+                    op(IRETURN);
+                    break;
+                case PARAM:
+                    // Arguments only matter to calls, which are not supported
+                    break;
+                case CALL:
+                    op(NEW);
+                    u2(pool.classRef("java/lang/IllegalStateException"));
+                    op(DUP);
+                    constant(pool.string("call to " + tac.stringValue(a) + " is not supported"));
+                    invoke(INVOKESPECIAL, "java/lang/IllegalStateException", "<init>", "(Ljava/lang/String;)V");
+                    op(ATHROW);
+                    break;
+                case LABEL:
+                    labelOffsets[Tac.index(a)] = length;
+                    break;
+                case JUMP:
+                    jump(GOTO, a);
+                    break;
+                case JUMP_IF_FALSE:
+                    load(a, tac.isFloat(a));
+                    if (tac.isFloat(a)) {
+                        op(DCONST_0);
+                        op(DCMPL);
+                    }
+                    jump(IFEQ, b);
+                    break;
+                default:
+                    if (op.isUnary()) {
+                        unary(op, dst, a);
+                    } else {
+                        binary(op, dst, a, b);
+                    }
+            }
+        }
+        op(ICONST_0);
+        op(IRETURN);
+        if (length > MAX_CODE) {
+            throw new IllegalArgumentException("program needs " + length + " bytes of bytecode, more than one method holds");
+        }
+        for (int j = 0; j < jumpCount; j++) {
+            int offset = labelOffsets[Tac.index(jumpLabels[j])] - jumps[j];
+            code[jumps[j] + 1] = (byte) (offset >> 8);
+            code[jumps[j] + 2] = (byte) offset;
+        }
+    }
+
+    private void unary(Tac.Opcode op, int dst, int a) {
+        boolean isFloat = tac.isFloat(a);
+        if (op == Tac.Opcode.NEG) {
+            load(a, isFloat);
+            op(isFloat ? DNEG : INEG);
+            store(dst, isFloat);
+        } else {
+            truth(a);
+            op(ICONST_1);
+            op(IXOR);
+            store(dst, false);
+        }
+    }
+
+    private void binary(Tac.Opcode op, int dst, int a, int b) {
+        boolean isFloat = tac.isFloat(a) || tac.isFloat(b);
+        if (op == Tac.Opcode.AND || op == Tac.Opcode.OR) {
+            truth(a);
+            truth(b);
+            op(op == Tac.Opcode.AND ? IAND : IOR);
+            store(dst, false);
+            return;
+        }
+        load(a, isFloat);
+        load(b, isFloat);
+        if (op.isArithmetic()) {
+            // iadd isub imul idiv irem and their double forms are consecutive, 4 apart
+            int offset = 4 * (op.ordinal() - Tac.Opcode.ADD.ordinal());
+            op((isFloat ? DADD : IADD) + offset);
+            store(dst, isFloat);
+            return;
+        }
+        int branch;
+        if (isFloat) {
+            // dcmpg gives 1 on NaN and dcmpl -1, so every comparison with NaN is false
+            boolean less = op == Tac.Opcode.LT || op == Tac.Opcode.LE;
+            op(less ? DCMPG : DCMPL);
+            branch = negatedBranch(op, IFEQ, IFNE, IFLT, IFGE, IFGT, IFLE);
+        } else {
+            branch = negatedBranch(op, IF_ICMPEQ, IF_ICMPNE, IF_ICMPLT, IF_ICMPGE, IF_ICMPGT, IF_ICMPLE);
+        }
+        pushBoolean(branch);
+        store(dst, false);
+    }
+
+    // The branch taken when the comparison is false
+    private static int negatedBranch(Tac.Opcode op, int eq, int ne, int lt, int ge, int gt, int le) {
+        switch (op) {
+            case LT:
+                return ge;
+            case GT:
+                return le;
+            case LE:
+                return gt;
+            case GE:
+                return lt;
+            case EQ:
+                return ne;
+            default:
+                return eq;
+        }
+    }
+
+    // branch false_; iconst_1; goto end; false_: iconst_0; end:
+    private void pushBoolean(int branchIfFalse) {
+        op(branchIfFalse);
+        u2(7);
+        op(ICONST_1);
+        op(GOTO);
+        u2(4);
+        op(ICONST_0);
+    }
+
+    // Pushes 1 if the operand is non-zero, else 0
+    private void truth(int operand) {
+        boolean isFloat = tac.isFloat(operand);
+        load(operand, isFloat);
+        if (isFloat) {
+            op(DCONST_0);
+            op(DCMPL);
+        }
+        pushBoolean(IFEQ);
+    }
+
+    // Pushes the operand as a double or an int, converting if needed
+    private void load(int operand, boolean asFloat) {
+        switch (Tac.tag(operand)) {
+            case Tac.INT:
+                if (asFloat) {
+                    pushDouble((int) tac.intValue(operand));
+                } else {
+                    pushInt((int) tac.intValue(operand));
+                }
+                return;
+            case Tac.FLOAT:
+                if (asFloat) {
+                    pushDouble(tac.floatValue(operand));
+                } else {
+                    pushInt((int) tac.floatValue(operand));
+                }
+                return;
+            default:
+                int slot = tac.slot(operand);
+                boolean isFloat = tac.isFloat(operand);
+                local(isFloat ? DLOAD : ILOAD, locals[slot]);
+                if (isFloat != asFloat) {
+                    op(isFloat ? D2I : I2D);
+                }
+        }
+    }
+
+    // Stores the value on the stack, a double if isFloat, into dst; a C++
+    // float is rounded to single precision on the way
+    private void store(int dst, boolean isFloat) {
+        boolean floatDst = tac.isFloat(dst);
+        if (isFloat != floatDst) {
+            op(isFloat ? D2I : I2D);
+        }
+        if (tac.isSingle(dst)) {
+            op(D2F);
+            op(F2D);
+        }
+        local(floatDst ? DSTORE : ISTORE, locals[tac.slot(dst)]);
+    }
+
+    private void pushInt(int value) {
+        if (value >= -1 && value <= 5) {
+            op(ICONST_0 + value);
+        } else if (value == (byte) value) {
+            op(BIPUSH);
+            u1(value);
+        } else if (value == (short) value) {
+            op(SIPUSH);
+            u2(value);
+        } else {
+            constant(pool.integer(value));
+        }
+    }
+
+    private void pushDouble(double value) {
+        if (Double.doubleToLongBits(value) == 0) {
+            op(DCONST_0);
+        } else if (value == 1) {
+            op(DCONST_1);
+        } else {
+            op(LDC2_W);
+            u2(pool.doubleConstant(value));
+        }
+    }
+
+    private void constant(int index) {
+        op(LDC_W);
+        u2(index);
+    }
+
+    private void local(int opcode, int index) {
+        if (index < 256) {
+            op(opcode);
+            u1(index);
+        } else {
+            op(WIDE);
+            op(opcode);
+            u2(index);
+        }
+    }
+
+    private void invoke(int opcode, String owner, String name, String descriptor) {
+        op(opcode);
+        u2(pool.methodRef(owner, name, descriptor));
+    }
+
+    private void jump(int opcode, int label) {
+        if (jumpCount == jumps.length) {
+            jumps = Arrays.copyOf(jumps, jumpCount * 2);
+            jumpLabels = Arrays.copyOf(jumpLabels, jumpCount * 2);
+        }
+        jumps[jumpCount] = length;
+        jumpLabels[jumpCount] = label;
+        jumpCount++;
+        op(opcode);
+        u2(0);
+    }
+
+    private void op(int opcode) {
+        u1(opcode);
+    }
+
+    private void u1(int value) {
+        if (length == code.length) {
+            code = Arrays.copyOf(code, length * 2);
+        }
+        code[length++] = (byte) value;
+    }
+
+    private void u2(int value) {
+        u1(value >> 8);
+        u1(value);
+    }
+
+    // Class file
+
+    private byte[] write() {
+        int thisClass = pool.classRef(CLASS_NAME);
+        int superClass = pool.classRef("java/lang/Object");
+        int name = pool.utf8("run");
+        int descriptor = pool.utf8(PROGRAM_TYPE.toMethodDescriptorString());
+        int codeName = pool.utf8("Code");
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(length + 1024);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(0xcafebabe);
+            out.writeShort(0);
+            out.writeShort(49);
+            pool.write(out);
+            out.writeShort(0x0030); // final, super
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(0); // interfaces
+            out.writeShort(0); // fields
+            out.writeShort(1); // methods
+            out.writeShort(0x0009); // public static
+            out.writeShort(name);
+            out.writeShort(descriptor);
+            out.writeShort(1); // attributes
+            out.writeShort(codeName);
+            out.writeInt(12 + length);
+            // Two doubles and a receiver, or new/dup/string, is the deepest the stack gets
+            out.writeShort(6);
+            out.writeShort(maxLocals);
+            out.writeInt(length);
+            out.write(code, 0, length);
+            out.writeShort(0); // exception table
+            out.writeShort(0); // code attributes
+            out.writeShort(0); // class attributes
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // Constant pool entries, shared when equal
+    private static final class ConstantPool {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final DataOutputStream out = new DataOutputStream(bytes);
+        private final Map<String, Integer> indexes = new HashMap<>();
+        private int count = 1;
+
+        int utf8(String text) {
+            Integer index = indexes.get("U" + text);
+            if (index != null) {
+                return index;
+            }
+            try {
+                out.writeByte(1);
+                out.writeUTF(text);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            indexes.put("U" + text, count);
+            return count++;
+        }
+
+        int integer(int value) {
+            return entry("I" + value, 3, value, 0, 1);
+        }
+
+        int doubleConstant(double value) {
+            long bits = Double.doubleToLongBits(value);
+            return entry("D" + bits, 6, (int) (bits >>> 32), (int) bits, 2);
+        }
+
+        int classRef(String name) {
+            return entry("C" + name, 7, utf8(name), -1, 1);
+        }
+
+        int string(String text) {
+            return entry("S" + text, 8, utf8(text), -1, 1);
+        }
+
+        int methodRef(String owner, String name, String descriptor) {
+            int nameAndType = entry("N" + name + ":" + descriptor, 12, utf8(name), utf8(descriptor), 1);
+            int ownerClass = classRef(owner);
+            return entry("M" + owner + "." + name + ":" + descriptor, 10, ownerClass, nameAndType, 1);
+        }
+
+        // An entry of tag with two u2 fields (second -1 for none), or with
+        // four-byte values for integers and doubles; size is its slot count
+        private int entry(String key, int tag, int first, int second, int size) {
+            Integer index = indexes.get(key);
+            if (index != null) {
+                return index;
+            }
+            try {
+                out.writeByte(tag);
+                if (tag == 3) {
+                    out.writeInt(first);
+                } else if (tag == 6) {
+                    out.writeInt(first);
+                    out.writeInt(second);
+                } else {
+                    out.writeShort(first);
+                    if (second >= 0) {
+                        out.writeShort(second);
+                    }
+                }
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            indexes.put(key, count);
+            int entryIndex = count;
+            count += size;
+            return entryIndex;
+        }
+
+        void write(DataOutputStream target) throws IOException {
+            target.writeShort(count);
+            bytes.writeTo(target);
+        }
+    }
+}
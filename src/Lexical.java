@@ -44,15 +44,7 @@ public class Lexical {
 
     // Function to check if a string is a reserved word
     public static boolean isReservedWord(String str) {
-        String[] reservedWords = {"int", "float", "return", "if", "while", "for", "cin", "cout",
-                "continue", "break", "#include", "using", "namespace",
-                "std", "main", "endl"};
-        for (String word : reservedWords) {
-            if (str.equals(word)) {
-                return true;
-            }
-        }
-        return false;
+        return !str.isEmpty() && TokenKind.reservedWord(str, 0, str.length()) >= 0;
     }
     // Function to check if a string is a valid string (enclosed in quotation marks)
     public static boolean isString(String str) {
@@ -0,0 +1,239 @@
+import java.util.Arrays;
+
+// Linear-scan register allocation (Poletto and Sarkar) of Tac temps. Each temp
+// gets one live interval, from the first to the last instruction where it is
+// defined, used or live by block liveness, in the linear order of the Tac.
+// Intervals are handed out in order of their start to a fixed number of
+// registers, int, float and single float separately, so a register keeps one
+// type; when none is free, whichever of the current interval and the one in a
+// register ending last goes to a spill slot. Spill slots are reused the same
+// way, so nothing is unbounded except what has to be live at once.
+final class LinearScan {
+    // location() of a temp that no instruction refers to
+    static final int UNUSED = Integer.MIN_VALUE;
+
+    final Tac tac;
+    // Registers of each type
+    final int registers;
+
+    private final int[] starts;
+    private final int[] ends;
+    // Register number, -1 - spill slot, or UNUSED per temp
+    private final int[] locations;
+
+    // Register classes, in the order their registers and spill slots are numbered
+    private static final int INT = 0;
+    private static final int FLOAT = 1;
+    private static final int SINGLE = 2;
+    private static final int CLASSES = 3;
+
+    private final int[] registersUsed = new int[CLASSES];
+    private final int[] spillSlots = new int[CLASSES];
+    private int spilledTemps;
+
+    // Last interval placed in each spill slot, per class
+    private final int[][] spillHolders = new int[CLASSES][8];
+
+    private LinearScan(Tac tac, int registers) {
+        this.tac = tac;
+        this.registers = registers;
+        int temps = tac.tempCount();
+        starts = new int[temps];
+        ends = new int[temps];
+        locations = new int[temps];
+        Arrays.fill(starts, Integer.MAX_VALUE);
+        Arrays.fill(ends, -1);
+        Arrays.fill(locations, UNUSED);
+    }
+
+    static LinearScan allocate(Tac tac, int registers) {
+        if (registers < 1) {
+            throw new IllegalArgumentException("at least one register is needed, got " + registers);
+        }
+        LinearScan scan = new LinearScan(tac, registers);
+        scan.buildIntervals();
+        scan.scan();
+        return scan;
+    }
+
+    private void buildIntervals() {
+        ControlFlowGraph cfg = new ControlFlowGraph(tac);
+        Dataflow live = Dataflow.liveness(cfg);
+        int variables = tac.slotCount() - tac.tempCount();
+        long[] set = live.newSet();
+        for (int block = 0; block < cfg.blockCount(); block++) {
+            live.copyIn(block, set);
+            extendLive(set, variables, cfg.start(block));
+            live.copyOut(block, set);
+            extendLive(set, variables, cfg.end(block) - 1);
+        }
+        for (int i = 0; i < tac.size(); i++) {
+            if (tac.op(i).writesDst()) {
+                extend(tac.dst(i), i);
+            }
+            extend(tac.a(i), i);
+            extend(tac.b(i), i);
+        }
+    }
+
+    // Extends the interval of every temp in the liveness set to position
+    private void extendLive(long[] set, int variables, int position) {
+        for (int w = variables >>> 6; w < set.length; w++) {
+            for (long word = set[w]; word != 0; word &= word - 1) {
+                int slot = (w << 6) + Long.numberOfTrailingZeros(word);
+                if (slot >= variables) {
+                    extendTemp(slot - variables, position);
+                }
+            }
+        }
+    }
+
+    private void extend(int operand, int position) {
+        if (Tac.tag(operand) == Tac.TEMP) {
+            extendTemp(Tac.index(operand), position);
+        }
+    }
+
+    private void extendTemp(int temp, int position) {
+        starts[temp] = Math.min(starts[temp], position);
+        ends[temp] = Math.max(ends[temp], position);
+    }
+
+    private void scan() {
+        int temps = tac.tempCount();
+        // Temps ordered by interval start, by counting sort over positions
+        int[] first = new int[tac.size() + 1];
+        for (int t = 0; t < temps; t++) {
+            if (ends[t] >= 0) {
+                first[starts[t] + 1]++;
+            }
+        }
+        for (int i = 0; i < tac.size(); i++) {
+            first[i + 1] += first[i];
+        }
+        int[] order = new int[first[tac.size()]];
+        for (int t = 0; t < temps; t++) {
+            if (ends[t] >= 0) {
+                order[first[starts[t]]++] = t;
+            }
+        }
+
+        // Interval currently in each register, -1 if none yet
+        int[][] registerHolders = new int[CLASSES][registers];
+        for (int[] holders : registerHolders) {
+            Arrays.fill(holders, -1);
+        }
+        for (int temp : order) {
+            int type = type(temp);
+            int[] holders = registerHolders[type];
+            int free = -1;
+            int victim = -1;
+            for (int r = 0; r < registers; r++) {
+                int holder = holders[r];
+                if (holder < 0 || ends[holder] < starts[temp]) {
+                    free = r;
+                    break;
+                }
+                if (victim < 0 || ends[holder] > ends[holders[victim]]) {
+                    victim = r;
+                }
+            }
+            if (free >= 0) {
+                holders[free] = temp;
+                locations[temp] = free;
+                registersUsed[type] = Math.max(registersUsed[type], free + 1);
+            } else if (ends[holders[victim]] > ends[temp]) {
+                spill(holders[victim], type);
+                holders[victim] = temp;
+                locations[temp] = victim;
+            } else {
+                spill(temp, type);
+            }
+        }
+    }
+
+    private int type(int temp) {
+        int operand = Tac.operand(Tac.TEMP, temp);
+        return tac.isSingle(operand) ? SINGLE : tac.isFloat(operand) ? FLOAT : INT;
+    }
+
+    private void spill(int temp, int type) {
+        int[] holders = spillHolders[type];
+        int count = spillSlots[type];
+        int slot = 0;
+        while (slot < count && ends[holders[slot]] >= starts[temp]) {
+            slot++;
+        }
+        if (slot == count) {
+            if (count == holders.length) {
+                holders = Arrays.copyOf(holders, count * 2);
+                spillHolders[type] = holders;
+            }
+            spillSlots[type]++;
+        }
+        holders[slot] = temp;
+        locations[temp] = -1 - slot;
+        spilledTemps++;
+    }
+
+    // Register number, -1 - spill slot, or UNUSED
+    int location(int temp) {
+        return locations[temp];
+    }
+
+    boolean isSpilled(int temp) {
+        return locations[temp] < 0 && locations[temp] != UNUSED;
+    }
+
+    int intRegistersUsed() {
+        return registersUsed[INT];
+    }
+
+    int floatRegistersUsed() {
+        return registersUsed[FLOAT] + registersUsed[SINGLE];
+    }
+
+    // Temps after rewrite(): int, float and single registers, then int, float
+    // and single spill slots
+    int tempCount() {
+        return firstSpillTemp() + spillSlots[INT] + spillSlots[FLOAT] + spillSlots[SINGLE];
+    }
+
+    // First temp number after rewrite() that is a spill slot rather than a register
+    int firstSpillTemp() {
+        return registersUsed[INT] + registersUsed[FLOAT] + registersUsed[SINGLE];
+    }
+
+    // Renames every temp of the Tac to its register or spill slot, numbered as
+    // in tempCount()
+    void rewrite() {
+        int[] mapping = new int[locations.length];
+        for (int t = 0; t < locations.length; t++) {
+            int location = locations[t];
+            int type = type(t);
+            if (location == UNUSED) {
+                mapping[t] = -1;
+            } else if (location >= 0) {
+                mapping[t] = first(registersUsed, type) + location;
+            } else {
+                mapping[t] = firstSpillTemp() + first(spillSlots, type) - 1 - location;
+            }
+        }
+        tac.renumberTemps(mapping, tempCount(), firstSpillTemp());
+    }
+
+    // Number of the first register or spill slot of a class
+    private static int first(int[] counts, int type) {
+        int first = 0;
+        for (int t = 0; t < type; t++) {
+            first += counts[t];
+        }
+        return first;
+    }
+
+    String summary() {
+        return locations.length + " temps -> " + registersUsed[INT] + " int + " + registersUsed[FLOAT]
+                + " float + " + registersUsed[SINGLE] + " single registers, " + spilledTemps + " spilled to "
+                + (spillSlots[INT] + spillSlots[FLOAT] + spillSlots[SINGLE]) + " slots";
+    }
+}
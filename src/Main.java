@@ -1,36 +1,57 @@
-import java.util.List;
 
 
 public class Main {
     public static void main(String[] args) {
+            if (args.length > 0) {
+                // Build mode: Main <dir|file>... [-j threads] [-O0] [-fno-<pass>]... [-r registers] [-I dir] [-S] [--stats] [--cache dir [--cache-size MB]] [--run | --diff] [--jvm | --native]
+                BuildDriver.main(args);
+                return;
+            }
             try {
-                String PlainCode = CodeReader.read("Codes/main.cpp");
-                String CleanedCode = CodeCleaner.cleanCode((PlainCode));
+                CharSequence PlainCode = CodeReader.map("Codes/main.cpp");
+                String CleanedCode = CodeCleaner.cleanCode(PlainCode.toString());
 
                 System.out.println("####Cleaned Code####");
                 System.out.println(CleanedCode);
-                List<String> tokens = Lexical.tokenizeCode(CleanedCode);
-                List<Token> analyzedTokens = Lexical.analyzeTokens(tokens);
+                TokenBuffer tokens = TokenBuffer.scan(PlainCode);
 
-                for (Token token : analyzedTokens) {
-                    System.out.println(token.toString());
+                for (int i = 0; i < tokens.size(); i++) {
+                    System.out.println(tokens.describe(i));
                 }
                 System.out.println("End of list");
-                Parser parser = new Parser(analyzedTokens);
-                ParseTreeNode Tree = parser.parse();
+                Parser parser = new Parser(tokens);
+                FlatParseTree tree = parser.parseFlat();
 
                 System.out.println("Parsing completed successfully.");
+                System.out.println(tree);
 
-                SyntaxTree syntaxTree = new SyntaxTree(CleanedCode);
-                System.out.println(syntaxTree);
-
+                Ast.Program program = AstBuilder.build(tree);
                 ThreeAddressCodeGenerator tacGenerator = new ThreeAddressCodeGenerator();
-                List<String> code = tacGenerator.generateTAC(syntaxTree.root);
+                Tac code = tacGenerator.generate(program, tokens.identifiers);
 
                 // Print the generated TAC
-                for (String instr : code) {
-                    System.out.println(instr);
-                }
+                System.out.print(code);
+
+                // The demo input prints nothing, so dead stores would take all of it
+                TacOptimizer optimizer = new TacOptimizer(TacOptimizer.passBit("dead-stores"));
+                optimizer.run(code);
+                System.out.println("####Optimized TAC (" + optimizer.summary() + ")####");
+                System.out.print(code);
+
+                System.out.println("####Control flow graph####");
+                ControlFlowGraph cfg = new ControlFlowGraph(code);
+                System.out.print(cfg);
+
+                System.out.println("####Liveness####");
+                System.out.print(Dataflow.liveness(cfg).toString(slot -> code.operandText(code.slotOperand(slot))));
+
+                System.out.println("####SSA form####");
+                System.out.print(new SsaForm(code));
+
+                LinearScan allocation = LinearScan.allocate(code, 4);
+                allocation.rewrite();
+                System.out.println("####Registers (" + allocation.summary() + ")####");
+                System.out.print(code);
             } catch (Exception e) {
                 System.err.println(e.getMessage());
             }
@@ -0,0 +1,48 @@
+// Kinds of parse tree nodes. Nodes without a fixed name are shown by the text
+// of their token (statement wrappers, assignments, operators, leaves).
+final class NodeKind {
+    static final int ROOT = 0;
+    // Wrapper the parser puts around every statement, named by its first token
+    static final int STATEMENT = 1;
+    // Wrapper around a reserved-word statement, named by the reserved word
+    static final int KEYWORD = 2;
+    static final int TOKEN = 3;
+    static final int EXPRESSION = 4;
+    static final int GROUP = 5;
+    static final int BINARY = 6;
+    static final int UNARY = 7;
+    static final int POSTFIX = 8;
+    static final int ASSIGNMENT = 9;
+    static final int CALL = 10;
+    static final int ARGUMENTS = 11;
+    static final int VARIABLE_DECLARATION = 12;
+    static final int RETURN = 13;
+    static final int IF = 14;
+    static final int WHILE = 15;
+    static final int FOR = 16;
+    static final int INPUT = 17;
+    static final int OUTPUT = 18;
+    static final int CONTINUE = 19;
+    static final int BREAK = 20;
+    static final int INCLUDE = 21;
+    static final int USING_NAMESPACE = 22;
+    static final int MAIN_FUNCTION = 23;
+    static final int BLOCK = 24;
+
+    static final int COUNT = 25;
+
+    private static final String[] NAMES = {
+            "root", null, null, null, "expression", "()", null, null, null, null, null, "function",
+            "variableDeclaration", "returnStatement", "ifStatement", "whileStatement", "forStatement",
+            "inputStatement", "outputStatement", "continueStatement", "breakStatement", "includeStatement",
+            "usingNamespaceStatement", "mainFunction", "block"
+    };
+
+    private NodeKind() {
+    }
+
+    // Fixed name of the kind, null when the node is named by its token
+    static String name(int kind) {
+        return NAMES[kind];
+    }
+}
@@ -0,0 +1,22 @@
+// What the Parser calls to build its output. Nodes are int handles, so the
+// same parser can fill a ParseTreeNode object tree or a FlatParseTree.
+interface ParseTreeBuilder {
+    int NO_PARENT = -1;
+
+    int root();
+
+    // Adds a node of the given NodeKind under parent (or detached with
+    // NO_PARENT); token is the index of the token the node stands for, or -1
+    int node(int parent, int kind, int token);
+
+    void addChild(int parent, int child);
+
+    // Literal punctuation such as ';' or '('; only kept by trees that want it
+    void punctuation(int parent, String text);
+
+    // Token span of a statement or statement list, see ParseTreeNode
+    void span(int node, int offset, int count, boolean statementList);
+
+    // The statement node stopped at a parse error, in recovery mode
+    void error(int node, String message);
+}
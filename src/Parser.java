@@ -1,12 +1,26 @@
 import java.util.List;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Queue;
-import java.util.LinkedList;
+import java.util.ArrayDeque;
 
 class ParseTreeNode {
+    // tokenOffset of a node without a span
+    static final int NO_SPAN = Integer.MIN_VALUE;
+
     String value;
     List<ParseTreeNode> children;
+    // Token span, recorded for statements and statement lists only. The offset
+    // is relative to the start of the enclosing statement or statement list, so
+    // a subtree keeps its spans when tokens before it are inserted or removed.
+    int tokenOffset = NO_SPAN;
+    int tokenCount;
+    boolean statementList;
+    // In a statement list, the children from index gap on store their offset
+    // relative to the end of the list instead, so a change of the list's
+    // tokenCount before them moves them all at once; see offsetOf()
+    int gap = Integer.MAX_VALUE;
+    // Why the parser gave up on this statement, in recovery mode
+    String error;
 
     ParseTreeNode(String value) {
         this.value = value;
@@ -17,41 +31,191 @@ class ParseTreeNode {
         children.add(child);
     }
 
+    boolean hasSpan() {
+        return tokenOffset != NO_SPAN;
+    }
+
+    // Offset of a child's span from the start of this node, NO_SPAN if it has none
+    int offsetOf(int index) {
+        ParseTreeNode child = children.get(index);
+        return index < gap || !child.hasSpan() ? child.tokenOffset : child.tokenOffset + tokenCount;
+    }
+
+    // Moves the gap of a statement list before child index, one step per child passed
+    void moveGap(int index) {
+        gap = Math.min(gap, children.size());
+        for (; gap > index; gap--) {
+            shift(children.get(gap - 1), -tokenCount);
+        }
+        for (; gap < index; gap++) {
+            shift(children.get(gap), tokenCount);
+        }
+    }
+
+    private static void shift(ParseTreeNode child, int amount) {
+        if (child.hasSpan()) {
+            child.tokenOffset += amount;
+        }
+    }
+
+    // Replaces children [from, to) of a statement list with the given ones, which
+    // go before the gap; the list's children are a GapList, see ParseTreeNodeBuilder
+    void replaceChildren(int from, int to, List<ParseTreeNode> with) {
+        moveGap(to);
+        ((GapList<ParseTreeNode>) children).replace(from, to, with);
+        gap = from + with.size();
+    }
+
+    // Parent -> child edges in breadth-first order, one per line. Use
+    // TreeSerializer to write large trees to a stream.
     @Override
     public String toString() {
-        ParseTreeNode root = this;
-
-        Queue<ParseTreeNode> queue = new LinkedList<>();
-        queue.add(root);
+        StringBuilder edges = new StringBuilder();
+        ArrayDeque<ParseTreeNode> queue = new ArrayDeque<>();
+        queue.add(this);
 
         while (!queue.isEmpty()) {
             ParseTreeNode node = queue.poll();
             for (ParseTreeNode u : node.children) {
-                System.out.println(node.value + "->" + u.value);
+                edges.append(node.value).append("->").append(u.value).append('\n');
                 queue.add(u);
             }
         }
 
-        return " ";
+        return edges.toString();
     }
 }
 
+// Builds ParseTreeNode objects; every node and punctuation token is kept
+class ParseTreeNodeBuilder implements ParseTreeBuilder {
+    private final TokenBuffer tokens;
+    private final List<ParseTreeNode> nodes = new ArrayList<>();
+
+    ParseTreeNodeBuilder(TokenBuffer tokens) {
+        this.tokens = tokens;
+        nodes.add(new ParseTreeNode(NodeKind.name(NodeKind.ROOT)));
+    }
+
+    public int root() {
+        return 0;
+    }
+
+    ParseTreeNode get(int node) {
+        return nodes.get(node);
+    }
+
+    // Handle for an existing node, so new nodes can be parsed into it
+    int attach(ParseTreeNode node) {
+        nodes.add(node);
+        return nodes.size() - 1;
+    }
+
+    public int node(int parent, int kind, int token) {
+        String name = NodeKind.name(kind);
+        ParseTreeNode node = new ParseTreeNode(name != null ? name : tokens.text(token));
+        if (parent != NO_PARENT) {
+            nodes.get(parent).addChild(node);
+        }
+        nodes.add(node);
+        return nodes.size() - 1;
+    }
+
+    public void addChild(int parent, int child) {
+        nodes.get(parent).addChild(nodes.get(child));
+    }
+
+    public void punctuation(int parent, String text) {
+        nodes.get(parent).addChild(new ParseTreeNode(text));
+    }
+
+    public void span(int node, int offset, int count, boolean statementList) {
+        ParseTreeNode target = nodes.get(node);
+        target.tokenOffset = offset;
+        target.tokenCount = count;
+        target.statementList = statementList;
+        if (statementList && !(target.children instanceof GapList)) {
+            // IncrementalDocument replaces runs of statements in place
+            target.children = new GapList<>(target.children);
+        }
+    }
+
+    public void error(int node, String message) {
+        nodes.get(node).error = message;
+    }
+}
+
+
+// Thrown to unwind to the nearest statement in recovery mode. A single shared
+// instance without a stack trace, so a syntax error costs no allocation.
+class ParseError extends Exception {
+    private static final long serialVersionUID = 1L;
+
+    static final ParseError INSTANCE = new ParseError();
+
+    private ParseError() {
+        super("Parse error", null, false, false);
+    }
+}
 
 public class Parser {
-    private List<Token> tokens;
+    // Reported by the innermost statement list still open at the end of input
+    static final String UNCLOSED_AT_END = "Expected '}' before end of input";
+
+    private TokenBuffer tokens;
     private int currentTokenIndex;
-    private ParseTreeNode root;
+    private ParseTreeBuilder builder;
+    private int root;
+    // Start of the innermost statement being parsed; spans are stored relative to it
+    private int spanBase;
+    // In recovery mode errors are collected and parsing resumes after the next ';' or '}'
+    private final boolean recover;
+    // Collected errors as token index and message, turned into diagnostics on
+    // request since finding the line of a token scans the source up to it
+    private int[] errorTokens = new int[4];
+    private final List<String> errorMessages = new ArrayList<>();
+    // Message of the error being unwound, until a statement takes it
+    private String pendingError;
+    // Every statement list still open at the end of input ends there; only the
+    // innermost one reports the missing '}'
+    private boolean endOfInputReported;
     public Parser(List<Token> tokens) {
+        this(TokenBuffer.fromTokens(tokens));
+    }
+
+    Parser(TokenBuffer tokens) {
+        this(tokens, false);
+    }
+
+    Parser(TokenBuffer tokens, boolean recover) {
         this.tokens = tokens;
         this.currentTokenIndex = 0;
-        this.root = new ParseTreeNode("root");
+        this.recover = recover;
+    }
+
+    boolean reportedUnclosedAtEnd() {
+        return endOfInputReported;
+    }
+
+    List<Diagnostic> getDiagnostics() {
+        List<Diagnostic> diagnostics = new ArrayList<>(errorMessages.size());
+        for (int i = 0; i < errorMessages.size(); i++) {
+            diagnostics.add(tokens.diagnostic(errorTokens[i], errorMessages.get(i)));
+        }
+        return diagnostics;
     }
 
-    private Token getCurrentToken() {
+    private int currentKind() {
         if (currentTokenIndex < tokens.size()) {
-            return tokens.get(currentTokenIndex);
+            return tokens.kind(currentTokenIndex);
         }
-        return null;
+        return -1;
+    }
+
+    private String describeCurrentToken() {
+        if (currentTokenIndex < tokens.size()) {
+            return tokens.describe(currentTokenIndex);
+        }
+        return "null";
     }
 
     private void advanceToken() {
@@ -63,16 +227,76 @@ public class Parser {
     }
 
     private void error(String message) throws Exception {
-        throw new Exception("Parse error: " + message);
+        if (recover) {
+            int count = errorMessages.size();
+            if (count == errorTokens.length) {
+                errorTokens = Arrays.copyOf(errorTokens, count * 2);
+            }
+            errorTokens[count] = currentTokenIndex;
+            pendingError = errorText(message);
+            errorMessages.add(pendingError);
+            throw ParseError.INSTANCE;
+        }
+        throw new Exception(errorText(message));
+    }
+
+    static String errorText(String message) {
+        return "Parse error: " + message;
+    }
+
+    // Panic mode: skip to just after the next ';' or up to the next '}', always
+    // consuming at least one token of the failed statement
+    private void synchronize(int start) {
+        while (currentTokenIndex < tokens.size()) {
+            int kind = tokens.kind(currentTokenIndex);
+            if (kind == TokenKind.SEMICOLON) {
+                advanceToken();
+                return;
+            }
+            if (kind == TokenKind.RBRACE) {
+                if (currentTokenIndex == start) {
+                    advanceToken();
+                }
+                return;
+            }
+            advanceToken();
+        }
     }
 
     public ParseTreeNode parse() throws Exception {
+        ParseTreeNodeBuilder nodes = new ParseTreeNodeBuilder(tokens);
+        parse(nodes);
+        return nodes.get(nodes.root());
+    }
+
+    // Builds the arena tree directly, without ParseTreeNode objects or punctuation nodes
+    FlatParseTree parseFlat() throws Exception {
+        FlatParseTree tree = new FlatParseTree(tokens);
+        parse(tree);
+        return tree;
+    }
+
+    private void parse(ParseTreeBuilder builder) throws Exception {
+        this.builder = builder;
+        this.root = builder.root();
+        currentTokenIndex = 0;
+        spanBase = 0;
+        builder.span(root, 0, tokens.size(), true);
         program();
         if (currentTokenIndex < tokens.size()) {
             error("Unexpected tokens at the end");
         }
+    }
 
-        return root;
+    // Parses one statement at the given token index into parent and returns the
+    // index after it. Used by IncrementalDocument to re-parse a damaged range.
+    int parseStatementAt(int index, int base, ParseTreeNode parent) throws Exception {
+        ParseTreeNodeBuilder nodes = new ParseTreeNodeBuilder(tokens);
+        builder = nodes;
+        currentTokenIndex = index;
+        spanBase = base;
+        statement(nodes.attach(parent));
+        return currentTokenIndex;
     }
 
     private void program() throws Exception {
@@ -81,120 +305,122 @@ public class Parser {
         }
     }
 
-    private void statement(ParseTreeNode parent) throws Exception {
-        Token token = getCurrentToken();
-        if (token == null) {
+    private void statement(int parent) throws Exception {
+        int kind = currentKind();
+        if (kind < 0) {
             return;
         }
-        ParseTreeNode node = new ParseTreeNode(token.value);
-        parent.addChild(node);
-        switch (token.type) {
-            case IDENTIFIER:
-                if (token.value.equals("return")) {
-                    returnStatement(node);
-                }else if (true) {
-                    advanceToken();
-                    Token token11 = getCurrentToken();
-                    if (match(TokenType.SYMBOL, "==") || match(TokenType.SYMBOL, ">=") || match(TokenType.SYMBOL, "<=") || match(TokenType.SYMBOL, ">") || match(TokenType.SYMBOL, "<")) {
-                        expression(node);
-
-                    } else {
-
-                        retrieveToken();
-                        assignmentOrFunctionCall(node);
-                    }
-
-                } else {
-                    assignmentOrFunctionCall(node);
+        int start = currentTokenIndex;
+        int node = builder.node(parent, NodeKind.STATEMENT, start);
+        int enclosingBase = spanBase;
+        spanBase = start;
+        if (recover) {
+            try {
+                statementBody(node, kind);
+            } catch (ParseError e) {
+                if (pendingError != null) {
+                    builder.error(node, pendingError);
+                    pendingError = null;
                 }
-                break;
-            case RESERVEDWORD:
-                reservedWordStatement(node);
-                break;
-            case SYMBOL:
-                if (token.value.equals("{")) {
-                    block(node);
-                } else {
-                    error("Unexpected symbol: " + token);
+                synchronize(start);
+            }
+        } else {
+            statementBody(node, kind);
+        }
+        spanBase = enclosingBase;
+        builder.span(node, start - enclosingBase, currentTokenIndex - start, false);
+    }
+
+    private void statementBody(int node, int kind) throws Exception {
+        if (kind == TokenKind.IDENTIFIER) {
+            advanceToken();
+            if (match(TokenKind.ASSIGN) || match(TokenKind.LPAREN)) {
+                retrieveToken();
+                assignmentOrFunctionCall(node);
+            } else {
+                // Expression statement, e.g. x++; or x += 2;
+                retrieveToken();
+                expression(node);
+                if (!match(TokenKind.SEMICOLON)) {
+                    error("Expected ';' after expression");
                 }
-                break;
-            default:
-                error("Unexpected token: " + token);
+                builder.punctuation(node, ";");
+                advanceToken();
+            }
+        } else if (TokenKind.isReservedWord(kind)) {
+            reservedWordStatement(node);
+        } else if (kind == TokenKind.LBRACE) {
+            block(node);
+        } else if (TokenKind.isSymbol(kind)) {
+            error("Unexpected symbol: " + describeCurrentToken());
+        } else {
+            error("Unexpected token: " + describeCurrentToken());
         }
     }
 
-    private void assignmentOrFunctionCall(ParseTreeNode parent) throws Exception {
-        Token token = getCurrentToken();
-        System.out.println("DE " + token);
-        if (token.type != TokenType.IDENTIFIER) {
+    private void assignmentOrFunctionCall(int parent) throws Exception {
+        if (!match(TokenKind.IDENTIFIER)) {
             error("Expected identifier");
         }
 
-        ParseTreeNode node = new ParseTreeNode(token.value);
-        parent.addChild(node);
-
+        int name = currentTokenIndex;
         advanceToken();
-        token = getCurrentToken();
 
-        if (token != null && token.type == TokenType.SYMBOL && token.value.equals("=")) {
+        if (match(TokenKind.ASSIGN)) {
+            int node = builder.node(parent, NodeKind.ASSIGNMENT, name);
             advanceToken();
             expression(node);
 
-            if (!match(TokenType.SYMBOL, ";")) {
+            if (!match(TokenKind.SEMICOLON)) {
                 error("Expected ';' after assignment");
             }
-            node.addChild(new ParseTreeNode(("=")));
+            builder.punctuation(node, "=");
             advanceToken();
-        } else if (token != null && token.type == TokenType.SYMBOL && token.value.equals("(")) {
+        } else if (match(TokenKind.LPAREN)) {
+            int node = builder.node(parent, NodeKind.CALL, name);
             functionCall(node);
-            if (!match(TokenType.SYMBOL, ";")) {
+            if (!match(TokenKind.SEMICOLON)) {
                 error("Expected ';' after function call");
             }
             advanceToken();
         } else {
-            System.out.println(token);
             error("Expected assignment or function call");
         }
     }
 
-    private void functionCall(ParseTreeNode parent) throws Exception {
-        if (!match(TokenType.SYMBOL, "(")) {
+    private void functionCall(int parent) throws Exception {
+        if (!match(TokenKind.LPAREN)) {
             error("Expected '(' in function call");
         }
 
-        ParseTreeNode node = new ParseTreeNode("function");
-        parent.addChild(node);
+        int node = builder.node(parent, NodeKind.ARGUMENTS, currentTokenIndex);
 
-        node.addChild(new ParseTreeNode("("));
+        builder.punctuation(node, "(");
 
         advanceToken();
-        while (!match(TokenType.SYMBOL, ")")) {
+        while (!match(TokenKind.RPAREN)) {
             expression(node);
-            if (!match(TokenType.SYMBOL, ")")) {
-                if (!match(TokenType.SYMBOL, ",")) {
-                    Token token = getCurrentToken();
-                    System.out.println(token);
+            if (!match(TokenKind.RPAREN)) {
+                if (!match(TokenKind.COMMA)) {
                     error("Expected ',' in function call");
                 }
                 advanceToken();
             }
         }
-        node.addChild(new ParseTreeNode(")"));
+        builder.punctuation(node, ")");
         advanceToken();
     }
 
-    private void reservedWordStatement(ParseTreeNode parent) throws Exception {
-        Token token = getCurrentToken();
-        if (token == null || token.type != TokenType.RESERVEDWORD) {
-            System.out.println(token);
+    private void reservedWordStatement(int parent) throws Exception {
+        int kind = currentKind();
+        if (!TokenKind.isReservedWord(kind)) {
             error("Expected reserved word");
         }
-        ParseTreeNode node = new ParseTreeNode(token.value);
-        parent.addChild(node);
-        switch (token.value) {
-            case "int":
+        int node = builder.node(parent, NodeKind.KEYWORD, currentTokenIndex);
+        switch (kind) {
+            case TokenKind.INT:
                 advanceToken();
-                if (match(TokenType.RESERVEDWORD, "main")) {
+                if (match(TokenKind.MAIN)) {
                     mainStatement(node);
                 }
                 else {
@@ -202,402 +428,422 @@ public class Parser {
                     variableDeclaration(node);
                 }
                 break;
-            case "float":
-            case "void":
+            case TokenKind.FLOAT:
                 variableDeclaration(node);
                 break;
-            case "return":
+            case TokenKind.RETURN:
                 returnStatement(node);
                 break;
-            case "if":
+            case TokenKind.IF:
                 ifStatement(node);
                 break;
-            case "while":
+            case TokenKind.WHILE:
                 whileStatement(node);
                 break;
-            case "for":
+            case TokenKind.FOR:
                 forStatement(node);
                 break;
-            case "cin":
+            case TokenKind.CIN:
                 inputStatement(node);
                 break;
-            case "cout":
+            case TokenKind.COUT:
                 outputStatement(node);
                 break;
-            case "continue":
+            case TokenKind.CONTINUE:
                 continueStatement(node);
                 break;
-            case "break":
+            case TokenKind.BREAK:
                 breakStatement(node);
                 break;
-            case "#include":
+            case TokenKind.INCLUDE:
                 includeStatement(node);
                 break;
-            case "using":
+            case TokenKind.USING:
                 usingNamespaceStatement(node);
                 break;
-            case "namespace":
+            case TokenKind.NAMESPACE:
                 namespaceStatement(node);
                 break;
-            case "std":
+            case TokenKind.STD:
                 stdStatement(node);
                 break;
-            case "main":
+            case TokenKind.MAIN:
                 mainStatement(node);
                 break;
             default:
-                error("Unexpected reserved word: " + token);
+                error("Unexpected reserved word: " + describeCurrentToken());
         }
     }
-    private void variableDeclaration(ParseTreeNode parent) throws Exception {
-        advanceToken(); // consume int/float/void
-        ParseTreeNode node = new ParseTreeNode("variableDeclaration");
-        parent.addChild(node);
-        Token token = getCurrentToken();
-        if (!match(TokenType.IDENTIFIER)) {
-            System.out.println(token);
+    private void variableDeclaration(int parent) throws Exception {
+        // The node stands on the type token
+        int node = builder.node(parent, NodeKind.VARIABLE_DECLARATION, currentTokenIndex);
+        advanceToken(); // consume int/float
+        if (!match(TokenKind.IDENTIFIER)) {
             error("Expected identifier after type");
         }
-        node.addChild(new ParseTreeNode(getCurrentToken().value));
+        builder.node(node, NodeKind.TOKEN, currentTokenIndex);
         advanceToken();
-        if (match(TokenType.SYMBOL, "=")) {
-            node.addChild(new ParseTreeNode("="));
+        if (match(TokenKind.ASSIGN)) {
+            builder.punctuation(node, "=");
             advanceToken();
             expression(node); // Parsing the initialization expression
         }
-        while (match(TokenType.SYMBOL, ",")) {
-            node.addChild(new ParseTreeNode(","));
+        while (match(TokenKind.COMMA)) {
+            builder.punctuation(node, ",");
             advanceToken();
-            if (!match(TokenType.IDENTIFIER)) {
-                System.out.println(token);
+            if (!match(TokenKind.IDENTIFIER)) {
                 error("Expected identifier after ','");
             }
-            node.addChild(new ParseTreeNode(getCurrentToken().value));
+            builder.node(node, NodeKind.TOKEN, currentTokenIndex);
             advanceToken();
-            if (match(TokenType.SYMBOL, "=")) {
-                node.addChild(new ParseTreeNode("="));
+            if (match(TokenKind.ASSIGN)) {
+                builder.punctuation(node, "=");
                 advanceToken();
                 expression(node); // Parsing the initialization expression
             }
         }
-        if (!match(TokenType.SYMBOL, ";")) {
-            System.out.println(token);
+        if (!match(TokenKind.SEMICOLON)) {
             error("Expected ';' after variable declaration");
         }
-        node.addChild(new ParseTreeNode(";"));
+        builder.punctuation(node, ";");
         advanceToken();
     }
 
-    private void returnStatement(ParseTreeNode parent) throws Exception {
+    private void returnStatement(int parent) throws Exception {
+        int node = builder.node(parent, NodeKind.RETURN, currentTokenIndex);
         advanceToken(); // consume return
-        ParseTreeNode node = new ParseTreeNode("returnStatement");
         expression(node);
 
-        Token token = getCurrentToken();
-        if (!match(TokenType.SYMBOL, ";")) {
-            System.out.println(token);
+        if (!match(TokenKind.SEMICOLON)) {
             error("Expected ';' after return statement");
         }
-        node.addChild(new ParseTreeNode(";"));
+        builder.punctuation(node, ";");
         advanceToken();
     }
 
-    private void ifStatement(ParseTreeNode parent) throws Exception {
+    private void ifStatement(int parent) throws Exception {
+        int node = builder.node(parent, NodeKind.IF, currentTokenIndex);
         advanceToken(); // consume if
-        ParseTreeNode node = new ParseTreeNode("ifStatement");
-        Token token = getCurrentToken();
-        if (!match(TokenType.SYMBOL, "(")) {
-            System.out.println(token);
+        if (!match(TokenKind.LPAREN)) {
             error("Expected '(' after 'if'");
         }
         advanceToken();
-        node.addChild(new ParseTreeNode("("));
+        builder.punctuation(node, "(");
         expression(node);
-        if (!match(TokenType.SYMBOL, ")")) {
-            System.out.println(token);
+        if (!match(TokenKind.RPAREN)) {
             error("Expected ')' after condition in 'if' statement");
         }
-        node.addChild(new ParseTreeNode(")"));
+        builder.punctuation(node, ")");
         advanceToken();
         statement(node);
     }
 
-    private void whileStatement(ParseTreeNode parent) throws Exception {
+    private void whileStatement(int parent) throws Exception {
+        int node = builder.node(parent, NodeKind.WHILE, currentTokenIndex);
         advanceToken(); // consume while
-        ParseTreeNode node = new ParseTreeNode("whileStatement");
-        if (!match(TokenType.SYMBOL, "(")) {
+        if (!match(TokenKind.LPAREN)) {
             error("Expected '(' after 'while'");
         }
-        node.addChild(new ParseTreeNode("("));
+        builder.punctuation(node, "(");
         advanceToken();
         expression(node);
-        if (!match(TokenType.SYMBOL, ")")) {
+        if (!match(TokenKind.RPAREN)) {
             error("Expected ')' after condition in 'while' statement");
         }
-        node.addChild(new ParseTreeNode(")"));
+        builder.punctuation(node, ")");
         advanceToken();
         statement(node);
     }
 
-    private void forStatement(ParseTreeNode parent) throws Exception {
+    private void forStatement(int parent) throws Exception {
+        int node = builder.node(parent, NodeKind.FOR, currentTokenIndex);
         advanceToken(); // consume for
-        ParseTreeNode node = new ParseTreeNode("forStatement");
-        parent.addChild(node);
 
-        if (!match(TokenType.SYMBOL, "(")) {
+        if (!match(TokenKind.LPAREN)) {
             error("Expected '(' after 'for'");
         }
-        node.addChild(new ParseTreeNode("("));
+        builder.punctuation(node, "(");
         advanceToken();
         statement(node);
         retrieveToken();
 
-        if (!match(TokenType.SYMBOL, ";")) {
-            Token token = getCurrentToken();
-            System.out.println("DEBUGG " + token);
+        if (!match(TokenKind.SEMICOLON)) {
             error("Expected ';' in 'for' statement");
         }
-        node.addChild(new ParseTreeNode(";"));
+        builder.punctuation(node, ";");
         advanceToken();
         expression(node);
-        if (!match(TokenType.SYMBOL, ";")) {
+        if (!match(TokenKind.SEMICOLON)) {
             error("Expected ';' in 'for' statement");
         }
-        node.addChild(new ParseTreeNode(";"));
+        builder.punctuation(node, ";");
         advanceToken();
         expression(node);
-        if (!match(TokenType.SYMBOL, ")")) {
+        if (!match(TokenKind.RPAREN)) {
             error("Expected ')' after 'for' conditions");
         }
-        node.addChild(new ParseTreeNode(")"));
+        builder.punctuation(node, ")");
         advanceToken();
         statement(node);
     }
 
-    private void inputStatement(ParseTreeNode parent) throws Exception {
+    private void inputStatement(int parent) throws Exception {
+        int node = builder.node(parent, NodeKind.INPUT, currentTokenIndex);
         advanceToken(); // consume cin
-        ParseTreeNode node = new ParseTreeNode("inputStatement");
-        parent.addChild(node);
-        while (match(TokenType.RESERVEDWORD, ">>")) {
-            node.addChild(new ParseTreeNode(">>"));
+        while (match(TokenKind.SHIFT_RIGHT)) {
+            builder.punctuation(node, ">>");
             advanceToken();
-            if (!match(TokenType.IDENTIFIER)) {
+            if (!match(TokenKind.IDENTIFIER)) {
                 error("Expected identifier after '>>' in 'cin' statement");
             }
-            node.addChild(new ParseTreeNode(getCurrentToken().value));
+            builder.node(node, NodeKind.TOKEN, currentTokenIndex);
             advanceToken();
         }
-        if (!match(TokenType.SYMBOL, ";")) {
+        if (!match(TokenKind.SEMICOLON)) {
             error("Expected ';' after 'cin' statement");
         }
-        node.addChild(new ParseTreeNode(";"));
+        builder.punctuation(node, ";");
         advanceToken();
     }
 
-    private void outputStatement(ParseTreeNode parent) throws Exception {
+    private void outputStatement(int parent) throws Exception {
+        int node = builder.node(parent, NodeKind.OUTPUT, currentTokenIndex);
         advanceToken(); // consume cout
-        ParseTreeNode node = new ParseTreeNode("outputStatement");
-        parent.addChild(node);
-        while (match(TokenType.SYMBOL, "<<")) {
-            node.addChild(new ParseTreeNode("<<"));
+        while (match(TokenKind.SHIFT_LEFT)) {
+            builder.punctuation(node, "<<");
             advanceToken();
             expression(node);
         }
-        if (!match(TokenType.SYMBOL, ";")) {
+        if (!match(TokenKind.SEMICOLON)) {
             error("Expected ';' after 'cout' statement");
         }
-        node.addChild(new ParseTreeNode(";"));
+        builder.punctuation(node, ";");
         advanceToken();
     }
 
-    private void continueStatement(ParseTreeNode parent) throws Exception {
+    private void continueStatement(int parent) throws Exception {
+        int node = builder.node(parent, NodeKind.CONTINUE, currentTokenIndex);
         advanceToken(); // consume continue
-        ParseTreeNode node = new ParseTreeNode("continueStatement");
-        parent.addChild(node);
-        if (!match(TokenType.SYMBOL, ";")) {
+        if (!match(TokenKind.SEMICOLON)) {
             error("Expected ';' after 'continue' statement");
         }
-        node.addChild(new ParseTreeNode(";"));
+        builder.punctuation(node, ";");
         advanceToken();
     }
 
-    private void breakStatement(ParseTreeNode parent) throws Exception {
+    private void breakStatement(int parent) throws Exception {
+        int node = builder.node(parent, NodeKind.BREAK, currentTokenIndex);
         advanceToken(); // consume break
-        ParseTreeNode node = new ParseTreeNode("breakStatement");
-        parent.addChild(node);
-        if (!match(TokenType.SYMBOL, ";")) {
+        if (!match(TokenKind.SEMICOLON)) {
             error("Expected ';' after 'break' statement");
         }
-        node.addChild(new ParseTreeNode(";"));
+        builder.punctuation(node, ";");
         advanceToken();
     }
-    private void includeStatement(ParseTreeNode parent) throws Exception {
+    private void includeStatement(int parent) throws Exception {
+        int node = builder.node(parent, NodeKind.INCLUDE, currentTokenIndex);
         advanceToken(); // consume #include
-        ParseTreeNode node = new ParseTreeNode("includeStatement");
-        parent.addChild(node);
-        if (!match(TokenType.SYMBOL, "<")) {
+        if (!match(TokenKind.LESS)) {
             error("Expected '<' after '#include'");
         }
-        node.addChild(new ParseTreeNode("<"));
+        builder.punctuation(node, "<");
         advanceToken();
-        if (!match(TokenType.IDENTIFIER)) {
+        if (!match(TokenKind.IDENTIFIER)) {
             error("Expected header file after '<'");
         }
-        node.addChild(new ParseTreeNode(getCurrentToken().value));
+        builder.node(node, NodeKind.TOKEN, currentTokenIndex);
         advanceToken();
-        if (!match(TokenType.SYMBOL, ">")) {
+        if (!match(TokenKind.GREATER)) {
             error("Expected '>' after header file");
         }
-        node.addChild(new ParseTreeNode(">"));
+        builder.punctuation(node, ">");
         advanceToken();
     }
 
-    private void usingNamespaceStatement(ParseTreeNode parent) throws Exception {
+    private void usingNamespaceStatement(int parent) throws Exception {
+        int node = builder.node(parent, NodeKind.USING_NAMESPACE, currentTokenIndex);
         advanceToken(); // consume using
-        ParseTreeNode node = new ParseTreeNode("usingNamespaceStatement");
-        parent.addChild(node);
-        if (!match(TokenType.RESERVEDWORD, "namespace")) {
+        if (!match(TokenKind.NAMESPACE)) {
             error("Expected 'namespace' after 'using'");
         }
-        node.addChild(new ParseTreeNode("namespace"));
+        builder.punctuation(node, "namespace");
         advanceToken();
-        if (!match(TokenType.RESERVEDWORD, "std")) {
+        if (!match(TokenKind.STD)) {
             error("Expected 'std' after 'namespace'");
         }
-        node.addChild(new ParseTreeNode("std"));
+        builder.punctuation(node, "std");
         advanceToken();
-        if (!match(TokenType.SYMBOL, ";")) {
+        if (!match(TokenKind.SEMICOLON)) {
             error("Expected ';' after 'using namespace std'");
         }
-        node.addChild(new ParseTreeNode(";"));
+        builder.punctuation(node, ";");
         advanceToken();
     }
 
-    private void namespaceStatement(ParseTreeNode parent) throws Exception {
+    private void namespaceStatement(int parent) throws Exception {
         // Implementation for namespace statement
         advanceToken();
     }
 
-    private void stdStatement(ParseTreeNode parent) throws Exception {
+    private void stdStatement(int parent) throws Exception {
         // Likely part of 'using namespace std', hence no separate implementation needed
         advanceToken();
     }
 
-    private void mainStatement(ParseTreeNode parent) throws Exception {
-
+    private void mainStatement(int parent) throws Exception {
+        int node = builder.node(parent, NodeKind.MAIN_FUNCTION, currentTokenIndex);
         advanceToken(); // consume main
-        ParseTreeNode node = new ParseTreeNode("usingNamespaceStatement");
-        parent.addChild(node);
 
-        if (!match(TokenType.SYMBOL, "(")) {
+        if (!match(TokenKind.LPAREN)) {
             error("Expected '(' after 'main'");
         }
-        node.addChild(new ParseTreeNode("main"));
+        builder.punctuation(node, "(");
         advanceToken();
-        if (!match(TokenType.SYMBOL, ")")) {
+        if (!match(TokenKind.RPAREN)) {
             error("Expected ')' after 'main('");
         }
-        node.addChild(new ParseTreeNode("("));
+        builder.punctuation(node, ")");
         advanceToken();
-        node.addChild(new ParseTreeNode(")"));
-        if (!match(TokenType.SYMBOL, "{")) {
+        if (!match(TokenKind.LBRACE)) {
             error("Expected '{' after 'main()'");
         }
-        node.addChild(new ParseTreeNode("{"));
+        builder.punctuation(node, "{");
         advanceToken();
-        while (!match(TokenType.SYMBOL, "}")) {
-            statement(node);
-        }
-        node.addChild(new ParseTreeNode("{"));
+        statementList(node);
+        builder.punctuation(node, "}");
         advanceToken();
     }
 
-    private void block(ParseTreeNode parent) throws Exception {
-        ParseTreeNode node = new ParseTreeNode("usingNamespaceStatement");
-        parent.addChild(node);
+    private void block(int parent) throws Exception {
+        int node = builder.node(parent, NodeKind.BLOCK, currentTokenIndex);
 
-        if (!match(TokenType.SYMBOL, "{")) {
+        if (!match(TokenKind.LBRACE)) {
             error("Expected '{'");
         }
-        node.addChild(new ParseTreeNode("{"));
+        builder.punctuation(node, "{");
         advanceToken();
-        while (!match(TokenType.SYMBOL, "}")) {
-            statement(node);
-        }
-        node.addChild(new ParseTreeNode("}"));
+        statementList(node);
+        builder.punctuation(node, "}");
         advanceToken();
     }
 
-    // Helper methods to match tokens and expressions
-    private boolean match(TokenType type, String value) {
-        Token token = getCurrentToken();
-        return token != null && token.type == type && token.value.equals(value);
-    }
-
-    private boolean match(TokenType type) {
-        Token token = getCurrentToken();
-        return token != null && token.type == type;
-    }
-
-    private void expression(ParseTreeNode parent) throws Exception {
-        ParseTreeNode exprNode = new ParseTreeNode("expression");
-        parent.addChild(exprNode);
-
-        term(exprNode);
-
-        if (match(TokenType.SYMBOL, "++") || match(TokenType.SYMBOL, "--")) {
-            Token operator = getCurrentToken();
-            exprNode.addChild(new ParseTreeNode(operator.value)); // Add operator node
-            advanceToken();
+    // The statements' spans are relative to the start of the list. The span is
+    // recorded before a missing '}' is reported, so a recovered tree has it.
+    private void statementList(int node) throws Exception {
+        int start = currentTokenIndex;
+        int enclosingBase = spanBase;
+        spanBase = start;
+        while (!match(TokenKind.RBRACE) && currentKind() >= 0) {
+            statement(node);
         }
-        else
-            while (match(TokenType.SYMBOL, "+") || match(TokenType.SYMBOL, "-")) {
-                Token operator = getCurrentToken();
-                exprNode.addChild(new ParseTreeNode(operator.value)); // Add operator node
-                advanceToken();
-                term(exprNode);
+        spanBase = enclosingBase;
+        builder.span(node, start - spanBase, currentTokenIndex - start, true);
+        if (currentKind() < 0) {
+            if (recover && endOfInputReported) {
+                throw ParseError.INSTANCE;
             }
+            endOfInputReported = true;
+            error(UNCLOSED_AT_END);
+        }
+    }
+
+    // Helper method to match tokens: a single int compare on the token kind
+    private boolean match(int kind) {
+        return currentTokenIndex < tokens.size() && tokens.kind(currentTokenIndex) == kind;
+    }
+
+    // Binding power of each binary operator by token kind, 0 for anything else.
+    // Assignment is right associative, everything else left associative.
+    private static final int[] BINARY_PRECEDENCE = new int[TokenKind.COUNT];
+    private static final int ASSIGNMENT_PRECEDENCE = 1;
+    private static final int UNARY_PRECEDENCE = 8;
+
+    static {
+        BINARY_PRECEDENCE[TokenKind.ASSIGN] = ASSIGNMENT_PRECEDENCE;
+        BINARY_PRECEDENCE[TokenKind.PLUS_ASSIGN] = ASSIGNMENT_PRECEDENCE;
+        BINARY_PRECEDENCE[TokenKind.MINUS_ASSIGN] = ASSIGNMENT_PRECEDENCE;
+        BINARY_PRECEDENCE[TokenKind.STAR_ASSIGN] = ASSIGNMENT_PRECEDENCE;
+        BINARY_PRECEDENCE[TokenKind.SLASH_ASSIGN] = ASSIGNMENT_PRECEDENCE;
+        BINARY_PRECEDENCE[TokenKind.OR] = 2;
+        BINARY_PRECEDENCE[TokenKind.AND] = 3;
+        BINARY_PRECEDENCE[TokenKind.EQUAL] = 4;
+        BINARY_PRECEDENCE[TokenKind.NOT_EQUAL] = 4;
+        BINARY_PRECEDENCE[TokenKind.LESS] = 5;
+        BINARY_PRECEDENCE[TokenKind.GREATER] = 5;
+        BINARY_PRECEDENCE[TokenKind.LESS_EQUAL] = 5;
+        BINARY_PRECEDENCE[TokenKind.GREATER_EQUAL] = 5;
+        BINARY_PRECEDENCE[TokenKind.PLUS] = 6;
+        BINARY_PRECEDENCE[TokenKind.MINUS] = 6;
+        BINARY_PRECEDENCE[TokenKind.STAR] = 7;
+        BINARY_PRECEDENCE[TokenKind.SLASH] = 7;
+        BINARY_PRECEDENCE[TokenKind.PERCENT] = 7;
+    }
+
+    // expression -> one child holding the operator tree. Binary operators have two
+    // children, unary '-', '+', '!' and postfix '++', '--' one, "()" keeps parentheses.
+    private void expression(int parent) throws Exception {
+        int exprNode = builder.node(parent, NodeKind.EXPRESSION, currentTokenIndex);
+        builder.addChild(exprNode, binaryExpression(ASSIGNMENT_PRECEDENCE));
+    }
+
+    // Precedence climbing: one table lookup per operator. Operands are built
+    // detached and attached once their operator is known.
+    private int binaryExpression(int minPrecedence) throws Exception {
+        int left = unary();
+        while (true) {
+            int kind = currentKind();
+            int precedence = kind >= 0 ? BINARY_PRECEDENCE[kind] : 0;
+            if (precedence == 0 || precedence < minPrecedence) {
+                return left;
+            }
+            int operator = builder.node(ParseTreeBuilder.NO_PARENT, NodeKind.BINARY, currentTokenIndex);
+            advanceToken();
+            builder.addChild(operator, left);
+            builder.addChild(operator, binaryExpression(precedence == ASSIGNMENT_PRECEDENCE ? precedence : precedence + 1));
+            left = operator;
+        }
     }
 
-    private void term(ParseTreeNode parent) throws Exception {
-        ParseTreeNode termNode = new ParseTreeNode("term");
-        parent.addChild(termNode);
-
-        factor(termNode);
-
-        while (match(TokenType.SYMBOL, "*") || match(TokenType.SYMBOL, "/") || match(TokenType.SYMBOL, "==") || match(TokenType.SYMBOL, "<=") || match(TokenType.SYMBOL, ">=")
-    || match(TokenType.SYMBOL, "<") || match(TokenType.SYMBOL, ">")) {
-            Token operator = getCurrentToken();
-            termNode.addChild(new ParseTreeNode(operator.value)); // Add operator node
+    private int unary() throws Exception {
+        int kind = currentKind();
+        if (kind == TokenKind.MINUS || kind == TokenKind.PLUS || kind == TokenKind.NOT) {
+            int operator = builder.node(ParseTreeBuilder.NO_PARENT, NodeKind.UNARY, currentTokenIndex);
+            advanceToken();
+            builder.addChild(operator, binaryExpression(UNARY_PRECEDENCE));
+            return operator;
+        }
+        int operand = primary();
+        while (match(TokenKind.INCREMENT) || match(TokenKind.DECREMENT)) {
+            int operator = builder.node(ParseTreeBuilder.NO_PARENT, NodeKind.POSTFIX, currentTokenIndex);
+            builder.addChild(operator, operand);
+            operand = operator;
             advanceToken();
-            factor(termNode);
         }
+        return operand;
     }
 
-    private void factor(ParseTreeNode parent) throws Exception {
-        ParseTreeNode factorNode = new ParseTreeNode("factor");
-        parent.addChild(factorNode);
-
-        Token token = getCurrentToken();
-        if (token == null) {
-            error("Expected factor");
+    private int primary() throws Exception {
+        if (currentKind() < 0) {
+            error("Expected expression");
         }
-
-        if (match(TokenType.NUMBER) || match(TokenType.IDENTIFIER) || match(TokenType.STRING)) {
-            factorNode.addChild(new ParseTreeNode(token.value)); // Add operand node
+        if (match(TokenKind.NUMBER) || match(TokenKind.IDENTIFIER) || match(TokenKind.STRING)
+                || match(TokenKind.ENDL)) {
+            int operand = builder.node(ParseTreeBuilder.NO_PARENT, NodeKind.TOKEN, currentTokenIndex);
             advanceToken();
-        } else if (match(TokenType.SYMBOL, "(")) {
-            factorNode.addChild(new ParseTreeNode("(")); // Add '(' node
+            return operand;
+        }
+        if (match(TokenKind.LPAREN)) {
+            int group = builder.node(ParseTreeBuilder.NO_PARENT, NodeKind.GROUP, currentTokenIndex);
             advanceToken(); // consume '('
-            expression(factorNode);
-            if (!match(TokenType.SYMBOL, ")")) {
+            builder.addChild(group, binaryExpression(ASSIGNMENT_PRECEDENCE));
+            if (!match(TokenKind.RPAREN)) {
                 error("Expected ')' after expression");
             }
-            factorNode.addChild(new ParseTreeNode(")")); // Add ')' node
             advanceToken(); // consume ')'
-        } else {
-            error("Unexpected token in factor: " + token);
+            return group;
         }
+        error("Unexpected token in expression: " + describeCurrentToken());
+        return -1;
     }
 
     public static void test() {
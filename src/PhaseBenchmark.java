@@ -0,0 +1,265 @@
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+
+// Throughput and allocation of each front-end phase on seeded synthetic C++
+// sources of several sizes. Every phase runs on the output of the phase before
+// it, prepared once up front, so only that phase is timed. Allocation is the
+// current thread's allocated bytes, read before and after the measured loop.
+//
+// Usage: PhaseBenchmark [-w warmup-ms] [-m measure-ms] [-s seed] [statements...]
+public class PhaseBenchmark {
+    private static final int[] DEFAULT_SIZES = {100, 1_000, 10_000};
+
+    private final long warmupMillis;
+    private final long measureMillis;
+    private final com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    // Results are folded in here so the JIT cannot drop a phase's work
+    private int sink;
+
+    PhaseBenchmark(long warmupMillis, long measureMillis) {
+        this.warmupMillis = warmupMillis;
+        this.measureMillis = measureMillis;
+    }
+
+    public static void main(String[] args) {
+        long warmup = 1000;
+        long measure = 2000;
+        long seed = 42;
+        List<Integer> sizes = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-w") && i + 1 < args.length) {
+                warmup = Long.parseLong(args[++i]);
+            } else if (args[i].equals("-m") && i + 1 < args.length) {
+                measure = Long.parseLong(args[++i]);
+            } else if (args[i].equals("-s") && i + 1 < args.length) {
+                seed = Long.parseLong(args[++i]);
+            } else {
+                sizes.add(Integer.parseInt(args[i]));
+            }
+        }
+        if (sizes.isEmpty()) {
+            for (int size : DEFAULT_SIZES) {
+                sizes.add(size);
+            }
+        }
+        try {
+            PhaseBenchmark benchmark = new PhaseBenchmark(warmup, measure);
+            System.out.printf("%-14s %8s %8s %14s %14s %14s %10s%n",
+                    "phase", "stmts", "chars", "ops/s", "ns/op", "bytes/op", "MB/s");
+            for (int size : sizes) {
+                benchmark.runAll(generate(seed, size), size);
+            }
+        } catch (Exception e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    void runAll(String source, int size) throws Exception {
+        String cleaned = CodeCleaner.cleanCode(source);
+        List<String> words = Lexical.tokenizeCode(cleaned);
+        List<Token> tokens = Lexical.analyzeTokens(words);
+        TokenBuffer buffer = TokenBuffer.scan(source);
+        FlatParseTree tree = new Parser(buffer).parseFlat();
+        Ast.Program program = AstBuilder.build(tree);
+        String equation = equation(size);
+        SyntaxTreeeNode expression = new SyntaxTree(equation).root;
+
+        List<Result> results = new ArrayList<>();
+        results.add(measure("cleanCode", () -> CodeCleaner.cleanCode(source).length()));
+        results.add(measure("tokenizeCode", () -> Lexical.tokenizeCode(cleaned).size()));
+        results.add(measure("analyzeTokens", () -> Lexical.analyzeTokens(words).size()));
+        results.add(measure("parse", () -> new Parser(tokens).parse().hashCode()));
+        results.add(measure("scan", () -> TokenBuffer.scan(source).size()));
+        results.add(measure("parseFlat", () -> new Parser(buffer).parseFlat().hashCode()));
+        results.add(measure("buildAst", () -> AstBuilder.build(tree).hashCode()));
+        results.add(measure("syntaxTree", () -> new SyntaxTree(equation).root.hashCode()));
+        results.add(measure("generateTAC", () -> new ThreeAddressCodeGenerator().generate(program, buffer.identifiers).size()));
+        results.add(measure("generateTAC/st", () -> new ThreeAddressCodeGenerator().generateTAC(expression).size()));
+        for (Result result : results) {
+            System.out.printf("%-14s %8d %8d %14.1f %14.1f %14.1f %10.1f%n", result.phase, size, source.length(),
+                    result.opsPerSecond(), result.nanosPerOp(), result.bytesPerOp(), result.megabytesPerSecond());
+        }
+    }
+
+    static final class Result {
+        final String phase;
+        final long operations;
+        final long nanos;
+        final long bytes;
+
+        Result(String phase, long operations, long nanos, long bytes) {
+            this.phase = phase;
+            this.operations = operations;
+            this.nanos = nanos;
+            this.bytes = bytes;
+        }
+
+        double opsPerSecond() {
+            return operations * 1e9 / nanos;
+        }
+
+        double nanosPerOp() {
+            return (double) nanos / operations;
+        }
+
+        double bytesPerOp() {
+            return (double) bytes / operations;
+        }
+
+        // Allocation rate while the phase ran
+        double megabytesPerSecond() {
+            return bytes * 1e9 / nanos / (1024 * 1024);
+        }
+    }
+
+    // Runs the phase for the warmup time, then counts complete runs in the
+    // measurement time
+    Result measure(String phase, Callable<Integer> body) throws Exception {
+        long thread = Thread.currentThread().threadId();
+        long deadline = System.nanoTime() + warmupMillis * 1_000_000;
+        while (System.nanoTime() < deadline) {
+            sink += body.call();
+        }
+        long operations = 0;
+        long allocated = threads.getThreadAllocatedBytes(thread);
+        long start = System.nanoTime();
+        deadline = start + measureMillis * 1_000_000;
+        long now;
+        do {
+            sink += body.call();
+            operations++;
+            now = System.nanoTime();
+        } while (now < deadline);
+        long bytes = threads.getThreadAllocatedBytes(thread) - allocated;
+        return new Result(phase, operations, now - start, bytes);
+    }
+
+    // A main() of the given number of statements: declarations, assignments,
+    // if/else, while and for loops, cin and cout, with comments for the cleaner.
+    // Every token is separated by a space so Lexical.tokenizeCode, which only
+    // splits on some symbols, sees the same tokens as TokenBuffer.scan; != is
+    // left out because it splits it in two.
+    static String generate(long seed, int statements) {
+        Random random = new Random(seed);
+        StringBuilder out = new StringBuilder(statements * 32);
+        out.append("#include <iostream>\nusing namespace std ;\n// synthetic unit, seed ").append(seed).append('\n');
+        out.append("int main ( ) {\n");
+        List<String> variables = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            String name = "v" + i;
+            variables.add(name);
+            out.append("  int ").append(name).append(" = ").append(random.nextInt(100)).append(" ;\n");
+        }
+        int count = 4;
+        int depth = 0;
+        while (count < statements) {
+            String target = variables.get(random.nextInt(variables.size()));
+            int choice = random.nextInt(16);
+            if (choice == 10 && depth > 0) {
+                depth--;
+                indent(out, depth);
+                out.append("}\n");
+                continue;
+            }
+            indent(out, depth);
+            // Declarations stay at function scope so every later use is in scope
+            if (choice < 2 && depth == 0) {
+                String name = "v" + variables.size();
+                variables.add(name);
+                out.append(random.nextBoolean() ? "int " : "float ").append(name).append(" = ");
+                expression(out, random, variables, 2);
+                out.append(" ;\n");
+            } else if (choice < 7) {
+                out.append(target).append(random.nextInt(4) == 0 ? " += " : " = ");
+                expression(out, random, variables, 3);
+                out.append(" ;\n");
+            } else if (choice == 7 && depth < 4) {
+                out.append("if ( ");
+                condition(out, random, variables);
+                out.append(" ) {\n");
+                depth++;
+            } else if (choice == 8 && depth < 4) {
+                out.append("while ( ");
+                condition(out, random, variables);
+                out.append(" ) {\n");
+                depth++;
+                indent(out, depth);
+                out.append(target).append(" = ").append(target).append(" - 1 ;\n");
+                count++;
+            } else if (choice == 9 && depth < 4) {
+                String index = "i" + count;
+                out.append("for ( int ").append(index).append(" = 0 ; ").append(index).append(" < ")
+                        .append(1 + random.nextInt(10)).append(" ; ").append(index).append(" ++ ) {\n");
+                depth++;
+            } else if (choice == 11) {
+                out.append("cin >> ").append(target).append(" ;\n");
+            } else if (choice == 12) {
+                out.append("cout << ").append(target).append(" << endl ;\n");
+            } else if (choice == 13) {
+                out.append("/* block comment ").append(count).append(" */\n");
+                continue;
+            } else {
+                out.append(target).append(" = ");
+                expression(out, random, variables, 2);
+                out.append(" ; // trailing comment\n");
+            }
+            count++;
+        }
+        while (depth > 0) {
+            depth--;
+            indent(out, depth);
+            out.append("}\n");
+        }
+        out.append("  return 0 ;\n}\n");
+        return out.toString();
+    }
+
+    private static void indent(StringBuilder out, int depth) {
+        for (int i = 0; i <= depth; i++) {
+            out.append("  ");
+        }
+    }
+
+    private static void expression(StringBuilder out, Random random, List<String> variables, int depth) {
+        if (depth == 0 || random.nextInt(3) == 0) {
+            if (random.nextBoolean()) {
+                out.append(variables.get(random.nextInt(variables.size())));
+            } else {
+                out.append(random.nextInt(1000));
+            }
+            return;
+        }
+        if (random.nextInt(5) == 0) {
+            out.append("( ");
+            expression(out, random, variables, depth - 1);
+            out.append(" )");
+            return;
+        }
+        expression(out, random, variables, depth - 1);
+        out.append(' ').append("+-*/".charAt(random.nextInt(4))).append(' ');
+        expression(out, random, variables, depth - 1);
+    }
+
+    private static void condition(StringBuilder out, Random random, List<String> variables) {
+        out.append(variables.get(random.nextInt(variables.size())));
+        out.append(' ').append(new String[] {"<", ">", "<=", ">=", "=="}[random.nextInt(5)]).append(' ');
+        out.append(random.nextInt(100));
+    }
+
+    // One long assignment for SyntaxTree, which only reads a single equation
+    private static String equation(int terms) {
+        StringBuilder out = new StringBuilder("x=");
+        for (int i = 0; i < terms; i++) {
+            if (i > 0) {
+                out.append("+-*/".charAt(i % 4));
+            }
+            out.append(i % 3 == 0 ? "a" + i : String.valueOf(i));
+        }
+        return out.toString();
+    }
+}
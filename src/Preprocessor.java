@@ -0,0 +1,560 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Token-level preprocessor: #include "file" and <file> against search paths,
+// object-like #define and #undef, #ifdef/#ifndef/#else/#endif, #pragma once
+// and #error. Each file is scanned once into token arrays (headers through a
+// HeaderCache shared between units) and the result is spliced into one
+// TokenBuffer, so a header included by many units is never lexed again.
+//
+// The buffer's source is the unit's text followed by the text of every header
+// it used, once each, so tokens of the unit keep their offsets and diagnostics
+// in headers are reported against the header's own lines. An angle include
+// that is not found on the search paths, such as <iostream>, is left in the
+// token stream for the parser, as before there was a preprocessor.
+final class Preprocessor {
+    // Includes deeper than this are taken to be a cycle without a guard
+    private static final int MAX_DEPTH = 200;
+
+    // One file split into tokens. For a directive token, lineEnds holds the
+    // index of the first token after the directive's line; the tokens between
+    // are its arguments.
+    static final class SourceFile {
+        final String name;
+        final CharSequence text;
+        final int[] kinds;
+        final int[] starts;
+        final int[] lengths;
+        final int[] lineEnds;
+        final int size;
+        // The macro of an #ifndef X / #define X ... #endif guard around the
+        // whole file, null if there is none
+        final String guard;
+        final boolean pragmaOnce;
+        // File size and modification time it was read at, for HeaderCache
+        long length;
+        long modified;
+
+        private SourceFile(String name, CharSequence text, int[] kinds, int[] starts, int[] lengths, int[] lineEnds,
+                int size) {
+            this.name = name;
+            this.text = text;
+            this.kinds = kinds;
+            this.starts = starts;
+            this.lengths = lengths;
+            this.lineEnds = lineEnds;
+            this.size = size;
+            this.guard = findGuard();
+            this.pragmaOnce = findPragmaOnce();
+        }
+
+        static SourceFile scan(String name, CharSequence text) {
+            int capacity = Math.max(16, text.length() / 4);
+            int[] kinds = new int[capacity];
+            int[] starts = new int[capacity];
+            int[] lengths = new int[capacity];
+            int[] lineEnds = new int[capacity];
+            int size = 0;
+            SourceScanner scanner = new SourceScanner(text);
+            int directive = -1;
+            int lineEnd = 0;
+            while (true) {
+                if (!scanner.next()) {
+                    if (directive < 0) {
+                        break;
+                    }
+                    // End of a directive's line: resume after it
+                    lineEnds[directive] = size;
+                    directive = -1;
+                    scanner = new SourceScanner(text, lineEnd, text.length());
+                    continue;
+                }
+                if (size == kinds.length) {
+                    int grown = size * 2;
+                    kinds = Arrays.copyOf(kinds, grown);
+                    starts = Arrays.copyOf(starts, grown);
+                    lengths = Arrays.copyOf(lengths, grown);
+                    lineEnds = Arrays.copyOf(lineEnds, grown);
+                }
+                kinds[size] = scanner.kind;
+                starts[size] = scanner.start;
+                lengths[size] = scanner.end - scanner.start;
+                lineEnds[size] = 0;
+                if (directive < 0 && (scanner.kind == TokenKind.DIRECTIVE || scanner.kind == TokenKind.INCLUDE)) {
+                    // Arguments are the tokens up to the end of the line
+                    directive = size;
+                    lineEnd = lineEnd(text, scanner.end);
+                    scanner = new SourceScanner(text, scanner.end, lineEnd);
+                }
+                size++;
+            }
+            return new SourceFile(name, text, kinds, starts, lengths, lineEnds, size);
+        }
+
+        // Offset of the newline ending the line at from; there are no continuation lines
+        private static int lineEnd(CharSequence text, int from) {
+            int length = text.length();
+            int at = from;
+            while (at < length && text.charAt(at) != '\n') {
+                at++;
+            }
+            return at;
+        }
+
+        boolean isDirective(int token) {
+            return kinds[token] == TokenKind.DIRECTIVE || kinds[token] == TokenKind.INCLUDE;
+        }
+
+        boolean is(int token, String spelling) {
+            int length = lengths[token];
+            if (length != spelling.length()) {
+                return false;
+            }
+            int start = starts[token];
+            for (int i = 0; i < length; i++) {
+                if (text.charAt(start + i) != spelling.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        String text(int token) {
+            return text.subSequence(starts[token], starts[token] + lengths[token]).toString();
+        }
+
+        private String findGuard() {
+            if (size < 3 || !is(0, "#ifndef") || lineEnds[0] != 2 || kinds[1] != TokenKind.IDENTIFIER) {
+                return null;
+            }
+            int define = 2;
+            if (!is(define, "#define") || lineEnds[define] < define + 2 || lengths[define + 1] != lengths[1]
+                    || !is(define + 1, text(1))) {
+                return null;
+            }
+            // The #endif closing the #ifndef must be the last line of the file
+            int depth = 0;
+            for (int i = 0; i < size; i = isDirective(i) ? lineEnds[i] : i + 1) {
+                if (!isDirective(i)) {
+                    if (depth == 0) {
+                        return null;
+                    }
+                    continue;
+                }
+                if (is(i, "#ifdef") || is(i, "#ifndef") || is(i, "#if")) {
+                    depth++;
+                } else if (is(i, "#endif") && --depth == 0) {
+                    return lineEnds[i] == size ? text(1) : null;
+                } else if (depth == 0) {
+                    return null;
+                }
+            }
+            return null;
+        }
+
+        private boolean findPragmaOnce() {
+            for (int i = 0; i < size; i = isDirective(i) ? lineEnds[i] : i + 1) {
+                if (is(i, "#pragma") && lineEnds[i] == i + 2 && is(i + 1, "once")) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    // Body tokens of an object-like macro, in the file that defined it
+    private static final class Macro {
+        final int file;
+        final int first;
+        final int count;
+        // Set while the macro is being expanded, so it does not expand itself
+        boolean expanding;
+
+        Macro(int file, int first, int count) {
+            this.file = file;
+            this.first = first;
+            this.count = count;
+        }
+    }
+
+    private final List<Path> searchPaths;
+    private final HeaderCache headers;
+    final List<Diagnostic> diagnostics = new ArrayList<>();
+    // Every header resolved by the last run, whether or not its tokens were
+    // used, and every place looked at first where there was none: a header
+    // created there would be found instead
+    final Set<Path> dependencies = new LinkedHashSet<>();
+
+    // Files of this run; 0 is the unit, then headers in first-use order
+    private final List<SourceFile> files = new ArrayList<>();
+    private final List<Path> filePaths = new ArrayList<>();
+    private final Map<Path, Integer> fileIndex = new HashMap<>();
+    private final Set<Path> included = new HashSet<>();
+
+    private final IdentifierTable macroNames = new IdentifierTable();
+    private Macro[] macros = new Macro[16];
+    private int macroCount;
+
+    // Conditional nesting: whether the current branch is taken, whether any
+    // branch of the group was, and whether #else was seen
+    private boolean[] taken = new boolean[8];
+    private boolean[] anyTaken = new boolean[8];
+    private boolean[] elseSeen = new boolean[8];
+    private int conditionals;
+    // Conditionals that are not taken, counting the innermost; tokens pass while 0
+    private int skipping;
+
+    // Output tokens as (file, token) pairs
+    private int[] outFiles = new int[64];
+    private int[] outTokens = new int[64];
+    private int outSize;
+
+    Preprocessor(List<Path> searchPaths, HeaderCache headers) {
+        this.searchPaths = searchPaths;
+        this.headers = headers != null ? headers : new HeaderCache();
+    }
+
+    // The unit's tokens with directives carried out; problems go to diagnostics.
+    // name is the unit's path, which quoted includes are resolved against.
+    TokenBuffer run(String name, CharSequence source) {
+        SourceFile unit = SourceFile.scan(name, source);
+        Path unitPath = unitPath(name);
+        files.add(unit);
+        filePaths.add(unitPath);
+        fileIndex.put(unitPath, 0);
+        process(0, 0);
+        if (conditionals > 0) {
+            diagnostics.add(diagnostic(0, unit.size, "Unterminated conditional directive"));
+        }
+        return output(source);
+    }
+
+    // Absolute path of the unit named name, whose directory quoted includes
+    // are resolved against
+    static Path unitPath(String name) {
+        try {
+            return Paths.get(name).toAbsolutePath().normalize();
+        } catch (InvalidPathException e) {
+            // Not a file name; quoted includes resolve from the working directory
+            return Paths.get("unit").toAbsolutePath();
+        }
+    }
+
+    private void process(int file, int depth) {
+        SourceFile f = files.get(file);
+        int conditionalsAtStart = conditionals;
+        int i = 0;
+        while (i < f.size) {
+            if (f.isDirective(i)) {
+                directive(file, i, depth);
+                i = f.lineEnds[i];
+            } else {
+                if (skipping == 0) {
+                    token(file, i);
+                }
+                i++;
+            }
+        }
+        if (depth > 0 && conditionals != conditionalsAtStart) {
+            diagnostics.add(diagnostic(file, f.size, "Unterminated conditional directive"));
+            while (conditionals > conditionalsAtStart) {
+                popConditional();
+            }
+        }
+    }
+
+    // Emits a token, or the expansion of the macro it names
+    private void token(int file, int token) {
+        SourceFile f = files.get(file);
+        if (macroCount > 0 && f.kinds[token] == TokenKind.IDENTIFIER) {
+            int id = macroNames.find(f.text, f.starts[token], f.lengths[token]);
+            Macro macro = id >= 0 ? macros[id] : null;
+            if (macro != null && !macro.expanding) {
+                macro.expanding = true;
+                for (int i = 0; i < macro.count; i++) {
+                    token(macro.file, macro.first + i);
+                }
+                macro.expanding = false;
+                return;
+            }
+        }
+        if (outSize == outFiles.length) {
+            outFiles = Arrays.copyOf(outFiles, outSize * 2);
+            outTokens = Arrays.copyOf(outTokens, outSize * 2);
+        }
+        outFiles[outSize] = file;
+        outTokens[outSize] = token;
+        outSize++;
+    }
+
+    private void directive(int file, int at, int depth) {
+        SourceFile f = files.get(file);
+        int first = at + 1;
+        int end = f.lineEnds[at];
+        if (f.is(at, "#ifdef") || f.is(at, "#ifndef")) {
+            if (skipping > 0) {
+                pushConditional(false);
+                return;
+            }
+            if (end - first != 1 || f.kinds[first] != TokenKind.IDENTIFIER) {
+                diagnostics.add(diagnostic(file, at, "Expected a macro name after " + f.text(at)));
+                pushConditional(false);
+                return;
+            }
+            pushConditional(isDefined(f, first) == f.is(at, "#ifdef"));
+        } else if (f.is(at, "#if") || f.is(at, "#elif")) {
+            // Expressions are not evaluated; the group is skipped
+            if (skipping == 0) {
+                diagnostics.add(diagnostic(file, at, f.text(at) + " is not supported, use #ifdef or #ifndef"));
+            }
+            if (f.is(at, "#if")) {
+                pushConditional(false);
+            }
+        } else if (f.is(at, "#else")) {
+            if (conditionals == 0 || elseSeen[conditionals - 1]) {
+                diagnostics.add(diagnostic(file, at, "#else without a matching #ifdef"));
+                return;
+            }
+            int top = conditionals - 1;
+            elseSeen[top] = true;
+            boolean take = !anyTaken[top];
+            if (taken[top] != take) {
+                skipping += take ? -1 : 1;
+                taken[top] = take;
+            }
+            anyTaken[top] = true;
+        } else if (f.is(at, "#endif")) {
+            if (conditionals == 0) {
+                diagnostics.add(diagnostic(file, at, "#endif without a matching #ifdef"));
+                return;
+            }
+            popConditional();
+        } else if (skipping > 0) {
+            // Other directives only count in branches that are taken
+        } else if (f.kinds[at] == TokenKind.INCLUDE) {
+            include(file, at, end, depth);
+        } else if (f.is(at, "#define")) {
+            define(file, first, end);
+        } else if (f.is(at, "#undef")) {
+            if (end - first != 1 || f.kinds[first] != TokenKind.IDENTIFIER) {
+                diagnostics.add(diagnostic(file, at, "Expected a macro name after #undef"));
+                return;
+            }
+            int id = macroNames.find(f.text, f.starts[first], f.lengths[first]);
+            if (id >= 0 && macros[id] != null) {
+                macros[id] = null;
+                macroCount--;
+            }
+        } else if (f.is(at, "#pragma")) {
+            // #pragma once is read when the file is scanned; others are ignored
+        } else if (f.is(at, "#error")) {
+            int from = first < end ? f.starts[first] : f.starts[at] + f.lengths[at];
+            int to = first < end ? f.starts[end - 1] + f.lengths[end - 1] : from;
+            diagnostics.add(diagnostic(file, at, "#error " + f.text.subSequence(from, to)));
+        } else {
+            diagnostics.add(diagnostic(file, at, "Unknown directive " + f.text(at)));
+        }
+    }
+
+    private void define(int file, int first, int end) {
+        SourceFile f = files.get(file);
+        if (first == end || f.kinds[first] != TokenKind.IDENTIFIER) {
+            diagnostics.add(diagnostic(file, first - 1, "Expected a macro name after #define"));
+            return;
+        }
+        if (first + 1 < end && f.kinds[first + 1] == TokenKind.LPAREN
+                && f.starts[first + 1] == f.starts[first] + f.lengths[first]) {
+            diagnostics.add(diagnostic(file, first, "Function-like macros are not supported"));
+            return;
+        }
+        int id = macroNames.intern(f.text, f.starts[first], f.lengths[first]);
+        if (id >= macros.length) {
+            macros = Arrays.copyOf(macros, Math.max(id + 1, macros.length * 2));
+        }
+        if (macros[id] == null) {
+            macroCount++;
+        }
+        macros[id] = new Macro(file, first + 1, end - first - 1);
+    }
+
+    private boolean isDefined(SourceFile f, int token) {
+        int id = macroNames.find(f.text, f.starts[token], f.lengths[token]);
+        return id >= 0 && macros[id] != null;
+    }
+
+    private boolean isDefined(String name) {
+        int id = macroNames.find(name);
+        return id >= 0 && macros[id] != null;
+    }
+
+    private void include(int file, int at, int end, int depth) {
+        SourceFile f = files.get(file);
+        int first = at + 1;
+        String name;
+        boolean quoted;
+        if (first < end && f.kinds[first] == TokenKind.STRING && f.lengths[first] >= 2) {
+            name = f.text.subSequence(f.starts[first] + 1, f.starts[first] + f.lengths[first] - 1).toString();
+            quoted = true;
+        } else if (end - first >= 3 && f.kinds[first] == TokenKind.LESS && f.kinds[end - 1] == TokenKind.GREATER) {
+            name = f.text.subSequence(f.starts[first] + 1, f.starts[end - 1]).toString().trim();
+            quoted = false;
+        } else {
+            // Malformed: leave it to the parser to report
+            for (int i = at; i < end; i++) {
+                token(file, i);
+            }
+            return;
+        }
+        Path path = resolve(name, quoted ? filePaths.get(file).getParent() : null);
+        if (path == null) {
+            if (quoted) {
+                diagnostics.add(diagnostic(file, at, "Cannot find include file \"" + name + "\""));
+            } else {
+                // A library header such as <iostream>; the parser accepts it as is
+                for (int i = at; i < end; i++) {
+                    token(file, i);
+                }
+            }
+            return;
+        }
+        if (depth >= MAX_DEPTH) {
+            diagnostics.add(diagnostic(file, at, "#include nested too deeply, is there a cycle without a guard?"));
+            return;
+        }
+        dependencies.add(path);
+        if (included.contains(path)) {
+            return;
+        }
+        SourceFile header;
+        try {
+            header = headers.get(path);
+        } catch (IOException e) {
+            diagnostics.add(diagnostic(file, at, "Cannot read include file \"" + name + "\": " + e.getMessage()));
+            return;
+        }
+        if (header.guard != null && isDefined(header.guard)) {
+            return;
+        }
+        if (header.pragmaOnce) {
+            included.add(path);
+        }
+        Integer index = fileIndex.get(path);
+        if (index == null) {
+            index = files.size();
+            files.add(header);
+            filePaths.add(path);
+            fileIndex.put(path, index);
+        }
+        process(index, depth + 1);
+    }
+
+    // The including file's directory first for quoted names, then the search
+    // paths; candidates that do not exist are recorded as dependencies
+    private Path resolve(String name, Path directory) {
+        if (directory != null) {
+            Path found = candidate(directory, name);
+            if (found != null) {
+                return found;
+            }
+        }
+        for (Path searchPath : searchPaths) {
+            Path found = candidate(searchPath, name);
+            if (found != null) {
+                return found;
+            }
+        }
+        return null;
+    }
+
+    private Path candidate(Path directory, String name) {
+        Path candidate;
+        try {
+            candidate = directory.resolve(name).toAbsolutePath().normalize();
+        } catch (InvalidPathException e) {
+            return null;
+        }
+        if (Files.isRegularFile(candidate)) {
+            return candidate;
+        }
+        dependencies.add(candidate);
+        return null;
+    }
+
+    private void pushConditional(boolean take) {
+        if (conditionals == taken.length) {
+            taken = Arrays.copyOf(taken, conditionals * 2);
+            anyTaken = Arrays.copyOf(anyTaken, conditionals * 2);
+            elseSeen = Arrays.copyOf(elseSeen, conditionals * 2);
+        }
+        taken[conditionals] = take;
+        anyTaken[conditionals] = take;
+        elseSeen[conditionals] = false;
+        conditionals++;
+        if (!take) {
+            skipping++;
+        }
+    }
+
+    private void popConditional() {
+        conditionals--;
+        if (!taken[conditionals]) {
+            skipping--;
+        }
+    }
+
+    // Diagnostic at a token of a file, or at its end when token == size; the
+    // file is named unless it is the unit itself
+    private Diagnostic diagnostic(int file, int token, String message) {
+        SourceFile f = files.get(file);
+        int offset = token < f.size ? f.starts[token] : f.text.length();
+        int line = 1;
+        int lineStart = 0;
+        for (int i = 0; i < offset; i++) {
+            if (f.text.charAt(i) == '\n') {
+                line++;
+                lineStart = i + 1;
+            }
+        }
+        return new Diagnostic(file == 0 ? null : f.name, message, line, offset - lineStart + 1);
+    }
+
+    // Lays the unit and the used headers out in one text and copies the
+    // output tokens over with their offsets moved to match
+    private TokenBuffer output(CharSequence source) {
+        int[] bases = new int[files.size()];
+        TokenBuffer buffer;
+        if (files.size() == 1) {
+            buffer = new TokenBuffer(source);
+        } else {
+            int total = source.length();
+            for (int i = 1; i < files.size(); i++) {
+                total += files.get(i).text.length();
+            }
+            StringBuilder text = new StringBuilder(total);
+            text.append(source);
+            buffer = new TokenBuffer(text);
+            for (int i = 1; i < files.size(); i++) {
+                bases[i] = text.length();
+                buffer.addFile(bases[i], files.get(i).name);
+                text.append(files.get(i).text);
+            }
+        }
+        for (int i = 0; i < outSize; i++) {
+            SourceFile f = files.get(outFiles[i]);
+            int token = outTokens[i];
+            buffer.add(f.kinds[token], bases[outFiles[i]] + f.starts[token], f.lengths[token]);
+        }
+        return buffer;
+    }
+}
@@ -0,0 +1,96 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+// Buffered cin for programs run in-process: whitespace-separated ints and
+// floats read straight from a byte buffer. A read past the end of input, or
+// of something that is not a number, gives 0.
+final class ProgramInput {
+    private final InputStream stream;
+    private final byte[] buffer = new byte[8192];
+    private int position;
+    private int length;
+    private final byte[] token = new byte[64];
+
+    ProgramInput(InputStream stream) {
+        this.stream = stream;
+    }
+
+    int readInt() throws IOException {
+        int c = skipWhitespace();
+        boolean negative = c == '-';
+        if (c == '-' || c == '+') {
+            position++;
+            c = peek();
+        }
+        int value = 0;
+        while (c >= '0' && c <= '9') {
+            value = value * 10 + (c - '0');
+            position++;
+            c = peek();
+        }
+        return negative ? -value : value;
+    }
+
+    double readFloat() throws IOException {
+        String text = readToken();
+        if (text == null) {
+            return 0;
+        }
+        try {
+            return Double.parseDouble(text);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    // A C++ float: parsed straight to single precision, not through a double
+    double readSingle() throws IOException {
+        String text = readToken();
+        if (text == null) {
+            return 0;
+        }
+        try {
+            return Float.parseFloat(text);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    // The next run of non-blank characters, null at the end of the input
+    private String readToken() throws IOException {
+        int c = skipWhitespace();
+        int count = 0;
+        while (c >= 0 && c > ' ' && count < token.length) {
+            token[count++] = (byte) c;
+            position++;
+            c = peek();
+        }
+        if (count == 0) {
+            return null;
+        }
+        return new String(token, 0, count, StandardCharsets.US_ASCII);
+    }
+
+    private int skipWhitespace() throws IOException {
+        int c = peek();
+        while (c >= 0 && c <= ' ') {
+            position++;
+            c = peek();
+        }
+        return c;
+    }
+
+    // Next byte without consuming it, -1 at the end of input
+    private int peek() throws IOException {
+        if (position == length) {
+            length = stream.read(buffer, 0, buffer.length);
+            position = 0;
+            if (length <= 0) {
+                length = 0;
+                return -1;
+            }
+        }
+        return buffer[position] & 0xff;
+    }
+}
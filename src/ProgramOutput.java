@@ -0,0 +1,150 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.nio.charset.StandardCharsets;
+
+// Buffered cout for programs run in-process. Ints are written digit by digit
+// into the buffer; floats are formatted the way an ostream does by default
+// (printf %g with 6 significant digits), so output matches native builds.
+final class ProgramOutput {
+    private final OutputStream stream;
+    private final byte[] buffer = new byte[8192];
+    private int length;
+
+    ProgramOutput(OutputStream stream) {
+        this.stream = stream;
+    }
+
+    void writeInt(int value) throws IOException {
+        if (length + 11 > buffer.length) {
+            flushBuffer();
+        }
+        if (value == Integer.MIN_VALUE) {
+            writeBytes("-2147483648".getBytes(StandardCharsets.US_ASCII));
+            return;
+        }
+        if (value < 0) {
+            buffer[length++] = '-';
+            value = -value;
+        }
+        int end = length + digits(value);
+        for (int i = end - 1; i >= length; i--) {
+            buffer[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        length = end;
+    }
+
+    private static int digits(int value) {
+        int count = 1;
+        while (value >= 10) {
+            value /= 10;
+            count++;
+        }
+        return count;
+    }
+
+    void writeFloat(double value) throws IOException {
+        writeBytes(formatFloat(value).getBytes(StandardCharsets.US_ASCII));
+    }
+
+    // Each char is one byte, as literalBytes decodes them; ASCII text goes
+    // straight into the buffer
+    void writeString(String text) throws IOException {
+        int count = text.length();
+        for (int i = 0; i < count; i++) {
+            if (text.charAt(i) >= 0x80) {
+                writeBytes(text.getBytes(StandardCharsets.ISO_8859_1));
+                return;
+            }
+        }
+        if (length + count > buffer.length) {
+            flushBuffer();
+            if (count > buffer.length) {
+                stream.write(text.getBytes(StandardCharsets.US_ASCII));
+                return;
+            }
+        }
+        for (int i = 0; i < count; i++) {
+            buffer[length++] = (byte) text.charAt(i);
+        }
+    }
+
+    void writeBytes(byte[] bytes) throws IOException {
+        if (length + bytes.length > buffer.length) {
+            flushBuffer();
+            if (bytes.length > buffer.length) {
+                stream.write(bytes);
+                return;
+            }
+        }
+        System.arraycopy(bytes, 0, buffer, length, bytes.length);
+        length += bytes.length;
+    }
+
+    void flush() throws IOException {
+        flushBuffer();
+        stream.flush();
+    }
+
+    private void flushBuffer() throws IOException {
+        stream.write(buffer, 0, length);
+        length = 0;
+    }
+
+    // printf("%g"): 6 significant digits, trailing zeros dropped, exponent
+    // form below 1e-4 and from 1e6 on
+    static String formatFloat(double value) {
+        if (Double.isNaN(value)) {
+            return "nan";
+        }
+        if (Double.isInfinite(value)) {
+            return value > 0 ? "inf" : "-inf";
+        }
+        if (value == 0) {
+            return 1 / value < 0 ? "-0" : "0";
+        }
+        BigDecimal rounded = new BigDecimal(value).round(new MathContext(6, RoundingMode.HALF_EVEN));
+        int exponent = rounded.precision() - rounded.scale() - 1;
+        if (exponent < -4 || exponent >= 6) {
+            String mantissa = rounded.movePointLeft(exponent).stripTrailingZeros().toPlainString();
+            int magnitude = Math.abs(exponent);
+            return mantissa + (exponent < 0 ? "e-" : "e+") + (magnitude < 10 ? "0" : "") + magnitude;
+        }
+        return rounded.stripTrailingZeros().toPlainString();
+    }
+
+    // Bytes of a string literal as written in the source, quotes included.
+    // Sources are read one char per byte, so the chars are the file's bytes.
+    static byte[] literalBytes(String literal) {
+        StringBuilder text = new StringBuilder(literal.length());
+        int end = literal.length() - 1;
+        for (int i = 1; i < end; i++) {
+            char c = literal.charAt(i);
+            if (c != '\\' || i + 1 == end) {
+                text.append(c);
+                continue;
+            }
+            char escaped = literal.charAt(++i);
+            switch (escaped) {
+                case 'n':
+                    text.append('\n');
+                    break;
+                case 't':
+                    text.append('\t');
+                    break;
+                case 'r':
+                    text.append('\r');
+                    break;
+                case '0':
+                    text.append('\0');
+                    break;
+                default:
+                    text.append(escaped);
+            }
+        }
+        return text.toString().getBytes(StandardCharsets.ISO_8859_1);
+    }
+}
@@ -0,0 +1,166 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Stream;
+
+// Runs compiled units on one of the execution engines, for --run and for the
+// --diff check of the optimizer and back ends.
+final class ProgramRunner {
+    enum Engine {
+        // The register VM
+        VM,
+        // JVM bytecode in a hidden class
+        JVM,
+        // x86-64 assembly built with the local gcc
+        NATIVE
+    }
+
+    // Backward jumps allowed per run in --diff, so a looping unit fails instead of hanging
+    private static final long CHECK_JUMP_BUDGET = 100_000_000L;
+
+    private ProgramRunner() {
+    }
+
+    static int run(Engine engine, Tac tac, InputStream input, OutputStream output) throws Exception {
+        switch (engine) {
+            case JVM:
+                return JvmBackend.run(JvmBackend.compile(tac), input, output);
+            case NATIVE:
+                return runNative(tac, input, output);
+            default:
+                return Vm.compile(tac).run(input, output);
+        }
+    }
+
+    // Assembles and links with gcc in a scratch directory, then runs the
+    // executable with the input piped in and its output copied out. The input
+    // is read to its end first, so nothing is left reading it once the program
+    // exits.
+    private static int runNative(Tac tac, InputStream input, OutputStream output) throws Exception {
+        Path directory = Files.createTempDirectory("tac-native");
+        try {
+            Path assembly = directory.resolve("program.s");
+            Path executable = directory.resolve("program");
+            Files.writeString(assembly, X86Backend.assemble(tac));
+            Process gcc = new ProcessBuilder("gcc", "-o", executable.toString(), assembly.toString())
+                    .redirectErrorStream(true).start();
+            String messages = new String(gcc.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+            if (gcc.waitFor() != 0) {
+                throw new IllegalStateException("gcc failed: " + messages.trim());
+            }
+            byte[] bytes = input.readAllBytes();
+            Process program = new ProcessBuilder(executable.toString()).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+            // Feed input from another thread so neither pipe can fill up and block
+            Thread feeder = Thread.ofVirtual().start(() -> {
+                try (OutputStream stdin = program.getOutputStream()) {
+                    stdin.write(bytes);
+                } catch (IOException e) {
+                    // The program exited without reading all of its input
+                }
+            });
+            program.getInputStream().transferTo(output);
+            int exitCode = program.waitFor();
+            // Finishes now if it has not: writes to an exited program's pipe fail
+            feeder.join();
+            output.flush();
+            return exitCode;
+        } finally {
+            try (Stream<Path> files = Files.list(directory)) {
+                for (Path file : (Iterable<Path>) files::iterator) {
+                    Files.deleteIfExists(file);
+                }
+            }
+            Files.deleteIfExists(directory);
+        }
+    }
+
+    // Compiles each unit and runs it on this process's stdin and stdout;
+    // returns the exit code of the last program, or 1 if a unit fails to compile.
+    // With more than one unit, stdin is read once and every unit reads all of
+    // it from the start, whatever the units before it read, on every engine.
+    static int runUnits(List<Path> units, CompileOptions options, Engine engine) throws Exception {
+        byte[] input = units.size() > 1 ? System.in.readAllBytes() : null;
+        int exitCode = 0;
+        for (Path unit : units) {
+            CompileResult result = Compiler.compileFile(unit, options);
+            if (!result.succeeded()) {
+                for (String diagnostic : result.diagnostics) {
+                    System.err.println(result.name + ": " + diagnostic);
+                }
+                return 1;
+            }
+            exitCode = run(engine, result.tac, input != null ? new ByteArrayInputStream(input) : System.in, System.out);
+        }
+        return exitCode;
+    }
+
+    // Differential check: each unit is run unoptimized on the VM and with the
+    // given options on the engine, on the same input (unit.in next to the
+    // source if present), and the outputs and exit codes must agree. A unit.out
+    // next to the source is the expected output, as a native build of the unit
+    // prints it with exit code 0; both runs must match it. Returns the number
+    // of units that differ or fail.
+    static int checkUnits(List<Path> units, CompileOptions options, Engine engine, PrintStream report) {
+        CompileOptions reference = new CompileOptions();
+        reference.optimize = false;
+        int failed = 0;
+        for (Path unit : units) {
+            String expected;
+            String actual;
+            try {
+                String name = unit.getFileName().toString();
+                Path inputFile = unit.resolveSibling(name.substring(0, name.lastIndexOf('.')) + ".in");
+                Path outputFile = unit.resolveSibling(name.substring(0, name.lastIndexOf('.')) + ".out");
+                byte[] input = Files.exists(inputFile) ? Files.readAllBytes(inputFile) : new byte[0];
+                expected = runToString(Engine.VM, Compiler.compileFile(unit, reference), input);
+                actual = runToString(engine, Compiler.compileFile(unit, options), input);
+                if (Files.exists(outputFile)) {
+                    String recorded = Files.readString(outputFile, StandardCharsets.ISO_8859_1) + " [exit 0]";
+                    if (!recorded.equals(expected)) {
+                        report.println(unit + ": differs\n  expected: " + recorded + "\n  reference: " + expected);
+                        failed++;
+                        continue;
+                    }
+                }
+            } catch (Exception e) {
+                report.println(unit + ": error: " + e.getMessage());
+                failed++;
+                continue;
+            }
+            if (expected.equals(actual)) {
+                report.println(unit + ": ok");
+            } else {
+                report.println(unit + ": differs\n  reference: " + expected + "\n  " + engine + ": " + actual);
+                failed++;
+            }
+        }
+        report.println(units.size() + " unit(s), " + failed + " differ");
+        return failed;
+    }
+
+    // Output followed by the exit code, as one string for comparison
+    private static String runToString(Engine engine, CompileResult result, byte[] input) throws Exception {
+        if (!result.succeeded()) {
+            throw new IllegalArgumentException(String.join("; ", result.diagnostics));
+        }
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        int exitCode;
+        if (engine == Engine.VM) {
+            Vm vm = Vm.compile(result.tac);
+            vm.jumpBudget = CHECK_JUMP_BUDGET;
+            exitCode = vm.run(new ByteArrayInputStream(input), output);
+        } else {
+            exitCode = run(engine, result.tac, new ByteArrayInputStream(input), output);
+        }
+        // Processes only report the low byte of the exit code; bytes are
+        // compared as they are, whatever their encoding
+        return output.toString(StandardCharsets.ISO_8859_1) + " [exit " + (exitCode & 0xff) + "]";
+    }
+}
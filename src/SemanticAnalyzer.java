@@ -0,0 +1,241 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Resolves every variable use to its declaration in one walk over the AST,
+// with a scope per function, block, for statement (its body included) and
+// unbraced while or if body, as in C++. Reports names used without a visible declaration (once per
+// name) and names declared twice in one scope.
+//
+// A declaration that shadows a visible one gets a variable of its own,
+// interned as name.N, so the two do not share a TAC variable; every other
+// declaration keeps the name's own id. A call must name a function the
+// program defines, and main is the only one it can; any other callee is
+// reported as undeclared like a variable.
+final class SemanticAnalyzer {
+    private final TokenBuffer tokens;
+    private final SymbolTable symbols = new SymbolTable();
+    final List<Diagnostic> diagnostics = new ArrayList<>();
+
+    // TAC variable id of each symbol on the table's stack
+    private int[] symbolVariables = new int[64];
+    // TAC variable id + 1 for each Name token, 0 when it did not resolve
+    private final int[] tokenVariables;
+    // Names already reported as undeclared
+    private boolean[] reported = new boolean[64];
+    // Functions defined so far
+    private final List<String> functions = new ArrayList<>();
+    private int renamed;
+
+    private SemanticAnalyzer(TokenBuffer tokens) {
+        this.tokens = tokens;
+        this.tokenVariables = new int[tokens.size()];
+    }
+
+    static SemanticAnalyzer analyze(Ast.Program program, TokenBuffer tokens) {
+        SemanticAnalyzer analyzer = new SemanticAnalyzer(tokens);
+        analyzer.symbols.enterScope();
+        for (Ast.Statement statement : program.statements) {
+            analyzer.statement(statement);
+        }
+        analyzer.symbols.exitScope();
+        return analyzer;
+    }
+
+    // The TAC variable id a name resolved to; its own id if it did not resolve
+    int variable(Ast.Name name) {
+        int variable = name.token < tokenVariables.length ? tokenVariables[name.token] : 0;
+        return variable != 0 ? variable - 1 : name.id;
+    }
+
+    private void statement(Ast.Statement statement) {
+        if (statement instanceof Ast.Function function) {
+            // Declared before its body, which can call it
+            functions.add(function.name);
+            // The body shares the function's scope
+            symbols.enterScope();
+            statements(function.body.statements);
+            symbols.exitScope();
+        } else if (statement instanceof Ast.Block block) {
+            symbols.enterScope();
+            statements(block.statements);
+            symbols.exitScope();
+        } else if (statement instanceof Ast.VariableDeclaration declaration) {
+            for (Ast.Declarator declarator : declaration.declarators) {
+                declare(declarator.name);
+                // In scope in its own initializer, as in C++
+                expression(declarator.initializer);
+            }
+        } else if (statement instanceof Ast.ExpressionStatement expressionStatement) {
+            expression(expressionStatement.expression);
+        } else if (statement instanceof Ast.If ifStatement) {
+            expression(ifStatement.condition);
+            body(ifStatement.then);
+        } else if (statement instanceof Ast.While whileStatement) {
+            expression(whileStatement.condition);
+            body(whileStatement.body);
+        } else if (statement instanceof Ast.For forStatement) {
+            symbols.enterScope();
+            if (forStatement.init != null) {
+                statement(forStatement.init);
+            }
+            expression(forStatement.condition);
+            expression(forStatement.update);
+            // The body's outermost declarations share the for's scope, so one
+            // cannot redeclare a name the init declared
+            if (forStatement.body instanceof Ast.Block block) {
+                statements(block.statements);
+            } else {
+                statement(forStatement.body);
+            }
+            symbols.exitScope();
+        } else if (statement instanceof Ast.Input input) {
+            for (Ast.Name target : input.targets) {
+                use(target);
+            }
+        } else if (statement instanceof Ast.Output output) {
+            for (Ast.Expression value : output.values) {
+                expression(value);
+            }
+        } else if (statement instanceof Ast.Return returnStatement) {
+            expression(returnStatement.value);
+        }
+    }
+
+    private void statements(List<Ast.Statement> statements) {
+        for (Ast.Statement statement : statements) {
+            statement(statement);
+        }
+    }
+
+    // A braced body opens its own scope; an unbraced one still gets one
+    private void body(Ast.Statement body) {
+        if (body instanceof Ast.Block) {
+            statement(body);
+            return;
+        }
+        symbols.enterScope();
+        statement(body);
+        symbols.exitScope();
+    }
+
+    private void expression(Ast.Expression expression) {
+        if (expression == null) {
+            return;
+        }
+        if (expression instanceof Ast.Name name) {
+            use(name);
+        } else if (expression instanceof Ast.Assign assign) {
+            use(assign.target);
+            expression(assign.value);
+        } else if (expression instanceof Ast.Binary binary) {
+            // The left operands of a chain like a + b + c in a loop, innermost first
+            List<Ast.Binary> chain = new ArrayList<>();
+            Ast.Expression left = binary;
+            while (left instanceof Ast.Binary inner) {
+                chain.add(inner);
+                left = inner.left;
+            }
+            expression(left);
+            for (int i = chain.size() - 1; i >= 0; i--) {
+                expression(chain.get(i).right);
+            }
+        } else if (expression instanceof Ast.Unary unary) {
+            expression(unary.operand);
+        } else if (expression instanceof Ast.Postfix postfix) {
+            use(postfix.operand);
+        } else if (expression instanceof Ast.Group group) {
+            expression(group.inner);
+        } else if (expression instanceof Ast.Call call) {
+            if (!functions.contains(call.name)) {
+                undeclared(call.token, call.name, tokens.identifiers.intern(call.name));
+            }
+            for (Ast.Expression argument : call.arguments) {
+                expression(argument);
+            }
+        }
+    }
+
+    private void declare(Ast.Name name) {
+        int outer = symbols.lookup(name.id);
+        int symbol = symbols.declare(name.id, name.token);
+        if (symbol < 0) {
+            Diagnostic previous = tokens.diagnostic(symbols.token(outer), "");
+            diagnostics.add(tokens.diagnostic(name.token, "Duplicate declaration of '" + name.name
+                    + "', already declared at " + previous.line + ":" + previous.column));
+            resolve(name, symbolVariables[outer]);
+            return;
+        }
+        int variable = name.id;
+        if (outer >= 0) {
+            variable = freshVariable(name.name);
+        }
+        if (symbol >= symbolVariables.length) {
+            symbolVariables = Arrays.copyOf(symbolVariables, symbolVariables.length * 2);
+        }
+        symbolVariables[symbol] = variable;
+        resolve(name, variable);
+    }
+
+    private void use(Ast.Name name) {
+        int symbol = symbols.lookup(name.id);
+        if (symbol >= 0) {
+            resolve(name, symbolVariables[symbol]);
+            return;
+        }
+        undeclared(name.token, name.name, name.id);
+    }
+
+    // Reported once per name
+    private void undeclared(int token, String name, int id) {
+        if (id >= reported.length) {
+            reported = Arrays.copyOf(reported, Math.max(id + 1, reported.length * 2));
+        }
+        if (!reported[id]) {
+            reported[id] = true;
+            diagnostics.add(tokens.diagnostic(token, "Undeclared identifier '" + name + "'"));
+        }
+    }
+
+    private void resolve(Ast.Name name, int variable) {
+        if (name.token < tokenVariables.length) {
+            tokenVariables[name.token] = variable + 1;
+        }
+    }
+
+    // A variable id no source name can have: '.' never appears in identifiers
+    private int freshVariable(String name) {
+        IdentifierTable identifiers = tokens.identifiers;
+        String candidate;
+        do {
+            candidate = name + "." + ++renamed;
+        } while (identifiers.find(candidate) >= 0);
+        return identifiers.intern(candidate);
+    }
+
+    public static void RunSemanticTest() {
+        // Source, expected diagnostic or "" for none
+        String[][] cases = {
+                {"int main() { for (int i = 0; i < 2; i++) { int i = 5; } return 0; }", "Duplicate declaration of 'i'"},
+                {"int main() { for (int i = 0; i < 2; i++) int i = 5; return 0; }", "Duplicate declaration of 'i'"},
+                {"int main() { for (int i = 0; i < 2; i++) { { int i = 5; } } return 0; }", ""},
+                {"int main() { int j = 0; for (int i = 0; i < 2; i++) { int j = i; } return j; }", ""},
+                {"int main() { while (1) { int k = 0; } int k = 1; return k; }", ""},
+                {"int main() { int x = y; return 0; }", "Undeclared identifier 'y'"},
+        };
+
+        System.out.println("\u001B[33m ###Testing the Semantic Analyzer###");
+        for (String[] test : cases) {
+            String got;
+            try {
+                TokenBuffer tokens = TokenBuffer.scan(test[0]);
+                SemanticAnalyzer analyzer = analyze(AstBuilder.build(new Parser(tokens).parseFlat()), tokens);
+                got = analyzer.diagnostics.isEmpty() ? "" : analyzer.diagnostics.get(0).toString();
+            } catch (Exception e) {
+                got = e.getMessage();
+            }
+            boolean same = test[1].isEmpty() ? got.isEmpty() : got.contains(test[1]);
+            System.out.println((same ? "\u001B[32m+ " : "\u001B[31m- ") + test[0] + (got.isEmpty() ? "" : ": " + got));
+        }
+    }
+}
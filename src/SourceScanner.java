@@ -0,0 +1,260 @@
+import java.util.ArrayList;
+import java.util.List;
+
+// Single-pass scanner: skips comments and whitespace, splits and classifies
+// tokens in one walk over the source, without building a cleaned copy of the
+// code or an intermediate list of token strings.
+public class SourceScanner {
+    private final CharSequence source;
+    private final int length;
+    private int position;
+
+    // Current token, valid after next() returned true
+    int kind;
+    int start;
+    int end;
+
+    public SourceScanner(CharSequence source) {
+        this(source, 0, source.length());
+    }
+
+    SourceScanner(CharSequence source, int from, int to) {
+        this.source = source;
+        this.position = from;
+        this.length = to;
+    }
+
+    int position() {
+        return position;
+    }
+
+    public boolean next() {
+        skipWhitespaceAndComments();
+        if (position >= length) {
+            return false;
+        }
+        start = position;
+        char ch = source.charAt(position);
+        if (isIdentifierStart(ch)) {
+            position++;
+            while (position < length && isIdentifierPart(source.charAt(position))) {
+                position++;
+            }
+            int reserved = TokenKind.reservedWord(source, start, position - start);
+            kind = reserved >= 0 ? reserved : TokenKind.IDENTIFIER;
+        } else if (ch >= '0' && ch <= '9') {
+            scanNumber();
+        } else if (ch == '"' || ch == '\'') {
+            scanString(ch);
+        } else if (ch == '#') {
+            position++;
+            while (position < length && isIdentifierPart(source.charAt(position))) {
+                position++;
+            }
+            kind = TokenKind.reservedWord(source, start, position - start) == TokenKind.INCLUDE
+                    ? TokenKind.INCLUDE : TokenKind.DIRECTIVE;
+        } else {
+            scanSymbol(ch);
+        }
+        end = position;
+        return true;
+    }
+
+    private void skipWhitespaceAndComments() {
+        while (position < length) {
+            char ch = source.charAt(position);
+            if (ch <= ' ') {
+                position++;
+            } else if (ch == '/' && position + 1 < length && source.charAt(position + 1) == '/') {
+                // Skip characters until end of line
+                while (position < length && source.charAt(position) != '\n') {
+                    position++;
+                }
+            } else if (ch == '/' && position + 1 < length && source.charAt(position + 1) == '*') {
+                position += 2;
+                while (position < length && !(source.charAt(position) == '*'
+                        && position + 1 < length && source.charAt(position + 1) == '/')) {
+                    position++;
+                }
+                position = Math.min(position + 2, length);
+            } else {
+                return;
+            }
+        }
+    }
+
+    private void scanNumber() {
+        while (position < length && isDigit(source.charAt(position))) {
+            position++;
+        }
+        if (position + 1 < length && source.charAt(position) == '.' && isDigit(source.charAt(position + 1))) {
+            position++;
+            while (position < length && isDigit(source.charAt(position))) {
+                position++;
+            }
+        }
+        kind = TokenKind.NUMBER;
+    }
+
+    private void scanString(char quote) {
+        position++;
+        while (position < length) {
+            char ch = source.charAt(position);
+            if (ch == '\\' && position + 1 < length) {
+                position += 2;
+            } else if (ch == quote) {
+                position++;
+                kind = TokenKind.STRING;
+                return;
+            } else if (ch == '\n') {
+                break;
+            } else {
+                position++;
+            }
+        }
+        // Unterminated literal
+        kind = TokenKind.ERROR;
+    }
+
+    private void scanSymbol(char ch) {
+        char next = position + 1 < length ? source.charAt(position + 1) : '\0';
+        int single;
+        int pair = -1;
+        switch (ch) {
+            case '=':
+                single = TokenKind.ASSIGN;
+                if (next == '=') pair = TokenKind.EQUAL;
+                break;
+            case '+':
+                single = TokenKind.PLUS;
+                if (next == '+') pair = TokenKind.INCREMENT;
+                else if (next == '=') pair = TokenKind.PLUS_ASSIGN;
+                break;
+            case '-':
+                single = TokenKind.MINUS;
+                if (next == '-') pair = TokenKind.DECREMENT;
+                else if (next == '=') pair = TokenKind.MINUS_ASSIGN;
+                break;
+            case '*':
+                single = TokenKind.STAR;
+                if (next == '=') pair = TokenKind.STAR_ASSIGN;
+                break;
+            case '/':
+                single = TokenKind.SLASH;
+                if (next == '=') pair = TokenKind.SLASH_ASSIGN;
+                break;
+            case '%':
+                single = TokenKind.PERCENT;
+                break;
+            case '<':
+                single = TokenKind.LESS;
+                if (next == '=') pair = TokenKind.LESS_EQUAL;
+                else if (next == '<') pair = TokenKind.SHIFT_LEFT;
+                break;
+            case '>':
+                single = TokenKind.GREATER;
+                if (next == '=') pair = TokenKind.GREATER_EQUAL;
+                else if (next == '>') pair = TokenKind.SHIFT_RIGHT;
+                break;
+            case '!':
+                single = TokenKind.NOT;
+                if (next == '=') pair = TokenKind.NOT_EQUAL;
+                break;
+            case '&':
+                single = TokenKind.AMPERSAND;
+                if (next == '&') pair = TokenKind.AND;
+                break;
+            case '|':
+                single = TokenKind.PIPE;
+                if (next == '|') pair = TokenKind.OR;
+                break;
+            case '(':
+                single = TokenKind.LPAREN;
+                break;
+            case ')':
+                single = TokenKind.RPAREN;
+                break;
+            case '{':
+                single = TokenKind.LBRACE;
+                break;
+            case '}':
+                single = TokenKind.RBRACE;
+                break;
+            case '[':
+                single = TokenKind.LBRACKET;
+                break;
+            case ']':
+                single = TokenKind.RBRACKET;
+                break;
+            case ';':
+                single = TokenKind.SEMICOLON;
+                break;
+            case ',':
+                single = TokenKind.COMMA;
+                break;
+            case '.':
+                single = TokenKind.DOT;
+                break;
+            default:
+                single = TokenKind.ERROR;
+        }
+        if (pair >= 0) {
+            kind = pair;
+            position += 2;
+        } else {
+            kind = single;
+            position++;
+        }
+    }
+
+    private static boolean isIdentifierStart(char ch) {
+        if (ch < 128) {
+            return (ch >= 'a' && ch <= 'z') || (ch >= 'A' && ch <= 'Z') || ch == '_';
+        }
+        return Character.isLetter(ch);
+    }
+
+    private static boolean isIdentifierPart(char ch) {
+        if (ch < 128) {
+            return (ch >= 'a' && ch <= 'z') || (ch >= 'A' && ch <= 'Z') || (ch >= '0' && ch <= '9') || ch == '_';
+        }
+        return Character.isLetterOrDigit(ch);
+    }
+
+    private static boolean isDigit(char ch) {
+        return ch >= '0' && ch <= '9';
+    }
+
+    // Text of the current token; reserved words and symbols reuse their constant spelling
+    String text() {
+        String spelling = TokenKind.spelling(kind);
+        return spelling != null ? spelling : source.subSequence(start, end).toString();
+    }
+
+    // Replaces CodeCleaner.cleanCode + Lexical.tokenizeCode + Lexical.analyzeTokens
+    public static List<Token> scan(CharSequence source) {
+        List<Token> tokens = new ArrayList<>();
+        SourceScanner scanner = new SourceScanner(source);
+        while (scanner.next()) {
+            tokens.add(new Token(TokenKind.typeOf(scanner.kind), scanner.text()));
+        }
+        return tokens;
+    }
+
+    public static void RunScannerTest() {
+        String code = "#include<iostream>\n using namespace std;\n /* block */ int main() {\nint x = 0; // line\n x++;\n if(x == 1)\n\t cout << \"yes\";   return 0;\n}";
+        List<Token> tokens = scan(code);
+        List<Token> expected = Lexical.analyzeTokens(Lexical.tokenizeCode(CodeCleaner.cleanCode(code)));
+
+        System.out.println("\u001B[33m ###Testing the Scanner###");
+        for (int i = 0; i < expected.size(); i++) {
+            String want = expected.get(i).toString();
+            String got = i < tokens.size() ? tokens.get(i).toString() : "<missing>";
+            if (want.equals(got)) {
+                System.out.println("\u001B[32m+ " + got);
+            } else {
+                System.out.println("\u001B[31m- " + got + "/" + want);
+            }
+        }
+    }
+}
@@ -0,0 +1,321 @@
+import java.util.Arrays;
+
+// Sparse conditional constant propagation (Wegman-Zadeck) over SsaForm. Every
+// SSA value starts unknown and can only move down to one constant and then to
+// varying; CFG edges are only followed once the branch feeding them can take
+// them. The Tac is then rewritten: uses of constant values become the
+// constant, branches on constants become jumps or vanish, and code in blocks
+// that can never run is removed.
+final class SparseConstantPropagation {
+    private static final byte UNKNOWN = 0;
+    private static final byte CONSTANT = 1;
+    private static final byte VARYING = 2;
+
+    private final Tac tac;
+    private final ControlFlowGraph cfg;
+    private final SsaForm ssa;
+
+    private final byte[] states;
+    private final int[] constants;
+    private final boolean[] executableEdges;
+    private final boolean[] executableBlocks;
+    private final int[] blocksOf;
+    private final int[] edgeTargets;
+    private final int[] phiBlocks;
+    private final int[] labelBlocks;
+
+    // Users of each value: instruction i as i, phi p as -1 - p. Value v has
+    // users[userFirst[v] .. userFirst[v + 1]).
+    private final int[] userFirst;
+    private final int[] users;
+
+    private int[] edgeWork = new int[16];
+    private int edgeWorkSize;
+    private int[] valueWork = new int[16];
+    private int valueWorkSize;
+
+    private SparseConstantPropagation(SsaForm ssa) {
+        this.ssa = ssa;
+        this.cfg = ssa.cfg;
+        this.tac = ssa.tac;
+        int values = ssa.valueCount();
+        states = new byte[values];
+        constants = new int[values];
+        executableEdges = new boolean[cfg.edgeCount()];
+        executableBlocks = new boolean[cfg.blockCount()];
+        blocksOf = new int[tac.size()];
+        edgeTargets = new int[cfg.edgeCount()];
+        phiBlocks = new int[ssa.phiCount()];
+        labelBlocks = new int[tac.labelCount()];
+        for (int b = 0; b < cfg.blockCount(); b++) {
+            Arrays.fill(blocksOf, cfg.start(b), cfg.end(b), b);
+            for (int k = 0; k < cfg.successorCount(b); k++) {
+                edgeTargets[cfg.successorEdge(b, k)] = cfg.successor(b, k);
+            }
+            Arrays.fill(phiBlocks, ssa.firstPhi(b), ssa.endPhi(b), b);
+            if (tac.op(cfg.start(b)) == Tac.Opcode.LABEL) {
+                labelBlocks[Tac.index(tac.a(cfg.start(b)))] = b;
+            }
+        }
+
+        userFirst = new int[values + 1];
+        collectUsers(null, null);
+        for (int v = 0; v < values; v++) {
+            userFirst[v + 1] += userFirst[v];
+        }
+        users = new int[userFirst[values]];
+        collectUsers(Arrays.copyOf(userFirst, values), users);
+    }
+
+    // Counts into userFirst[v + 1] when out is null, else stores at positions[v]
+    private void collectUsers(int[] positions, int[] out) {
+        for (int i = 0; i < tac.size(); i++) {
+            addUser(ssa.useA(i), i, positions, out);
+            addUser(ssa.useB(i), i, positions, out);
+        }
+        for (int p = 0; p < ssa.phiCount(); p++) {
+            for (int k = 0; k < ssa.phiArgCount(p); k++) {
+                addUser(ssa.phiArg(p, k), -1 - p, positions, out);
+            }
+        }
+    }
+
+    private void addUser(int value, int user, int[] positions, int[] out) {
+        if (value < 0) {
+            return;
+        }
+        if (out == null) {
+            userFirst[value + 1]++;
+        } else {
+            out[positions[value]++] = user;
+        }
+    }
+
+    // Runs SCCP and rewrites tac; returns whether anything changed
+    static boolean run(Tac tac) {
+        if (tac.size() == 0) {
+            return false;
+        }
+        SparseConstantPropagation sccp = new SparseConstantPropagation(new SsaForm(tac));
+        sccp.solve();
+        return sccp.rewrite();
+    }
+
+    private void solve() {
+        // Values live on entry are unknown inputs
+        for (int v = 0; v < ssa.valueCount(); v++) {
+            if (ssa.valueDef(v) == SsaForm.ENTRY) {
+                states[v] = VARYING;
+            }
+        }
+        visitBlock(0);
+        while (edgeWorkSize > 0 || valueWorkSize > 0) {
+            while (edgeWorkSize > 0) {
+                int edge = edgeWork[--edgeWorkSize];
+                int target = edgeTargets[edge];
+                for (int p = ssa.firstPhi(target); p < ssa.endPhi(target); p++) {
+                    visitPhi(p, target);
+                }
+                if (!executableBlocks[target]) {
+                    visitBlock(target);
+                }
+            }
+            while (valueWorkSize > 0) {
+                int value = valueWork[--valueWorkSize];
+                for (int u = userFirst[value]; u < userFirst[value + 1]; u++) {
+                    int user = users[u];
+                    if (user < 0) {
+                        int phi = -1 - user;
+                        int block = phiBlocks[phi];
+                        if (executableBlocks[block]) {
+                            visitPhi(phi, block);
+                        }
+                    } else if (executableBlocks[blocksOf[user]]) {
+                        visitInstruction(user);
+                    }
+                }
+            }
+        }
+    }
+
+    private void visitBlock(int block) {
+        executableBlocks[block] = true;
+        int end = cfg.end(block);
+        for (int i = cfg.start(block); i < end; i++) {
+            visitInstruction(i);
+        }
+        Tac.Opcode last = tac.op(end - 1);
+        if (last != Tac.Opcode.JUMP_IF_FALSE && last != Tac.Opcode.RETURN) {
+            // Fall-through or an unconditional jump: the single successor
+            for (int k = 0; k < cfg.successorCount(block); k++) {
+                markEdge(cfg.successorEdge(block, k));
+            }
+        }
+    }
+
+    private void visitPhi(int phi, int block) {
+        int dst = ssa.phiDst(phi);
+        if (states[dst] == VARYING) {
+            return;
+        }
+        if (block == 0) {
+            // The entry also has the implicit edge from outside the program
+            lower(dst, VARYING, 0);
+            return;
+        }
+        for (int k = 0; k < ssa.phiArgCount(phi); k++) {
+            int predecessor = cfg.predecessor(block, k);
+            int edge = cfg.successorEdge(predecessor, 0) + successorPosition(predecessor, block);
+            if (!executableEdges[edge]) {
+                continue;
+            }
+            int arg = ssa.phiArg(phi, k);
+            if (arg < 0 || states[arg] == VARYING) {
+                lower(dst, VARYING, 0);
+                return;
+            }
+            if (states[arg] == CONSTANT) {
+                lower(dst, CONSTANT, constants[arg]);
+                if (states[dst] == VARYING) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private int successorPosition(int block, int successor) {
+        for (int k = 0; k < cfg.successorCount(block); k++) {
+            if (cfg.successor(block, k) == successor) {
+                return k;
+            }
+        }
+        throw new IllegalStateException("B" + successor + " is not a successor of B" + block);
+    }
+
+    private void visitInstruction(int i) {
+        Tac.Opcode op = tac.op(i);
+        if (op == Tac.Opcode.JUMP_IF_FALSE) {
+            int block = blocksOf[i];
+            int condition = operandState(tac.a(i), ssa.useA(i));
+            if (condition == VARYING) {
+                for (int k = 0; k < cfg.successorCount(block); k++) {
+                    markEdge(cfg.successorEdge(block, k));
+                }
+            } else if (condition == CONSTANT) {
+                int target = ConstantFolder.isFalse(tac, operandConstant(tac.a(i), ssa.useA(i)))
+                        ? labelBlocks[Tac.index(tac.b(i))] : block + 1;
+                markEdge(cfg.successorEdge(block, successorPosition(block, target)));
+            }
+            return;
+        }
+        int dst = ssa.def(i);
+        if (dst < 0 || states[dst] == VARYING) {
+            return;
+        }
+        if (op == Tac.Opcode.COPY) {
+            int state = operandState(tac.a(i), ssa.useA(i));
+            if (state != UNKNOWN) {
+                lower(dst, state, state == CONSTANT ? tac.convert(operandConstant(tac.a(i), ssa.useA(i)), tac.dst(i)) : 0);
+            }
+        } else if (op.isBinary() || op.isUnary()) {
+            int stateA = operandState(tac.a(i), ssa.useA(i));
+            int stateB = op.isBinary() ? operandState(tac.b(i), ssa.useB(i)) : CONSTANT;
+            if (stateA == VARYING || stateB == VARYING) {
+                lower(dst, VARYING, 0);
+            } else if (stateA == CONSTANT && stateB == CONSTANT) {
+                int result = ConstantFolder.fold(tac, op, operandConstant(tac.a(i), ssa.useA(i)),
+                        op.isBinary() ? operandConstant(tac.b(i), ssa.useB(i)) : 0);
+                if (result == 0) {
+                    lower(dst, VARYING, 0);
+                } else {
+                    lower(dst, CONSTANT, tac.convert(result, tac.dst(i)));
+                }
+            }
+        } else {
+            // READ and CALL produce values not known at compile time
+            lower(dst, VARYING, 0);
+        }
+    }
+
+    private int operandState(int operand, int value) {
+        if (value >= 0) {
+            return states[value];
+        }
+        return Tac.isConstant(operand) && Tac.tag(operand) != Tac.STRING ? CONSTANT : VARYING;
+    }
+
+    private int operandConstant(int operand, int value) {
+        return value >= 0 ? constants[value] : operand;
+    }
+
+    private void lower(int value, int state, int constant) {
+        if (state == states[value]) {
+            if (state != CONSTANT || ConstantFolder.sameConstant(tac, constant, constants[value])) {
+                return;
+            }
+            state = VARYING;
+        } else if (state < states[value]) {
+            return;
+        }
+        states[value] = (byte) state;
+        constants[value] = constant;
+        if (valueWorkSize == valueWork.length) {
+            valueWork = Arrays.copyOf(valueWork, valueWorkSize * 2);
+        }
+        valueWork[valueWorkSize++] = value;
+    }
+
+    private void markEdge(int edge) {
+        if (executableEdges[edge]) {
+            return;
+        }
+        executableEdges[edge] = true;
+        if (edgeWorkSize == edgeWork.length) {
+            edgeWork = Arrays.copyOf(edgeWork, edgeWorkSize * 2);
+        }
+        edgeWork[edgeWorkSize++] = edge;
+    }
+
+    private boolean rewrite() {
+        boolean[] keep = new boolean[tac.size()];
+        boolean changed = false;
+        for (int i = 0; i < tac.size(); i++) {
+            Tac.Opcode op = tac.op(i);
+            if (!executableBlocks[blocksOf[i]]) {
+                // Labels stay so jumps in dead code still resolve; unused ones are removed later
+                keep[i] = op == Tac.Opcode.LABEL;
+                changed |= !keep[i];
+                continue;
+            }
+            keep[i] = true;
+            int a = constantUse(tac.a(i), ssa.useA(i));
+            int b = constantUse(tac.b(i), ssa.useB(i));
+            int dst = ssa.def(i);
+            if (op == Tac.Opcode.JUMP_IF_FALSE && Tac.isConstant(a)) {
+                if (ConstantFolder.isFalse(tac, a)) {
+                    tac.set(i, Tac.Opcode.JUMP, 0, tac.b(i), 0);
+                } else {
+                    keep[i] = false;
+                }
+                changed = true;
+            } else if (dst >= 0 && states[dst] == CONSTANT && !(op == Tac.Opcode.COPY && Tac.isConstant(tac.a(i)))) {
+                tac.set(i, Tac.Opcode.COPY, tac.dst(i), constants[dst], 0);
+                changed = true;
+            } else if (a != tac.a(i) || b != tac.b(i)) {
+                tac.set(i, op, tac.dst(i), a, b);
+                changed = true;
+            }
+        }
+        if (changed) {
+            tac.compact(keep);
+        }
+        return changed;
+    }
+
+    private int constantUse(int operand, int value) {
+        if (value >= 0 && states[value] == CONSTANT) {
+            return constants[value];
+        }
+        return operand;
+    }
+}
@@ -0,0 +1,365 @@
+import java.util.Arrays;
+
+// Static single assignment view of a Tac. The Tac itself is not rewritten:
+// every definition and every use of a variable or temp gets an SSA value
+// number in side arrays, and phis live in their own table. Phis are placed on
+// iterated dominance frontiers for names that are used in some block before
+// being defined there (semi-pruned form), then names are assigned by a walk
+// over the dominator tree.
+final class SsaForm {
+    // valueDef() of a value that is live on entry, e.g. an uninitialized variable
+    static final int ENTRY = -1;
+
+    final Tac tac;
+    final ControlFlowGraph cfg;
+    final DominatorTree dominators;
+
+    // Per instruction: the value defined and the values used by a and b, -1 for none
+    private final int[] defs;
+    private final int[] usesA;
+    private final int[] usesB;
+
+    // Per value: its slot and where it is defined (instruction, ENTRY, or -2 - phi)
+    private int[] valueSlots = new int[64];
+    private int[] valueDefs = new int[64];
+    private int valueCount;
+    private final int[] entryValues;
+
+    // Phis grouped by block: block b has phis blockPhiFirst[b] .. blockPhiFirst[b + 1]
+    private final int[] blockPhiFirst;
+    private final int[] phiSlots;
+    private final int[] phiDsts;
+    private final int[] phiArgFirst;
+    private final int[] phiArgs;
+
+    SsaForm(Tac tac) {
+        this(new DominatorTree(new ControlFlowGraph(tac)));
+    }
+
+    SsaForm(DominatorTree dominators) {
+        this.dominators = dominators;
+        this.cfg = dominators.cfg;
+        this.tac = cfg.tac;
+        int size = tac.size();
+        int slots = tac.slotCount();
+        int blocks = cfg.blockCount();
+        defs = new int[size];
+        usesA = new int[size];
+        usesB = new int[size];
+        Arrays.fill(defs, -1);
+        Arrays.fill(usesA, -1);
+        Arrays.fill(usesB, -1);
+        entryValues = new int[slots];
+        Arrays.fill(entryValues, -1);
+
+        // Names used before any definition in the same block, and the blocks
+        // defining each slot as (slot, block) pairs
+        boolean[] global = new boolean[slots];
+        int[] definedIn = new int[slots];
+        Arrays.fill(definedIn, -1);
+        int[] defSlots = new int[16];
+        int[] defBlocks = new int[16];
+        int defCount = 0;
+        for (int block : dominators.order()) {
+            for (int i = cfg.start(block); i < cfg.end(block); i++) {
+                int a = tac.slot(tac.a(i));
+                int b = tac.slot(tac.b(i));
+                if (a >= 0 && definedIn[a] != block) {
+                    global[a] = true;
+                }
+                if (b >= 0 && definedIn[b] != block) {
+                    global[b] = true;
+                }
+                if (tac.op(i).writesDst()) {
+                    int dst = tac.slot(tac.dst(i));
+                    if (definedIn[dst] != block) {
+                        definedIn[dst] = block;
+                        if (defCount == defSlots.length) {
+                            defSlots = Arrays.copyOf(defSlots, defCount * 2);
+                            defBlocks = Arrays.copyOf(defBlocks, defCount * 2);
+                        }
+                        defSlots[defCount] = dst;
+                        defBlocks[defCount] = block;
+                        defCount++;
+                    }
+                }
+            }
+        }
+
+        // Defining blocks per slot, compressed
+        int[] slotDefFirst = new int[slots + 1];
+        for (int d = 0; d < defCount; d++) {
+            slotDefFirst[defSlots[d] + 1]++;
+        }
+        for (int s = 0; s < slots; s++) {
+            slotDefFirst[s + 1] += slotDefFirst[s];
+        }
+        int[] slotDefBlocks = new int[defCount];
+        int[] fill = Arrays.copyOf(slotDefFirst, slots);
+        for (int d = 0; d < defCount; d++) {
+            slotDefBlocks[fill[defSlots[d]]++] = defBlocks[d];
+        }
+
+        // Phi placement on iterated dominance frontiers, as (block, slot) pairs
+        int[] placedBlocks = new int[16];
+        int[] placedSlots = new int[16];
+        int placed = 0;
+        int[] hasPhi = new int[blocks];
+        int[] queued = new int[blocks];
+        Arrays.fill(hasPhi, -1);
+        Arrays.fill(queued, -1);
+        int[] work = new int[blocks];
+        for (int s = 0; s < slots; s++) {
+            if (!global[s] || slotDefFirst[s] == slotDefFirst[s + 1]) {
+                continue;
+            }
+            int top = 0;
+            for (int d = slotDefFirst[s]; d < slotDefFirst[s + 1]; d++) {
+                work[top++] = slotDefBlocks[d];
+                queued[slotDefBlocks[d]] = s;
+            }
+            while (top > 0) {
+                int block = work[--top];
+                for (int k = 0; k < dominators.frontierCount(block); k++) {
+                    int join = dominators.frontier(block, k);
+                    if (hasPhi[join] == s) {
+                        continue;
+                    }
+                    hasPhi[join] = s;
+                    if (placed == placedBlocks.length) {
+                        placedBlocks = Arrays.copyOf(placedBlocks, placed * 2);
+                        placedSlots = Arrays.copyOf(placedSlots, placed * 2);
+                    }
+                    placedBlocks[placed] = join;
+                    placedSlots[placed] = s;
+                    placed++;
+                    if (queued[join] != s) {
+                        queued[join] = s;
+                        work[top++] = join;
+                    }
+                }
+            }
+        }
+
+        blockPhiFirst = new int[blocks + 1];
+        for (int p = 0; p < placed; p++) {
+            blockPhiFirst[placedBlocks[p] + 1]++;
+        }
+        for (int b = 0; b < blocks; b++) {
+            blockPhiFirst[b + 1] += blockPhiFirst[b];
+        }
+        phiSlots = new int[placed];
+        phiDsts = new int[placed];
+        fill = Arrays.copyOf(blockPhiFirst, blocks);
+        for (int p = 0; p < placed; p++) {
+            phiSlots[fill[placedBlocks[p]]++] = placedSlots[p];
+        }
+        phiArgFirst = new int[placed + 1];
+        for (int b = 0; b < blocks; b++) {
+            for (int p = blockPhiFirst[b]; p < blockPhiFirst[b + 1]; p++) {
+                phiArgFirst[p + 1] = phiArgFirst[p] + cfg.predecessorCount(b);
+            }
+        }
+        phiArgs = new int[phiArgFirst[placed]];
+        Arrays.fill(phiArgs, -1);
+
+        rename(slots);
+    }
+
+    // Walks the dominator tree keeping the current value of each slot. Values
+    // pushed in a block are logged and undone when the walk leaves it.
+    private void rename(int slots) {
+        int blocks = cfg.blockCount();
+        if (blocks == 0) {
+            return;
+        }
+        int[] current = new int[slots];
+        Arrays.fill(current, -1);
+        int[] logSlots = new int[64];
+        int[] logValues = new int[64];
+        int logSize = 0;
+        int[] marks = new int[blocks];
+
+        // Stack entries: block for entering, -1 - block for leaving
+        int[] stack = new int[2 * blocks];
+        int depth = 0;
+        stack[depth++] = 0;
+        while (depth > 0) {
+            int entry = stack[--depth];
+            if (entry < 0) {
+                int block = -1 - entry;
+                while (logSize > marks[block]) {
+                    logSize--;
+                    current[logSlots[logSize]] = logValues[logSize];
+                }
+                continue;
+            }
+            int block = entry;
+            marks[block] = logSize;
+            for (int p = blockPhiFirst[block]; p < blockPhiFirst[block + 1]; p++) {
+                int slot = phiSlots[p];
+                int value = newValue(slot, -2 - p);
+                phiDsts[p] = value;
+                if (logSize == logSlots.length) {
+                    logSlots = Arrays.copyOf(logSlots, logSize * 2);
+                    logValues = Arrays.copyOf(logValues, logSize * 2);
+                }
+                logSlots[logSize] = slot;
+                logValues[logSize] = current[slot];
+                logSize++;
+                current[slot] = value;
+            }
+            for (int i = cfg.start(block); i < cfg.end(block); i++) {
+                int a = tac.slot(tac.a(i));
+                int b = tac.slot(tac.b(i));
+                if (a >= 0) {
+                    usesA[i] = currentValue(current, a);
+                }
+                if (b >= 0) {
+                    usesB[i] = currentValue(current, b);
+                }
+                if (tac.op(i).writesDst()) {
+                    int slot = tac.slot(tac.dst(i));
+                    int value = newValue(slot, i);
+                    defs[i] = value;
+                    if (logSize == logSlots.length) {
+                        logSlots = Arrays.copyOf(logSlots, logSize * 2);
+                        logValues = Arrays.copyOf(logValues, logSize * 2);
+                    }
+                    logSlots[logSize] = slot;
+                    logValues[logSize] = current[slot];
+                    logSize++;
+                    current[slot] = value;
+                }
+            }
+            for (int k = 0; k < cfg.successorCount(block); k++) {
+                int successor = cfg.successor(block, k);
+                int position = cfg.predecessorIndex(successor, block);
+                for (int p = blockPhiFirst[successor]; p < blockPhiFirst[successor + 1]; p++) {
+                    phiArgs[phiArgFirst[p] + position] = currentValue(current, phiSlots[p]);
+                }
+            }
+            stack[depth++] = -1 - block;
+            for (int k = dominators.childCount(block) - 1; k >= 0; k--) {
+                stack[depth++] = dominators.child(block, k);
+            }
+        }
+    }
+
+    private int currentValue(int[] current, int slot) {
+        if (current[slot] >= 0) {
+            return current[slot];
+        }
+        if (entryValues[slot] < 0) {
+            entryValues[slot] = newValue(slot, ENTRY);
+        }
+        return entryValues[slot];
+    }
+
+    private int newValue(int slot, int def) {
+        if (valueCount == valueSlots.length) {
+            valueSlots = Arrays.copyOf(valueSlots, valueCount * 2);
+            valueDefs = Arrays.copyOf(valueDefs, valueCount * 2);
+        }
+        valueSlots[valueCount] = slot;
+        valueDefs[valueCount] = def;
+        return valueCount++;
+    }
+
+    int valueCount() {
+        return valueCount;
+    }
+
+    int valueSlot(int value) {
+        return valueSlots[value];
+    }
+
+    // Defining instruction, ENTRY, or -2 - phi
+    int valueDef(int value) {
+        return valueDefs[value];
+    }
+
+    int def(int instruction) {
+        return defs[instruction];
+    }
+
+    int useA(int instruction) {
+        return usesA[instruction];
+    }
+
+    int useB(int instruction) {
+        return usesB[instruction];
+    }
+
+    int phiCount() {
+        return phiSlots.length;
+    }
+
+    int firstPhi(int block) {
+        return blockPhiFirst[block];
+    }
+
+    int endPhi(int block) {
+        return blockPhiFirst[block + 1];
+    }
+
+    int phiSlot(int phi) {
+        return phiSlots[phi];
+    }
+
+    int phiDst(int phi) {
+        return phiDsts[phi];
+    }
+
+    // One argument per predecessor of the block, in predecessor order; -1 for
+    // predecessors that are unreachable
+    int phiArg(int phi, int k) {
+        return phiArgs[phiArgFirst[phi] + k];
+    }
+
+    int phiArgCount(int phi) {
+        return phiArgFirst[phi + 1] - phiArgFirst[phi];
+    }
+
+    // x_3 style name of a value, for printing
+    String valueName(int value) {
+        return tac.operandText(tac.slotOperand(valueSlots[value])) + "_" + value;
+    }
+
+    // The program with SSA names and phis, block by block
+    @Override
+    public String toString() {
+        StringBuilder out = new StringBuilder();
+        for (int block = 0; block < cfg.blockCount(); block++) {
+            if (!dominators.isReachable(block)) {
+                continue;
+            }
+            out.append('B').append(block).append(":\n");
+            for (int p = firstPhi(block); p < endPhi(block); p++) {
+                out.append("    ").append(valueName(phiDsts[p])).append(" = phi(");
+                for (int k = 0; k < phiArgCount(p); k++) {
+                    out.append(k > 0 ? ", " : "").append(phiArg(p, k) >= 0 ? valueName(phiArg(p, k)) : "_");
+                }
+                out.append(")\n");
+            }
+            for (int i = cfg.start(block); i < cfg.end(block); i++) {
+                String text = tac.instructionText(i);
+                out.append("    ").append(text);
+                if (defs[i] >= 0 || usesA[i] >= 0 || usesB[i] >= 0) {
+                    out.append("    //");
+                    if (defs[i] >= 0) {
+                        out.append(" def ").append(valueName(defs[i]));
+                    }
+                    if (usesA[i] >= 0) {
+                        out.append(" use ").append(valueName(usesA[i]));
+                    }
+                    if (usesB[i] >= 0) {
+                        out.append(" use ").append(valueName(usesB[i]));
+                    }
+                }
+                out.append('\n');
+            }
+        }
+        return out.toString();
+    }
+}
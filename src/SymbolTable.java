@@ -0,0 +1,87 @@
+import java.util.Arrays;
+
+// Scoped symbol table over interned identifier ids. Ids are dense, so the
+// innermost visible symbol of each name is found by indexing with the id; no
+// hashing or string compare. Each symbol remembers the one it shadows, and a
+// scope is left by popping the symbols declared in it, so declaring, looking
+// up and leaving are all O(1) per symbol.
+final class SymbolTable {
+    // Innermost visible symbol for each identifier id, -1 when there is none
+    private int[] visible = new int[64];
+
+    // Per symbol
+    private int[] names = new int[64];
+    private int[] depths = new int[64];
+    private int[] tokens = new int[64];
+    private int[] shadowed = new int[64];
+    private int size;
+
+    // Symbol count when each open scope was entered
+    private int[] scopeStarts = new int[16];
+    private int depth;
+
+    SymbolTable() {
+        Arrays.fill(visible, -1);
+    }
+
+    void enterScope() {
+        if (depth == scopeStarts.length) {
+            scopeStarts = Arrays.copyOf(scopeStarts, depth * 2);
+        }
+        scopeStarts[depth++] = size;
+    }
+
+    void exitScope() {
+        int start = scopeStarts[--depth];
+        while (size > start) {
+            size--;
+            visible[names[size]] = shadowed[size];
+        }
+    }
+
+    int depth() {
+        return depth;
+    }
+
+    // Declares id in the innermost scope and returns the new symbol, or -1
+    // when the scope already has a symbol with that name
+    int declare(int id, int token) {
+        int existing = lookup(id);
+        if (existing >= 0 && depths[existing] == depth) {
+            return -1;
+        }
+        if (id >= visible.length) {
+            int old = visible.length;
+            visible = Arrays.copyOf(visible, Math.max(id + 1, old * 2));
+            Arrays.fill(visible, old, visible.length, -1);
+        }
+        if (size == names.length) {
+            int capacity = size * 2;
+            names = Arrays.copyOf(names, capacity);
+            depths = Arrays.copyOf(depths, capacity);
+            tokens = Arrays.copyOf(tokens, capacity);
+            shadowed = Arrays.copyOf(shadowed, capacity);
+        }
+        names[size] = id;
+        depths[size] = depth;
+        tokens[size] = token;
+        shadowed[size] = existing;
+        visible[id] = size;
+        return size++;
+    }
+
+    // The innermost visible symbol named id, -1 when none is
+    int lookup(int id) {
+        return id >= 0 && id < visible.length ? visible[id] : -1;
+    }
+
+    // The symbol this one hides in an outer scope, -1 if it hides none
+    int shadowed(int symbol) {
+        return shadowed[symbol];
+    }
+
+    // Token of the declaration
+    int token(int symbol) {
+        return tokens[symbol];
+    }
+}
@@ -13,22 +13,23 @@ class SyntaxTreeeNode {
         children.add(child);
     }
 
+    // Parent -> child edges in breadth-first order, one per line. Use
+    // TreeSerializer to write large trees to a stream.
     @Override
     public String toString() {
-        SyntaxTreeeNode root = this;
-
-        Queue<SyntaxTreeeNode> queue = new LinkedList<>();
-        queue.add(root);
+        StringBuilder edges = new StringBuilder();
+        ArrayDeque<SyntaxTreeeNode> queue = new ArrayDeque<>();
+        queue.add(this);
 
         while (!queue.isEmpty()) {
             SyntaxTreeeNode node = queue.poll();
             for (SyntaxTreeeNode u : node.children) {
-                System.out.println(node.value + " -> " + u.value);
+                edges.append(node.value).append(" -> ").append(u.value).append('\n');
                 queue.add(u);
             }
         }
 
-        return " ";
+        return edges.toString();
     }
 }
 
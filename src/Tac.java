@@ -0,0 +1,556 @@
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Three-address code as quadruples: one opcode and three operand slots per
+// instruction, each in its own int array. An operand is a tag in the top four
+// bits and an index below it: variables are ids in the IdentifierTable, temps
+// are numbered, constants index into typed pools. Text is only produced by the
+// printer, so passes and back ends never parse or build strings.
+final class Tac {
+    enum Opcode {
+        COPY(null),
+        ADD("+"), SUB("-"), MUL("*"), DIV("/"), MOD("%"),
+        LT("<"), GT(">"), LE("<="), GE(">="), EQ("=="), NE("!="),
+        AND("&&"), OR("||"),
+        NEG("-"), NOT("!"),
+        PARAM(null), CALL(null),
+        READ(null), WRITE(null), RETURN(null),
+        LABEL(null), JUMP(null), JUMP_IF_FALSE(null);
+
+        // Spelling for binary and unary operators
+        final String symbol;
+
+        Opcode(String symbol) {
+            this.symbol = symbol;
+        }
+
+        boolean isBinary() {
+            return compareTo(ADD) >= 0 && compareTo(OR) <= 0;
+        }
+
+        boolean isArithmetic() {
+            return compareTo(ADD) >= 0 && compareTo(MOD) <= 0;
+        }
+
+        boolean isUnary() {
+            return this == NEG || this == NOT;
+        }
+
+        // Last instruction of a basic block
+        boolean isTerminator() {
+            return this == JUMP || this == JUMP_IF_FALSE || this == RETURN;
+        }
+
+        // Instructions whose dst is written: COPY, operators, CALL, READ
+        boolean writesDst() {
+            return this == COPY || isBinary() || isUnary() || this == CALL || this == READ;
+        }
+    }
+
+    private static final Opcode[] OPCODES = Opcode.values();
+
+    // Operand tags
+    static final int NONE = 0;
+    static final int VAR = 1;
+    static final int TEMP = 2;
+    static final int INT = 3;
+    static final int FLOAT = 4;
+    static final int STRING = 5;
+    static final int LABEL = 6;
+
+    private static final int TAG_SHIFT = 28;
+    private static final int INDEX_MASK = (1 << TAG_SHIFT) - 1;
+
+    static int operand(int tag, int index) {
+        return (tag << TAG_SHIFT) | index;
+    }
+
+    static int tag(int operand) {
+        return operand >>> TAG_SHIFT;
+    }
+
+    static int index(int operand) {
+        return operand & INDEX_MASK;
+    }
+
+    static boolean isConstant(int operand) {
+        int tag = tag(operand);
+        return tag == INT || tag == FLOAT || tag == STRING;
+    }
+
+    // Variable names; shared with the TokenBuffer so AST names map to ids directly
+    final IdentifierTable variables;
+
+    private int[] ops = new int[64];
+    private int[] dsts = new int[64];
+    private int[] as = new int[64];
+    private int[] bs = new int[64];
+    private int size;
+    private int temps;
+    // Temps from here on are spill slots, once registers are allocated
+    private int firstSpillTemp = Integer.MAX_VALUE;
+    private int labels;
+
+    // Value types: variables declared float and temps computed in float are
+    // marked here, everything else is int. A result is converted to the type
+    // of the dst it is stored in. Floats are doubles, as are float constants;
+    // a single float, C++ float, is a double rounded to single precision
+    // whenever it is stored, which gives what float arithmetic gives.
+    private boolean[] floatVariables = new boolean[16];
+    private boolean[] floatTemps = new boolean[16];
+    private boolean[] singleVariables = new boolean[16];
+    private boolean[] singleTemps = new boolean[16];
+
+    private long[] ints = new long[16];
+    private int intCount;
+    private double[] floats = new double[4];
+    private int floatCount;
+    private final List<String> strings = new ArrayList<>();
+
+    Tac(IdentifierTable variables) {
+        this.variables = variables;
+    }
+
+    // Appends an instruction and returns its index
+    int emit(Opcode op, int dst, int a, int b) {
+        if (size == ops.length) {
+            int capacity = size * 2;
+            ops = Arrays.copyOf(ops, capacity);
+            dsts = Arrays.copyOf(dsts, capacity);
+            as = Arrays.copyOf(as, capacity);
+            bs = Arrays.copyOf(bs, capacity);
+        }
+        ops[size] = op.ordinal();
+        dsts[size] = dst;
+        as[size] = a;
+        bs[size] = b;
+        return size++;
+    }
+
+    int size() {
+        return size;
+    }
+
+    Opcode op(int i) {
+        return OPCODES[ops[i]];
+    }
+
+    int dst(int i) {
+        return dsts[i];
+    }
+
+    int a(int i) {
+        return as[i];
+    }
+
+    int b(int i) {
+        return bs[i];
+    }
+
+    void set(int i, Opcode op, int dst, int a, int b) {
+        ops[i] = op.ordinal();
+        dsts[i] = dst;
+        as[i] = a;
+        bs[i] = b;
+    }
+
+    // Drops instructions whose keep flag is false, preserving order
+    void compact(boolean[] keep) {
+        int out = 0;
+        for (int i = 0; i < size; i++) {
+            if (keep[i]) {
+                ops[out] = ops[i];
+                dsts[out] = dsts[i];
+                as[out] = as[i];
+                bs[out] = bs[i];
+                out++;
+            }
+        }
+        size = out;
+    }
+
+    int newTemp() {
+        return operand(TEMP, temps++);
+    }
+
+    int newTemp(boolean isFloat) {
+        int temp = newTemp();
+        if (isFloat) {
+            setFloat(temp);
+        }
+        return temp;
+    }
+
+    int newTemp(boolean isFloat, boolean isSingle) {
+        int temp = newTemp(isFloat);
+        if (isSingle) {
+            setSingle(temp);
+        }
+        return temp;
+    }
+
+    // Marks a variable or temp as a single precision float
+    void setSingle(int operand) {
+        setFloat(operand);
+        int index = index(operand);
+        if (tag(operand) == VAR) {
+            if (index >= singleVariables.length) {
+                singleVariables = Arrays.copyOf(singleVariables, Math.max(index + 1, singleVariables.length * 2));
+            }
+            singleVariables[index] = true;
+        } else if (tag(operand) == TEMP) {
+            if (index >= singleTemps.length) {
+                singleTemps = Arrays.copyOf(singleTemps, Math.max(index + 1, singleTemps.length * 2));
+            }
+            singleTemps[index] = true;
+        }
+    }
+
+    boolean isSingle(int operand) {
+        int index = index(operand);
+        switch (tag(operand)) {
+            case VAR:
+                return index < singleVariables.length && singleVariables[index];
+            case TEMP:
+                return index < singleTemps.length && singleTemps[index];
+            default:
+                return false;
+        }
+    }
+
+    // Whether a copy from b to a keeps the value as it is
+    boolean sameType(int a, int b) {
+        return isFloat(a) == isFloat(b) && isSingle(a) == isSingle(b);
+    }
+
+    // Whether instruction i rounds its result to single precision: it stores
+    // to a single float, from anything but another one. A read into a single
+    // float is not counted; it is parsed as one.
+    boolean roundsToSingle(int i) {
+        Opcode op = op(i);
+        if (!op.writesDst() || op == Opcode.READ || !isSingle(dsts[i])) {
+            return false;
+        }
+        return (op != Opcode.COPY && op != Opcode.NEG) || !isSingle(as[i]);
+    }
+
+    void setFloat(int operand) {
+        int index = index(operand);
+        if (tag(operand) == VAR) {
+            if (index >= floatVariables.length) {
+                floatVariables = Arrays.copyOf(floatVariables, Math.max(index + 1, floatVariables.length * 2));
+            }
+            floatVariables[index] = true;
+        } else if (tag(operand) == TEMP) {
+            if (index >= floatTemps.length) {
+                floatTemps = Arrays.copyOf(floatTemps, Math.max(index + 1, floatTemps.length * 2));
+            }
+            floatTemps[index] = true;
+        }
+    }
+
+    boolean isFloat(int operand) {
+        int index = index(operand);
+        switch (tag(operand)) {
+            case VAR:
+                return index < floatVariables.length && floatVariables[index];
+            case TEMP:
+                return index < floatTemps.length && floatTemps[index];
+            case FLOAT:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    // The numeric constant as the type of dst; other operands unchanged
+    int convert(int constant, int dst) {
+        boolean toFloat = isFloat(dst);
+        if (tag(constant) == INT && toFloat) {
+            int value = (int) intValue(constant);
+            return floatConstant(isSingle(dst) ? (float) value : value);
+        }
+        if (tag(constant) == FLOAT && !toFloat) {
+            return intConstant((int) floatValue(constant));
+        }
+        if (tag(constant) == FLOAT && isSingle(dst)) {
+            double value = floatValue(constant);
+            return value == (float) value || Double.isNaN(value) ? constant : floatConstant((float) value);
+        }
+        return constant;
+    }
+
+    // Variables and temps numbered in one index space: variables first, then
+    // temps. -1 for constants, labels and empty slots.
+    int slot(int operand) {
+        switch (tag(operand)) {
+            case VAR:
+                return index(operand);
+            case TEMP:
+                return variables.size() + index(operand);
+            default:
+                return -1;
+        }
+    }
+
+    int slotCount() {
+        return variables.size() + temps;
+    }
+
+    // Operand for a slot number, the inverse of slot()
+    int slotOperand(int slot) {
+        int variableCount = variables.size();
+        return slot < variableCount ? operand(VAR, slot) : operand(TEMP, slot - variableCount);
+    }
+
+    int tempCount() {
+        return temps;
+    }
+
+    // Renames temp t to temp mapping[t] everywhere and leaves count temps, those
+    // from firstSpill on being spill slots; a new temp is float or single if the
+    // old ones mapped to it were
+    void renumberTemps(int[] mapping, int count, int firstSpill) {
+        boolean[] floats = new boolean[Math.max(16, count)];
+        boolean[] singles = new boolean[Math.max(16, count)];
+        for (int t = 0; t < temps; t++) {
+            if (mapping[t] >= 0 && isFloat(operand(TEMP, t))) {
+                floats[mapping[t]] = true;
+                singles[mapping[t]] = isSingle(operand(TEMP, t));
+            }
+        }
+        for (int i = 0; i < size; i++) {
+            dsts[i] = renumber(dsts[i], mapping);
+            as[i] = renumber(as[i], mapping);
+            bs[i] = renumber(bs[i], mapping);
+        }
+        floatTemps = floats;
+        singleTemps = singles;
+        temps = count;
+        firstSpillTemp = firstSpill;
+    }
+
+    private static int renumber(int operand, int[] mapping) {
+        return tag(operand) == TEMP ? operand(TEMP, mapping[index(operand)]) : operand;
+    }
+
+    int newLabel() {
+        return operand(LABEL, labels++);
+    }
+
+    int labelCount() {
+        return labels;
+    }
+
+    // Control flow: LABEL a, JUMP a, JUMP_IF_FALSE a (condition) b (label)
+
+    // Whether instruction i starts a basic block
+    boolean isLeader(int i) {
+        return i == 0 || op(i) == Opcode.LABEL || op(i - 1).isTerminator();
+    }
+
+    int variable(int id) {
+        return operand(VAR, id);
+    }
+
+    int variable(String name) {
+        return operand(VAR, variables.intern(name));
+    }
+
+    int intConstant(long value) {
+        if (intCount == ints.length) {
+            ints = Arrays.copyOf(ints, intCount * 2);
+        }
+        ints[intCount] = value;
+        return operand(INT, intCount++);
+    }
+
+    int floatConstant(double value) {
+        if (floatCount == floats.length) {
+            floats = Arrays.copyOf(floats, floatCount * 2);
+        }
+        floats[floatCount] = value;
+        return operand(FLOAT, floatCount++);
+    }
+
+    // Literal text as written, quotes included
+    int stringConstant(String text) {
+        strings.add(text);
+        return operand(STRING, strings.size() - 1);
+    }
+
+    long intValue(int operand) {
+        return ints[index(operand)];
+    }
+
+    double floatValue(int operand) {
+        return floats[index(operand)];
+    }
+
+    String stringValue(int operand) {
+        return strings.get(index(operand));
+    }
+
+    // Printer
+
+    String operandText(int operand) {
+        switch (tag(operand)) {
+            case VAR:
+                return variables.name(index(operand));
+            case TEMP:
+                return index(operand) < firstSpillTemp ? "t" + index(operand)
+                        : "[s" + (index(operand) - firstSpillTemp) + "]";
+            case INT:
+                return Long.toString(intValue(operand));
+            case FLOAT:
+                return Double.toString(floatValue(operand));
+            case STRING:
+                return stringValue(operand);
+            case LABEL:
+                return "L" + index(operand);
+            default:
+                return "_";
+        }
+    }
+
+    String instructionText(int i) {
+        Opcode op = op(i);
+        String dst = operandText(dsts[i]);
+        String a = operandText(as[i]);
+        switch (op) {
+            case COPY:
+                return dst + " = " + a;
+            case NEG:
+            case NOT:
+                return dst + " = " + op.symbol + a;
+            case PARAM:
+                return "param " + a;
+            case CALL:
+                return dst + " = call " + a + ", " + operandText(bs[i]);
+            case READ:
+                return "read " + dst;
+            case WRITE:
+                return "write " + a;
+            case RETURN:
+                return "return " + a;
+            case LABEL:
+                return a + ":";
+            case JUMP:
+                return "goto " + a;
+            case JUMP_IF_FALSE:
+                return "ifFalse " + a + " goto " + operandText(bs[i]);
+            default:
+                return dst + " = " + a + " " + op.symbol + " " + operandText(bs[i]);
+        }
+    }
+
+    List<String> toStrings() {
+        List<String> lines = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            lines.add(instructionText(i));
+        }
+        return lines;
+    }
+
+    // Binary form for the compile cache: variable names in id order, so they
+    // intern to the same ids, then types, constant pools and instructions
+    void write(DataOutputStream out) throws IOException {
+        out.writeInt(variables.size());
+        for (int id = 0; id < variables.size(); id++) {
+            out.writeUTF(variables.name(id));
+        }
+        out.writeInt(temps);
+        out.writeInt(firstSpillTemp);
+        out.writeInt(labels);
+        for (int id = 0; id < variables.size(); id++) {
+            out.writeByte(type(operand(VAR, id)));
+        }
+        for (int t = 0; t < temps; t++) {
+            out.writeByte(type(operand(TEMP, t)));
+        }
+        out.writeInt(intCount);
+        for (int i = 0; i < intCount; i++) {
+            out.writeLong(ints[i]);
+        }
+        out.writeInt(floatCount);
+        for (int i = 0; i < floatCount; i++) {
+            out.writeDouble(floats[i]);
+        }
+        out.writeInt(strings.size());
+        for (String text : strings) {
+            out.writeUTF(text);
+        }
+        out.writeInt(size);
+        for (int i = 0; i < size; i++) {
+            out.writeByte(ops[i]);
+            out.writeInt(dsts[i]);
+            out.writeInt(as[i]);
+            out.writeInt(bs[i]);
+        }
+    }
+
+    // 0 int, 1 float, 2 single float
+    private int type(int operand) {
+        return isSingle(operand) ? 2 : isFloat(operand) ? 1 : 0;
+    }
+
+    private void setType(int operand, int type) {
+        if (type == 2) {
+            setSingle(operand);
+        } else if (type == 1) {
+            setFloat(operand);
+        }
+    }
+
+    static Tac read(DataInputStream in) throws IOException {
+        IdentifierTable variables = new IdentifierTable();
+        int variableCount = in.readInt();
+        for (int id = 0; id < variableCount; id++) {
+            variables.intern(in.readUTF());
+        }
+        Tac tac = new Tac(variables);
+        tac.temps = in.readInt();
+        tac.firstSpillTemp = in.readInt();
+        tac.labels = in.readInt();
+        for (int id = 0; id < variableCount; id++) {
+            tac.setType(operand(VAR, id), in.readUnsignedByte());
+        }
+        for (int t = 0; t < tac.temps; t++) {
+            tac.setType(operand(TEMP, t), in.readUnsignedByte());
+        }
+        int intCount = in.readInt();
+        for (int i = 0; i < intCount; i++) {
+            tac.intConstant(in.readLong());
+        }
+        int floatCount = in.readInt();
+        for (int i = 0; i < floatCount; i++) {
+            tac.floatConstant(in.readDouble());
+        }
+        int stringCount = in.readInt();
+        for (int i = 0; i < stringCount; i++) {
+            tac.stringConstant(in.readUTF());
+        }
+        int size = in.readInt();
+        for (int i = 0; i < size; i++) {
+            int op = in.readUnsignedByte();
+            if (op >= OPCODES.length) {
+                throw new IOException("Bad opcode " + op);
+            }
+            tac.emit(OPCODES[op], in.readInt(), in.readInt(), in.readInt());
+        }
+        return tac;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder out = new StringBuilder();
+        for (int i = 0; i < size; i++) {
+            out.append(instructionText(i)).append('\n');
+        }
+        return out.toString();
+    }
+}
@@ -0,0 +1,572 @@
+import java.util.Arrays;
+
+// Pass manager for Tac. Runs sparse conditional constant propagation, constant
+// folding, local value numbering, copy propagation, dead-store and dead-temp
+// elimination in place until nothing changes. Each
+// pass can be switched off, by name with -fno-<pass>. All state is kept in int arrays indexed by operand
+// slot (variables first, then temps), so no objects are created per instruction.
+final class TacOptimizer {
+    boolean sparseConstantPropagation = true;
+    boolean constantFolding = true;
+    boolean valueNumbering = true;
+    boolean copyPropagation = true;
+    boolean deadStoreElimination = true;
+    boolean deadCodeElimination = true;
+
+    // Pass names for -fno-<pass>, in the order of their bits in
+    // CompileOptions.disabledPasses
+    static final String[] PASSES = {"constant-propagation", "constant-folding", "value-numbering",
+            "copy-propagation", "dead-stores", "dead-temps"};
+
+    // Instruction counts of the last run
+    int before;
+    int after;
+
+    private static final int MAX_ROUNDS = 8;
+
+    private Tac tac;
+
+    TacOptimizer() {
+    }
+
+    // With the passes whose bits are set in disabledPasses switched off
+    TacOptimizer(int disabledPasses) {
+        sparseConstantPropagation = (disabledPasses & 1) == 0;
+        constantFolding = (disabledPasses & 2) == 0;
+        valueNumbering = (disabledPasses & 4) == 0;
+        copyPropagation = (disabledPasses & 8) == 0;
+        deadStoreElimination = (disabledPasses & 16) == 0;
+        deadCodeElimination = (disabledPasses & 32) == 0;
+    }
+
+    // Bit of the pass with this name in a disabled-passes mask
+    static int passBit(String name) {
+        for (int i = 0; i < PASSES.length; i++) {
+            if (PASSES[i].equals(name)) {
+                return 1 << i;
+            }
+        }
+        throw new IllegalArgumentException("Unknown optimizer pass '" + name + "', expected one of "
+                + String.join(", ", PASSES));
+    }
+
+    static TacOptimizer none() {
+        TacOptimizer optimizer = new TacOptimizer();
+        optimizer.sparseConstantPropagation = false;
+        optimizer.constantFolding = false;
+        optimizer.valueNumbering = false;
+        optimizer.copyPropagation = false;
+        optimizer.deadStoreElimination = false;
+        optimizer.deadCodeElimination = false;
+        return optimizer;
+    }
+
+    void run(Tac tac) {
+        this.tac = tac;
+        before = tac.size();
+        for (int round = 0; round < MAX_ROUNDS; round++) {
+            boolean changed = false;
+            if (sparseConstantPropagation) {
+                changed |= SparseConstantPropagation.run(tac);
+            }
+            if (constantFolding) {
+                changed |= foldConstants();
+            }
+            if (valueNumbering) {
+                changed |= numberValues();
+            }
+            if (copyPropagation) {
+                changed |= propagateCopies();
+            }
+            if (deadStoreElimination) {
+                changed |= eliminateDeadStores();
+            }
+            if (deadCodeElimination) {
+                changed |= eliminateDeadTemps();
+            }
+            if (!changed) {
+                break;
+            }
+        }
+        after = tac.size();
+        this.tac = null;
+    }
+
+    String summary() {
+        return before + " -> " + after + " instructions";
+    }
+
+    // Constant folding
+
+    // Operators on constants become copies of the result, converted to the type
+    // of dst; x + 0, x * 1 and the like become copies of x. A branch on a
+    // constant becomes a jump or goes away.
+    private boolean foldConstants() {
+        boolean changed = false;
+        boolean[] keep = null;
+        for (int i = 0; i < tac.size(); i++) {
+            Tac.Opcode op = tac.op(i);
+            int result;
+            if (op == Tac.Opcode.JUMP_IF_FALSE && Tac.isConstant(tac.a(i)) && Tac.tag(tac.a(i)) != Tac.STRING) {
+                if (ConstantFolder.isFalse(tac, tac.a(i))) {
+                    tac.set(i, Tac.Opcode.JUMP, 0, tac.b(i), 0);
+                } else {
+                    if (keep == null) {
+                        keep = new boolean[tac.size()];
+                        Arrays.fill(keep, true);
+                    }
+                    keep[i] = false;
+                }
+                changed = true;
+                continue;
+            } else if (op.isBinary() || op.isUnary()) {
+                result = ConstantFolder.fold(tac, op, tac.a(i), tac.b(i));
+                if (result != 0) {
+                    result = tac.convert(result, tac.dst(i));
+                } else if (op.isBinary()) {
+                    result = simplify(op, tac.a(i), tac.b(i));
+                    // x + 0 is only a copy of x when no conversion is involved
+                    if (result != 0 && tac.isFloat(result) != tac.isFloat(tac.dst(i))) {
+                        result = 0;
+                    }
+                }
+            } else {
+                continue;
+            }
+            if (result != 0) {
+                tac.set(i, Tac.Opcode.COPY, tac.dst(i), result, 0);
+                changed = true;
+            }
+        }
+        if (keep != null) {
+            tac.compact(keep);
+        }
+        return changed;
+    }
+
+    // Identities with one constant int operand; 0 if none applies
+    private int simplify(Tac.Opcode op, int a, int b) {
+        boolean intA = Tac.tag(a) == Tac.INT;
+        boolean intB = Tac.tag(b) == Tac.INT;
+        if (intB && (op == Tac.Opcode.ADD || op == Tac.Opcode.SUB) && tac.intValue(b) == 0) {
+            return a;
+        }
+        if (intB && (op == Tac.Opcode.MUL || op == Tac.Opcode.DIV) && tac.intValue(b) == 1) {
+            return a;
+        }
+        if (intA && op == Tac.Opcode.ADD && tac.intValue(a) == 0) {
+            return b;
+        }
+        if (intA && op == Tac.Opcode.MUL && tac.intValue(a) == 1) {
+            return b;
+        }
+        return 0;
+    }
+
+    // Local value numbering
+
+    // Operand slot -> value number. Numbers only grow; anything below
+    // blockFirstValue belongs to an earlier block and counts as unseen.
+    private int[] valueNumbers;
+    // Value number -> an operand currently holding it
+    private int[] holders;
+    private int valueCount;
+    private int blockFirstValue;
+    private final ExpressionTable expressions = new ExpressionTable();
+
+    // An operator applied to the same value numbers as an earlier one in the
+    // same basic block becomes a copy of the operand still holding that result.
+    private boolean numberValues() {
+        valueNumbers = new int[tac.slotCount()];
+        Arrays.fill(valueNumbers, -1);
+        holders = new int[16];
+        valueCount = 0;
+        expressions.clear();
+        boolean changed = false;
+        for (int i = 0; i < tac.size(); i++) {
+            if (tac.isLeader(i)) {
+                blockFirstValue = valueCount;
+            }
+            Tac.Opcode op = tac.op(i);
+            int dst = tac.dst(i);
+            if (op.isBinary() || op.isUnary()) {
+                int x = valueNumber(tac.a(i));
+                int y = op.isBinary() ? valueNumber(tac.b(i)) : -1;
+                if (isCommutative(op) && x > y) {
+                    int swap = x;
+                    x = y;
+                    y = swap;
+                }
+                // The result is converted to the type of dst, so that is part of the key
+                int key = 3 * op.ordinal() + (tac.isSingle(dst) ? 2 : tac.isFloat(dst) ? 1 : 0);
+                int value = find(key, x, y);
+                if (value >= 0 && holds(holders[value], value)) {
+                    tac.set(i, Tac.Opcode.COPY, dst, holders[value], 0);
+                    changed = true;
+                } else if (value < 0) {
+                    value = newValue(dst);
+                    expressions.put(key, x, y, value);
+                }
+                define(dst, value);
+            } else if (op == Tac.Opcode.COPY && tac.sameType(dst, tac.a(i))) {
+                define(dst, valueNumber(tac.a(i)));
+            } else if (op.writesDst()) {
+                define(dst, newValue(dst));
+            }
+        }
+        valueNumbers = null;
+        holders = null;
+        return changed;
+    }
+
+    private int find(int key, int x, int y) {
+        int value = expressions.find(key, x, y);
+        return value >= blockFirstValue ? value : -1;
+    }
+
+    private static boolean isCommutative(Tac.Opcode op) {
+        return op == Tac.Opcode.ADD || op == Tac.Opcode.MUL || op == Tac.Opcode.EQ || op == Tac.Opcode.NE
+                || op == Tac.Opcode.AND || op == Tac.Opcode.OR;
+    }
+
+    private int valueNumber(int operand) {
+        int slot = tac.slot(operand);
+        if (slot >= 0) {
+            if (valueNumbers[slot] < blockFirstValue) {
+                valueNumbers[slot] = newValue(operand);
+            }
+            return valueNumbers[slot];
+        }
+        // Equal constants share a value number, keyed by tag and bit pattern
+        int tag = Tac.tag(operand);
+        long bits;
+        if (tag == Tac.INT) {
+            bits = tac.intValue(operand);
+        } else if (tag == Tac.FLOAT) {
+            bits = Double.doubleToLongBits(tac.floatValue(operand));
+        } else {
+            bits = operand;
+        }
+        int key = -1 - tag;
+        int value = find(key, (int) (bits >>> 32), (int) bits);
+        if (value < 0) {
+            value = newValue(operand);
+            expressions.put(key, (int) (bits >>> 32), (int) bits, value);
+        }
+        return value;
+    }
+
+    private int newValue(int holder) {
+        if (valueCount == holders.length) {
+            holders = Arrays.copyOf(holders, valueCount * 2);
+        }
+        holders[valueCount] = holder;
+        return valueCount++;
+    }
+
+    private boolean holds(int operand, int value) {
+        int slot = tac.slot(operand);
+        return slot < 0 || valueNumbers[slot] == value;
+    }
+
+    private void define(int dst, int value) {
+        valueNumbers[tac.slot(dst)] = value;
+        if (!holds(holders[value], value)) {
+            holders[value] = dst;
+        }
+    }
+
+    // (key, x, y) -> value number, open addressing
+    private static final class ExpressionTable {
+        private int[] keys = new int[64];
+        private int[] xs = new int[64];
+        private int[] ys = new int[64];
+        private int[] values = new int[64];
+        private int size;
+
+        void clear() {
+            Arrays.fill(values, -1);
+            size = 0;
+        }
+
+        int find(int key, int x, int y) {
+            int mask = values.length - 1;
+            for (int slot = hash(key, x, y) & mask; values[slot] >= 0; slot = (slot + 1) & mask) {
+                if (keys[slot] == key && xs[slot] == x && ys[slot] == y) {
+                    return values[slot];
+                }
+            }
+            return -1;
+        }
+
+        // Replaces the value of an existing entry for the same key
+        void put(int key, int x, int y, int value) {
+            if (2 * (size + 1) > values.length) {
+                rehash();
+            }
+            int mask = values.length - 1;
+            int slot = hash(key, x, y) & mask;
+            while (values[slot] >= 0) {
+                if (keys[slot] == key && xs[slot] == x && ys[slot] == y) {
+                    values[slot] = value;
+                    return;
+                }
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = key;
+            xs[slot] = x;
+            ys[slot] = y;
+            values[slot] = value;
+            size++;
+        }
+
+        private void rehash() {
+            int[] oldKeys = keys;
+            int[] oldXs = xs;
+            int[] oldYs = ys;
+            int[] oldValues = values;
+            int capacity = oldValues.length * 2;
+            keys = new int[capacity];
+            xs = new int[capacity];
+            ys = new int[capacity];
+            values = new int[capacity];
+            clear();
+            for (int i = 0; i < oldValues.length; i++) {
+                if (oldValues[i] >= 0) {
+                    put(oldKeys[i], oldXs[i], oldYs[i], oldValues[i]);
+                }
+            }
+        }
+
+        private static int hash(int key, int x, int y) {
+            int h = key * 0x9e3779b9 + x;
+            h = h * 0x9e3779b9 + y;
+            return h ^ (h >>> 16);
+        }
+    }
+
+    // Copy propagation
+
+    // After x = y, later uses of x in the same basic block read y for as long
+    // as neither is redefined.
+    // A temp used only by the copy right after its only definition is renamed to
+    // the copy's destination: t1 = a + b; x = t1 becomes x = a + b.
+    private boolean propagateCopies() {
+        int slots = tac.slotCount();
+        int[] sources = new int[slots];
+        int[] sourceVersions = new int[slots];
+        int[] versions = new int[slots];
+        // Block number each copy was recorded in, so nothing crosses a block boundary
+        int[] sourceBlocks = new int[slots];
+        int block = 0;
+        boolean changed = false;
+        for (int i = 0; i < tac.size(); i++) {
+            if (tac.isLeader(i)) {
+                block++;
+            }
+            Tac.Opcode op = tac.op(i);
+            int a = resolve(tac.a(i), sources, sourceVersions, versions, sourceBlocks, block);
+            int b = resolve(tac.b(i), sources, sourceVersions, versions, sourceBlocks, block);
+            if (a != tac.a(i) || b != tac.b(i)) {
+                tac.set(i, op, tac.dst(i), a, b);
+                changed = true;
+            }
+            if (op.writesDst()) {
+                int dst = tac.dst(i);
+                int slot = tac.slot(dst);
+                versions[slot]++;
+                sources[slot] = 0;
+                if (op == Tac.Opcode.COPY && a != dst && tac.sameType(a, dst)) {
+                    int sourceSlot = tac.slot(a);
+                    sources[slot] = a;
+                    sourceBlocks[slot] = block;
+                    sourceVersions[slot] = sourceSlot >= 0 ? versions[sourceSlot] : 0;
+                }
+            }
+        }
+        return coalesceTemps() | changed;
+    }
+
+    private int resolve(int operand, int[] sources, int[] sourceVersions, int[] versions,
+                        int[] sourceBlocks, int block) {
+        int slot = tac.slot(operand);
+        if (slot < 0 || sources[slot] == 0 || sourceBlocks[slot] != block) {
+            return operand;
+        }
+        int source = sources[slot];
+        int sourceSlot = tac.slot(source);
+        return sourceSlot < 0 || versions[sourceSlot] == sourceVersions[slot] ? source : operand;
+    }
+
+    private boolean coalesceTemps() {
+        int[] uses = countTempUses();
+        // The result of && and || is set on two paths
+        int[] definitions = new int[tac.tempCount()];
+        for (int i = 0; i < tac.size(); i++) {
+            if (tac.op(i).writesDst()) {
+                countUse(definitions, tac.dst(i), 1);
+            }
+        }
+        boolean[] keep = new boolean[tac.size()];
+        Arrays.fill(keep, true);
+        boolean changed = false;
+        for (int i = 0; i + 1 < tac.size(); i++) {
+            int dst = tac.dst(i);
+            if (!tac.op(i).writesDst() || Tac.tag(dst) != Tac.TEMP || uses[Tac.index(dst)] != 1
+                    || definitions[Tac.index(dst)] != 1) {
+                continue;
+            }
+            if (tac.op(i + 1) == Tac.Opcode.COPY && tac.a(i + 1) == dst
+                    && canCoalesce(dst, tac.dst(i + 1))) {
+                tac.set(i, tac.op(i), tac.dst(i + 1), tac.a(i), tac.b(i));
+                keep[i + 1] = false;
+                i++;
+                changed = true;
+            }
+        }
+        if (changed) {
+            tac.compact(keep);
+        }
+        return changed;
+    }
+
+    // A result computed into temp may go straight to dst: same type, or a
+    // float rounded to single precision when stored in dst either way
+    private boolean canCoalesce(int temp, int dst) {
+        return tac.sameType(temp, dst) || (tac.isFloat(temp) && tac.isSingle(dst));
+    }
+
+    private int[] countTempUses() {
+        int[] uses = new int[tac.tempCount()];
+        for (int i = 0; i < tac.size(); i++) {
+            countUse(uses, tac.a(i), 1);
+            countUse(uses, tac.b(i), 1);
+        }
+        return uses;
+    }
+
+    private static void countUse(int[] uses, int operand, int delta) {
+        if (Tac.tag(operand) == Tac.TEMP) {
+            uses[Tac.index(operand)] += delta;
+        }
+    }
+
+    // Dead-store elimination
+
+    // A copy or operator whose dst is not live afterwards is removed, variables
+    // included. Each block is walked backwards from its live-out set, so a
+    // store only feeding removed stores goes in the same sweep. Calls and reads
+    // stay for their side effects.
+    private boolean eliminateDeadStores() {
+        ControlFlowGraph cfg = new ControlFlowGraph(tac);
+        Dataflow live = Dataflow.liveness(cfg);
+        long[] set = live.newSet();
+        boolean[] keep = new boolean[tac.size()];
+        boolean changed = false;
+        for (int block = 0; block < cfg.blockCount(); block++) {
+            live.copyOut(block, set);
+            for (int i = cfg.end(block) - 1; i >= cfg.start(block); i--) {
+                Tac.Opcode op = tac.op(i);
+                if (op.writesDst()) {
+                    int dst = tac.slot(tac.dst(i));
+                    if (!Dataflow.get(set, 0, dst) && op != Tac.Opcode.CALL && op != Tac.Opcode.READ) {
+                        changed = true;
+                        continue;
+                    }
+                    Dataflow.clear(set, 0, dst);
+                }
+                keep[i] = true;
+                int a = tac.slot(tac.a(i));
+                int b = tac.slot(tac.b(i));
+                if (a >= 0) {
+                    Dataflow.set(set, 0, a);
+                }
+                if (b >= 0) {
+                    Dataflow.set(set, 0, b);
+                }
+            }
+        }
+        if (changed) {
+            tac.compact(keep);
+        }
+        return changed;
+    }
+
+    // Dead-temp elimination
+
+    // A temp without uses is dead. Walking backwards frees the operands of each
+    // removed instruction, which removes whole chains in one sweep. Copies of a
+    // variable to itself, jumps to the next instruction, labels no jump refers
+    // to and code between a goto/return and the next label go too. Calls are kept.
+    private boolean eliminateDeadTemps() {
+        boolean unreachable = removeUnreachable();
+        int[] uses = countTempUses();
+        int[] labelUses = new int[tac.labelCount()];
+        for (int i = 0; i < tac.size(); i++) {
+            if (tac.op(i) == Tac.Opcode.JUMP) {
+                labelUses[Tac.index(tac.a(i))]++;
+            } else if (tac.op(i) == Tac.Opcode.JUMP_IF_FALSE) {
+                labelUses[Tac.index(tac.b(i))]++;
+            }
+        }
+        boolean[] keep = new boolean[tac.size()];
+        boolean changed = false;
+        for (int i = tac.size() - 1; i >= 0; i--) {
+            Tac.Opcode op = tac.op(i);
+            int dst = tac.dst(i);
+            boolean dead = op.writesDst() && op != Tac.Opcode.CALL && op != Tac.Opcode.READ
+                    && Tac.tag(dst) == Tac.TEMP && uses[Tac.index(dst)] == 0;
+            if (op == Tac.Opcode.LABEL) {
+                dead = labelUses[Tac.index(tac.a(i))] == 0;
+            } else if (op == Tac.Opcode.JUMP) {
+                // Labels after i that are kept so far; the jump is dead if it lands on the next kept one
+                int next = i + 1;
+                while (next < tac.size() && !keep[next]) {
+                    next++;
+                }
+                while (next < tac.size() && tac.op(next) == Tac.Opcode.LABEL && tac.a(next) != tac.a(i)) {
+                    next++;
+                    while (next < tac.size() && !keep[next]) {
+                        next++;
+                    }
+                }
+                dead = next < tac.size() && tac.op(next) == Tac.Opcode.LABEL && tac.a(next) == tac.a(i);
+                if (dead) {
+                    labelUses[Tac.index(tac.a(i))]--;
+                }
+            }
+            if (dead || (op == Tac.Opcode.COPY && tac.a(i) == dst)) {
+                countUse(uses, tac.a(i), -1);
+                countUse(uses, tac.b(i), -1);
+                changed = true;
+            } else {
+                keep[i] = true;
+            }
+        }
+        if (changed) {
+            tac.compact(keep);
+        }
+        return changed | unreachable;
+    }
+
+    private boolean removeUnreachable() {
+        boolean[] keep = new boolean[tac.size()];
+        boolean reachable = true;
+        boolean changed = false;
+        for (int i = 0; i < tac.size(); i++) {
+            Tac.Opcode op = tac.op(i);
+            if (op == Tac.Opcode.LABEL) {
+                reachable = true;
+            }
+            keep[i] = reachable;
+            changed |= !reachable;
+            if (op == Tac.Opcode.JUMP || op == Tac.Opcode.RETURN) {
+                reachable = false;
+            }
+        }
+        if (changed) {
+            tac.compact(keep);
+        }
+        return changed;
+    }
+}
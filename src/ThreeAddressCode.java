@@ -1,46 +1,68 @@
 import java.util.ArrayList;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.Queue;
 
 
 class ThreeAddressCodeGenerator {
-    private List<String> instructions;
-    private int tempVarCounter;
+    private Tac tac;
+    // Declarations the names resolved to; null uses each name's own id
+    private SemanticAnalyzer names;
+    private int breakLabel;
+    private int continueLabel;
+
+    // Tac opcode for each binary/unary operator token kind
+    private static final Tac.Opcode[] BINARY_OPCODES = new Tac.Opcode[TokenKind.COUNT];
+
+    static {
+        BINARY_OPCODES[TokenKind.PLUS] = Tac.Opcode.ADD;
+        BINARY_OPCODES[TokenKind.MINUS] = Tac.Opcode.SUB;
+        BINARY_OPCODES[TokenKind.STAR] = Tac.Opcode.MUL;
+        BINARY_OPCODES[TokenKind.SLASH] = Tac.Opcode.DIV;
+        BINARY_OPCODES[TokenKind.PERCENT] = Tac.Opcode.MOD;
+        BINARY_OPCODES[TokenKind.LESS] = Tac.Opcode.LT;
+        BINARY_OPCODES[TokenKind.GREATER] = Tac.Opcode.GT;
+        BINARY_OPCODES[TokenKind.LESS_EQUAL] = Tac.Opcode.LE;
+        BINARY_OPCODES[TokenKind.GREATER_EQUAL] = Tac.Opcode.GE;
+        BINARY_OPCODES[TokenKind.EQUAL] = Tac.Opcode.EQ;
+        BINARY_OPCODES[TokenKind.NOT_EQUAL] = Tac.Opcode.NE;
+        // a += b is a = a + b
+        BINARY_OPCODES[TokenKind.PLUS_ASSIGN] = Tac.Opcode.ADD;
+        BINARY_OPCODES[TokenKind.MINUS_ASSIGN] = Tac.Opcode.SUB;
+        BINARY_OPCODES[TokenKind.STAR_ASSIGN] = Tac.Opcode.MUL;
+        BINARY_OPCODES[TokenKind.SLASH_ASSIGN] = Tac.Opcode.DIV;
+    }
 
     public ThreeAddressCodeGenerator() {
-        instructions = new ArrayList<>();
-        tempVarCounter = 0;
     }
 
     public List<String> generateTAC(SyntaxTreeeNode root) {
+        tac = new Tac(new IdentifierTable());
         traverse(root);
-        return instructions;
+        return tac.toStrings();
     }
 
-    private String traverse(SyntaxTreeeNode node) {
+    private int traverse(SyntaxTreeeNode node) {
         if (node == null) {
-            return "";
+            return Tac.operand(Tac.NONE, 0);
         }
 
         if (node.children.isEmpty()) {
-            return node.value;
+            return leaf(node.value);
         }
 
         // Handle assignment
         if (node.value.equals("=")) {
-            String left = traverse(node.children.get(0));
-            String right = traverse(node.children.get(1));
-            instructions.add(left + " = " + right);
+            int left = traverse(node.children.get(0));
+            int right = traverse(node.children.get(1));
+            tac.emit(Tac.Opcode.COPY, left, right, 0);
             return left;
         }
 
         // Handle binary operations
         if (node.value.equals("+") || node.value.equals("-") || node.value.equals("*") || node.value.equals("/")) {
-            String left = traverse(node.children.get(0));
-            String right = traverse(node.children.get(1));
-            String tempVar = getNextTempVar();
-            instructions.add(tempVar + " = " + left + " " + node.value + " " + right);
+            int left = traverse(node.children.get(0));
+            int right = traverse(node.children.get(1));
+            int tempVar = tac.newTemp();
+            tac.emit(arithmeticOpcode(node.value.charAt(0)), tempVar, left, right);
             return tempVar;
         }
 
@@ -48,8 +70,273 @@ class ThreeAddressCodeGenerator {
         return traverse(node.children.get(0));
     }
 
-    private String getNextTempVar() {
-        return "t" + (tempVarCounter++);
+    private static Tac.Opcode arithmeticOpcode(char operator) {
+        switch (operator) {
+            case '+':
+                return Tac.Opcode.ADD;
+            case '-':
+                return Tac.Opcode.SUB;
+            case '*':
+                return Tac.Opcode.MUL;
+            default:
+                return Tac.Opcode.DIV;
+        }
+    }
+
+    private int leaf(String value) {
+        if (!value.isEmpty() && Character.isDigit(value.charAt(0))) {
+            return value.indexOf('.') >= 0
+                    ? tac.floatConstant(Double.parseDouble(value))
+                    : tac.intConstant(Long.parseLong(value));
+        }
+        return tac.variable(value);
+    }
+
+    // Printed form of generate(program)
+    public List<String> generateTAC(Ast.Program program, IdentifierTable identifiers) {
+        return generate(program, identifiers).toStrings();
+    }
+
+    // Quadruples for the program. Variables keep the ids of the given table,
+    // normally the TokenBuffer's, so Ast.Name ids are used as they are.
+    // && and || short-circuit: the right side is evaluated only when needed.
+    public Tac generate(Ast.Program program, IdentifierTable identifiers) {
+        return generate(program, identifiers, null);
+    }
+
+    // As above, with each name mapped to the variable of the declaration it
+    // resolved to, so a shadowing declaration gets its own variable
+    Tac generate(Ast.Program program, IdentifierTable identifiers, SemanticAnalyzer names) {
+        this.names = names;
+        tac = new Tac(identifiers);
+        breakLabel = 0;
+        continueLabel = 0;
+        for (Ast.Statement statement : program.statements) {
+            statement(statement);
+        }
+        return tac;
+    }
+
+    private void statement(Ast.Statement statement) {
+        if (statement instanceof Ast.Function function) {
+            statement(function.body);
+        } else if (statement instanceof Ast.Block block) {
+            for (Ast.Statement s : block.statements) {
+                statement(s);
+            }
+        } else if (statement instanceof Ast.VariableDeclaration declaration) {
+            for (Ast.Declarator declarator : declaration.declarators) {
+                int variable = variable(declarator.name);
+                if (declaration.type == TokenKind.FLOAT) {
+                    tac.setSingle(variable);
+                }
+                if (declarator.initializer != null) {
+                    int value = expression(declarator.initializer);
+                    tac.emit(Tac.Opcode.COPY, variable, tac.convert(value, variable), 0);
+                }
+            }
+        } else if (statement instanceof Ast.ExpressionStatement expressionStatement) {
+            expression(expressionStatement.expression);
+        } else if (statement instanceof Ast.If ifStatement) {
+            int end = tac.newLabel();
+            tac.emit(Tac.Opcode.JUMP_IF_FALSE, 0, expression(ifStatement.condition), end);
+            statement(ifStatement.then);
+            tac.emit(Tac.Opcode.LABEL, 0, end, 0);
+        } else if (statement instanceof Ast.While whileStatement) {
+            int start = tac.newLabel();
+            int end = tac.newLabel();
+            tac.emit(Tac.Opcode.LABEL, 0, start, 0);
+            tac.emit(Tac.Opcode.JUMP_IF_FALSE, 0, expression(whileStatement.condition), end);
+            loopBody(whileStatement.body, end, start);
+            tac.emit(Tac.Opcode.JUMP, 0, start, 0);
+            tac.emit(Tac.Opcode.LABEL, 0, end, 0);
+        } else if (statement instanceof Ast.For forStatement) {
+            int start = tac.newLabel();
+            int next = tac.newLabel();
+            int end = tac.newLabel();
+            statement(forStatement.init);
+            tac.emit(Tac.Opcode.LABEL, 0, start, 0);
+            tac.emit(Tac.Opcode.JUMP_IF_FALSE, 0, expression(forStatement.condition), end);
+            loopBody(forStatement.body, end, next);
+            tac.emit(Tac.Opcode.LABEL, 0, next, 0);
+            expression(forStatement.update);
+            tac.emit(Tac.Opcode.JUMP, 0, start, 0);
+            tac.emit(Tac.Opcode.LABEL, 0, end, 0);
+        } else if (statement instanceof Ast.Break) {
+            if (breakLabel == 0) {
+                throw new IllegalArgumentException("'break' outside a loop");
+            }
+            tac.emit(Tac.Opcode.JUMP, 0, breakLabel, 0);
+        } else if (statement instanceof Ast.Continue) {
+            if (continueLabel == 0) {
+                throw new IllegalArgumentException("'continue' outside a loop");
+            }
+            tac.emit(Tac.Opcode.JUMP, 0, continueLabel, 0);
+        } else if (statement instanceof Ast.Input input) {
+            for (Ast.Name target : input.targets) {
+                tac.emit(Tac.Opcode.READ, variable(target), 0, 0);
+            }
+        } else if (statement instanceof Ast.Output output) {
+            for (Ast.Expression value : output.values) {
+                tac.emit(Tac.Opcode.WRITE, 0, expression(value), 0);
+            }
+        } else if (statement instanceof Ast.Return returnStatement) {
+            tac.emit(Tac.Opcode.RETURN, 0, expression(returnStatement.value), 0);
+        }
+        // #include produces no code
+    }
+
+    private int variable(Ast.Name name) {
+        return tac.variable(names != null ? names.variable(name) : name.id);
+    }
+
+    // Loop body with break/continue targets set; 0 outside any loop
+    private void loopBody(Ast.Statement body, int breakTarget, int continueTarget) {
+        int outerBreak = breakLabel;
+        int outerContinue = continueLabel;
+        breakLabel = breakTarget;
+        continueLabel = continueTarget;
+        statement(body);
+        breakLabel = outerBreak;
+        continueLabel = outerContinue;
+    }
+
+    // Returns the operand holding the value
+    private int expression(Ast.Expression expression) {
+        if (expression instanceof Ast.Name name) {
+            return variable(name);
+        }
+        if (expression instanceof Ast.IntLiteral literal) {
+            return tac.intConstant(Long.parseLong(literal.text));
+        }
+        if (expression instanceof Ast.FloatLiteral literal) {
+            return tac.floatConstant(Double.parseDouble(literal.text));
+        }
+        if (expression instanceof Ast.StringLiteral literal) {
+            return tac.stringConstant(literal.text);
+        }
+        if (expression instanceof Ast.Endl) {
+            return tac.stringConstant("\"\\n\"");
+        }
+        if (expression instanceof Ast.Group group) {
+            return expression(group.inner);
+        }
+        if (expression instanceof Ast.Assign assign) {
+            int value = expression(assign.value);
+            int target = variable(assign.target);
+            if (assign.operator == TokenKind.ASSIGN) {
+                tac.emit(Tac.Opcode.COPY, target, tac.convert(value, target), 0);
+            } else if (tac.isFloat(target) || !tac.isFloat(value)) {
+                // Done in the type of target, or in double and rounded when stored
+                boolean single = tac.isSingle(target) && !isDouble(value);
+                tac.emit(BINARY_OPCODES[assign.operator], target, target, single ? toSingle(value) : value);
+            } else {
+                // int += float is done in float and truncated when stored
+                int result = arithmetic(BINARY_OPCODES[assign.operator], target, value);
+                tac.emit(Tac.Opcode.COPY, target, result, 0);
+            }
+            return target;
+        }
+        if (expression instanceof Ast.Binary binary) {
+            // The left operands of a chain like a + b + c in a loop, innermost first
+            List<Ast.Binary> chain = new ArrayList<>();
+            Ast.Expression left = binary;
+            while (left instanceof Ast.Binary inner) {
+                chain.add(inner);
+                left = inner.left;
+            }
+            int value = expression(left);
+            for (int i = chain.size() - 1; i >= 0; i--) {
+                Ast.Binary inner = chain.get(i);
+                value = inner.operator == TokenKind.AND || inner.operator == TokenKind.OR
+                        ? shortCircuit(inner, value)
+                        : arithmetic(BINARY_OPCODES[inner.operator], value, expression(inner.right));
+            }
+            return value;
+        }
+        if (expression instanceof Ast.Unary unary) {
+            int operand = expression(unary.operand);
+            if (unary.operator == TokenKind.PLUS) {
+                return operand;
+            }
+            boolean negate = unary.operator == TokenKind.MINUS;
+            int tempVar = tac.newTemp(negate && tac.isFloat(operand), negate && tac.isSingle(operand));
+            tac.emit(negate ? Tac.Opcode.NEG : Tac.Opcode.NOT, tempVar, operand, 0);
+            return tempVar;
+        }
+        if (expression instanceof Ast.Postfix postfix) {
+            // The old value is the result
+            int target = variable(postfix.operand);
+            int tempVar = tac.newTemp(tac.isFloat(target), tac.isSingle(target));
+            tac.emit(Tac.Opcode.COPY, tempVar, target, 0);
+            tac.emit(postfix.operator == TokenKind.INCREMENT ? Tac.Opcode.ADD : Tac.Opcode.SUB,
+                    target, target, tac.intConstant(1));
+            return tempVar;
+        }
+        if (expression instanceof Ast.Call call) {
+            for (Ast.Expression argument : call.arguments) {
+                tac.emit(Tac.Opcode.PARAM, 0, expression(argument), 0);
+            }
+            int tempVar = tac.newTemp();
+            tac.emit(Tac.Opcode.CALL, tempVar, tac.stringConstant(call.name), tac.intConstant(call.arguments.size()));
+            return tempVar;
+        }
+        throw new IllegalArgumentException("Unknown expression " + expression.getClass().getSimpleName());
+    }
+
+    // Arithmetic is done in float if either side is, and in single precision,
+    // as C++ float, unless a side is a double: a float literal or a result
+    // computed from one. Comparisons give int.
+    private int arithmetic(Tac.Opcode op, int left, int right) {
+        boolean isFloat = tac.isFloat(left) || tac.isFloat(right);
+        boolean single = isFloat && !isDouble(left) && !isDouble(right);
+        if (single) {
+            // The int side is converted to float first
+            left = toSingle(left);
+            right = toSingle(right);
+        }
+        int tempVar = tac.newTemp(isFloat && op.isArithmetic(), single && op.isArithmetic());
+        tac.emit(op, tempVar, left, right);
+        return tempVar;
+    }
+
+    private boolean isDouble(int operand) {
+        return tac.isFloat(operand) && !tac.isSingle(operand);
+    }
+
+    // An int operand as a single float; other operands unchanged
+    private int toSingle(int operand) {
+        int tag = Tac.tag(operand);
+        if (tac.isFloat(operand) || (tag != Tac.INT && tag != Tac.VAR && tag != Tac.TEMP)) {
+            return operand;
+        }
+        if (tag == Tac.INT) {
+            return tac.floatConstant((float) (int) tac.intValue(operand));
+        }
+        int single = tac.newTemp(true, true);
+        tac.emit(Tac.Opcode.COPY, single, operand, 0);
+        return single;
+    }
+
+    // a && b and a || b as jumps over the right side, which only runs when the
+    // left side, already evaluated, does not decide the result; both paths set
+    // the 0/1 result
+    private int shortCircuit(Ast.Binary binary, int left) {
+        int result = tac.newTemp();
+        int end = tac.newLabel();
+        if (binary.operator == TokenKind.AND) {
+            tac.emit(Tac.Opcode.COPY, result, tac.intConstant(0), 0);
+            tac.emit(Tac.Opcode.JUMP_IF_FALSE, 0, left, end);
+        } else {
+            int right = tac.newLabel();
+            tac.emit(Tac.Opcode.JUMP_IF_FALSE, 0, left, right);
+            tac.emit(Tac.Opcode.COPY, result, tac.intConstant(1), 0);
+            tac.emit(Tac.Opcode.JUMP, 0, end, 0);
+            tac.emit(Tac.Opcode.LABEL, 0, right, 0);
+        }
+        tac.emit(Tac.Opcode.NE, result, expression(binary.right), tac.intConstant(0));
+        tac.emit(Tac.Opcode.LABEL, 0, end, 0);
+        return result;
     }
 
     public static void testTAC() {
@@ -0,0 +1,264 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Struct-of-arrays token stream: one int per field per token instead of a
+// Token object and a substring per lexeme. Text is read back from the source
+// on demand; identifiers are interned so later phases can compare ids.
+//
+// The arrays have a gap, at the end unless the buffer is edited in place.
+// Tokens after the gap store their start relative to the end of the source,
+// so an edit of the source before them moves them without touching them.
+final class TokenBuffer {
+    final CharSequence source;
+    final IdentifierTable identifiers;
+    private int[] kinds;
+    private int[] starts;
+    private int[] lengths;
+    private int[] ids;
+    private int size;
+    // Tokens [0, gapStart) are stored at the same index, later ones at index + gapEnd - gapStart
+    private int gapStart;
+    private int gapEnd;
+    // Included files laid out after the unit's text in source: where each
+    // starts and its name, so diagnostics can point into the right file
+    private int[] fileStarts = new int[0];
+    private String[] fileNames = new String[0];
+
+    TokenBuffer(CharSequence source) {
+        this(source, new IdentifierTable());
+    }
+
+    TokenBuffer(CharSequence source, IdentifierTable identifiers) {
+        this.source = source;
+        this.identifiers = identifiers;
+        int capacity = Math.max(16, Math.min(source.length() / 4, 1 << 16));
+        kinds = new int[capacity];
+        starts = new int[capacity];
+        lengths = new int[capacity];
+        ids = new int[capacity];
+        gapEnd = capacity;
+    }
+
+    static TokenBuffer scan(CharSequence source) {
+        TokenBuffer buffer = new TokenBuffer(source);
+        SourceScanner scanner = new SourceScanner(source);
+        while (scanner.next()) {
+            buffer.add(scanner.kind, scanner.start, scanner.end - scanner.start);
+        }
+        return buffer;
+    }
+
+    // Adapter for code that still produces List<Token>: the token values are laid
+    // out in a synthetic source so offsets and text behave as for scanned input
+    static TokenBuffer fromTokens(List<Token> tokens) {
+        StringBuilder text = new StringBuilder();
+        for (Token token : tokens) {
+            text.append(token.value).append(' ');
+        }
+        TokenBuffer buffer = new TokenBuffer(text);
+        int offset = 0;
+        for (Token token : tokens) {
+            buffer.add(kindOf(token), offset, token.value.length());
+            offset += token.value.length() + 1;
+        }
+        return buffer;
+    }
+
+    private static int kindOf(Token token) {
+        switch (token.type) {
+            case IDENTIFIER:
+                return TokenKind.IDENTIFIER;
+            case NUMBER:
+                return TokenKind.NUMBER;
+            case STRING:
+                return TokenKind.STRING;
+            case ERROR:
+                return TokenKind.ERROR;
+            default:
+                if (token.value.isEmpty()) {
+                    return TokenKind.ERROR;
+                }
+                SourceScanner scanner = new SourceScanner(token.value);
+                if (scanner.next() && scanner.end == token.value.length()) {
+                    return scanner.kind;
+                }
+                return TokenKind.ERROR;
+        }
+    }
+
+    void add(int kind, int start, int length) {
+        moveGap(size);
+        insert(kind, start, length);
+    }
+
+    // Adds a token at the gap, with its start in the current source
+    private void insert(int kind, int start, int length) {
+        if (gapStart == gapEnd) {
+            grow(size + 1);
+        }
+        kinds[gapStart] = kind;
+        starts[gapStart] = start;
+        lengths[gapStart] = length;
+        ids[gapStart] = kind == TokenKind.IDENTIFIER ? identifiers.intern(source, start, length) : -1;
+        gapStart++;
+        size++;
+    }
+
+    // Replaces tokens [from, to) with count tokens taken from the given arrays at
+    // offset first. Used by incremental re-lexing after the source has already
+    // been edited, with the gap moved to the edit beforehand.
+    void splice(int from, int to, int[] newKinds, int[] newStarts, int[] newLengths, int first, int count) {
+        moveGap(to);
+        gapStart = from;
+        size -= to - from;
+        for (int i = 0; i < count; i++) {
+            insert(newKinds[first + i], newStarts[first + i], newLengths[first + i]);
+        }
+    }
+
+    // Moves the gap before token index. Tokens from there on follow edits of
+    // the source before them, so this is called before the source is edited
+    // at or after the end of token index - 1. Costs one step per token moved.
+    void moveGap(int index) {
+        int length = source.length();
+        while (gapStart > index) {
+            gapStart--;
+            gapEnd--;
+            kinds[gapEnd] = kinds[gapStart];
+            starts[gapEnd] = starts[gapStart] - length;
+            lengths[gapEnd] = lengths[gapStart];
+            ids[gapEnd] = ids[gapStart];
+        }
+        while (gapStart < index) {
+            kinds[gapStart] = kinds[gapEnd];
+            starts[gapStart] = starts[gapEnd] + length;
+            lengths[gapStart] = lengths[gapEnd];
+            ids[gapStart] = ids[gapEnd];
+            gapStart++;
+            gapEnd++;
+        }
+    }
+
+    // Index of the first token whose end is at or after offset, size() if none
+    int firstEndingAtOrAfter(int offset) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (end(mid) < offset) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private void grow(int minCapacity) {
+        int capacity = Math.max(minCapacity, kinds.length * 2);
+        int tail = kinds.length - gapEnd;
+        kinds = grow(kinds, capacity, tail);
+        starts = grow(starts, capacity, tail);
+        lengths = grow(lengths, capacity, tail);
+        ids = grow(ids, capacity, tail);
+        gapEnd = capacity - tail;
+    }
+
+    // Copy with the tokens after the gap moved to the end of the new capacity
+    private int[] grow(int[] values, int capacity, int tail) {
+        int[] grown = Arrays.copyOf(values, capacity);
+        System.arraycopy(values, gapEnd, grown, capacity - tail, tail);
+        return grown;
+    }
+
+    // Array index of a token
+    private int at(int index) {
+        return index < gapStart ? index : index + gapEnd - gapStart;
+    }
+
+    int size() {
+        return size;
+    }
+
+    int kind(int index) {
+        return kinds[at(index)];
+    }
+
+    int start(int index) {
+        return index < gapStart ? starts[index] : starts[index + gapEnd - gapStart] + source.length();
+    }
+
+    int length(int index) {
+        return lengths[at(index)];
+    }
+
+    int end(int index) {
+        return start(index) + length(index);
+    }
+
+    // Interned identifier id, -1 for other kinds
+    int identifier(int index) {
+        return ids[at(index)];
+    }
+
+    // Marks the text from start on as the named included file
+    void addFile(int start, String name) {
+        int count = fileStarts.length;
+        fileStarts = Arrays.copyOf(fileStarts, count + 1);
+        fileNames = Arrays.copyOf(fileNames, count + 1);
+        fileStarts[count] = start;
+        fileNames[count] = name;
+    }
+
+    // Diagnostic at the given token, or at the end of input when index == size()
+    Diagnostic diagnostic(int index, String message) {
+        int offset = index < size ? start(index) : source.length();
+        int file = fileStarts.length - 1;
+        while (file >= 0 && fileStarts[file] > offset) {
+            file--;
+        }
+        int line = 1;
+        int lineStart = file >= 0 ? fileStarts[file] : 0;
+        for (int i = lineStart; i < offset; i++) {
+            if (source.charAt(i) == '\n') {
+                line++;
+                lineStart = i + 1;
+            }
+        }
+        return new Diagnostic(file >= 0 ? fileNames[file] : null, message, line, offset - lineStart + 1);
+    }
+
+    TokenType type(int index) {
+        return TokenKind.typeOf(kind(index));
+    }
+
+    String text(int index) {
+        int kind = kind(index);
+        if (kind == TokenKind.IDENTIFIER) {
+            return identifiers.name(identifier(index));
+        }
+        String spelling = TokenKind.spelling(kind);
+        if (spelling != null) {
+            return spelling;
+        }
+        return source.subSequence(start(index), end(index)).toString();
+    }
+
+    // Same format as Token.toString()
+    String describe(int index) {
+        return type(index) + " (" + text(index) + ")";
+    }
+
+    Token token(int index) {
+        return new Token(type(index), text(index));
+    }
+
+    List<Token> toTokens() {
+        List<Token> tokens = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            tokens.add(token(i));
+        }
+        return tokens;
+    }
+}
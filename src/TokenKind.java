@@ -0,0 +1,163 @@
+// Integer token kinds shared by the scanner, the token buffer and the parser.
+// Every reserved word and symbol has its own kind, so checking a token is a
+// single int compare instead of a String.equals.
+final class TokenKind {
+    static final int IDENTIFIER = 0;
+    static final int NUMBER = 1;
+    static final int STRING = 2;
+    static final int ERROR = 3;
+
+    // Reserved words
+    static final int INT = 4;
+    static final int FLOAT = 5;
+    static final int RETURN = 6;
+    static final int IF = 7;
+    static final int WHILE = 8;
+    static final int FOR = 9;
+    static final int CIN = 10;
+    static final int COUT = 11;
+    static final int CONTINUE = 12;
+    static final int BREAK = 13;
+    static final int INCLUDE = 14;
+    static final int USING = 15;
+    static final int NAMESPACE = 16;
+    static final int STD = 17;
+    static final int MAIN = 18;
+    static final int ENDL = 19;
+
+    // Symbols
+    static final int ASSIGN = 20;
+    static final int PLUS = 21;
+    static final int MINUS = 22;
+    static final int STAR = 23;
+    static final int SLASH = 24;
+    static final int PERCENT = 25;
+    static final int LESS = 26;
+    static final int GREATER = 27;
+    static final int LPAREN = 28;
+    static final int RPAREN = 29;
+    static final int LBRACE = 30;
+    static final int RBRACE = 31;
+    static final int LBRACKET = 32;
+    static final int RBRACKET = 33;
+    static final int SEMICOLON = 34;
+    static final int COMMA = 35;
+    static final int DOT = 36;
+    static final int NOT = 37;
+    static final int AMPERSAND = 38;
+    static final int PIPE = 39;
+    static final int EQUAL = 40;
+    static final int NOT_EQUAL = 41;
+    static final int LESS_EQUAL = 42;
+    static final int GREATER_EQUAL = 43;
+    static final int INCREMENT = 44;
+    static final int DECREMENT = 45;
+    static final int SHIFT_LEFT = 46;
+    static final int SHIFT_RIGHT = 47;
+    static final int AND = 48;
+    static final int OR = 49;
+    static final int PLUS_ASSIGN = 50;
+    static final int MINUS_ASSIGN = 51;
+    static final int STAR_ASSIGN = 52;
+    static final int SLASH_ASSIGN = 53;
+    // '#' followed by a word other than #include, e.g. #define
+    static final int DIRECTIVE = 54;
+
+    static final int COUNT = 55;
+
+    private static final String[] SPELLINGS = {
+            null, null, null, null,
+            "int", "float", "return", "if", "while", "for", "cin", "cout",
+            "continue", "break", "#include", "using", "namespace", "std", "main", "endl",
+            "=", "+", "-", "*", "/", "%", "<", ">", "(", ")", "{", "}", "[", "]", ";", ",", ".",
+            "!", "&", "|", "==", "!=", "<=", ">=", "++", "--", "<<", ">>", "&&", "||",
+            "+=", "-=", "*=", "/=", null
+    };
+
+    private TokenKind() {
+    }
+
+    // Fixed spelling of a reserved word or symbol, null for kinds whose text comes from the source
+    static String spelling(int kind) {
+        return SPELLINGS[kind];
+    }
+
+    static boolean isReservedWord(int kind) {
+        return kind >= INT && kind <= ENDL;
+    }
+
+    static boolean isSymbol(int kind) {
+        return kind >= ASSIGN && kind <= DIRECTIVE;
+    }
+
+    static TokenType typeOf(int kind) {
+        switch (kind) {
+            case IDENTIFIER:
+                return TokenType.IDENTIFIER;
+            case NUMBER:
+                return TokenType.NUMBER;
+            case STRING:
+                return TokenType.STRING;
+            case ERROR:
+                return TokenType.ERROR;
+            default:
+                return isReservedWord(kind) ? TokenType.RESERVEDWORD : TokenType.SYMBOL;
+        }
+    }
+
+    // Switch table over the first character and the length; no String is built for the lookup
+    static int reservedWord(CharSequence s, int start, int length) {
+        switch (s.charAt(start)) {
+            case '#':
+                return matches(s, start, length, "#include") ? INCLUDE : -1;
+            case 'b':
+                return matches(s, start, length, "break") ? BREAK : -1;
+            case 'c':
+                if (length == 3) {
+                    return matches(s, start, length, "cin") ? CIN : -1;
+                }
+                if (length == 4) {
+                    return matches(s, start, length, "cout") ? COUT : -1;
+                }
+                return matches(s, start, length, "continue") ? CONTINUE : -1;
+            case 'e':
+                return matches(s, start, length, "endl") ? ENDL : -1;
+            case 'f':
+                if (length == 3) {
+                    return matches(s, start, length, "for") ? FOR : -1;
+                }
+                return matches(s, start, length, "float") ? FLOAT : -1;
+            case 'i':
+                if (length == 2) {
+                    return matches(s, start, length, "if") ? IF : -1;
+                }
+                return matches(s, start, length, "int") ? INT : -1;
+            case 'm':
+                return matches(s, start, length, "main") ? MAIN : -1;
+            case 'n':
+                return matches(s, start, length, "namespace") ? NAMESPACE : -1;
+            case 'r':
+                return matches(s, start, length, "return") ? RETURN : -1;
+            case 's':
+                return matches(s, start, length, "std") ? STD : -1;
+            case 'u':
+                return matches(s, start, length, "using") ? USING : -1;
+            case 'w':
+                return matches(s, start, length, "while") ? WHILE : -1;
+            default:
+                return -1;
+        }
+    }
+
+    private static boolean matches(CharSequence s, int start, int length, String word) {
+        if (length != word.length()) {
+            return false;
+        }
+        for (int i = 1; i < length; i++) {
+            if (s.charAt(start + i) != word.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,479 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Writes ParseTreeNode / SyntaxTreeeNode trees as Graphviz DOT, JSON or a
+// compact binary form. Output goes through a fixed buffer straight to the
+// Writer or OutputStream; traversal uses explicit stacks, so deep trees do not
+// overflow the call stack and no per-node strings are built.
+final class TreeSerializer<N> {
+    interface Adapter<N> {
+        String value(N node);
+
+        List<N> children(N node);
+
+        N create(String value);
+
+        void addChild(N parent, N child);
+    }
+
+    static final TreeSerializer<ParseTreeNode> PARSE_TREE = new TreeSerializer<>(new Adapter<ParseTreeNode>() {
+        public String value(ParseTreeNode node) {
+            return node.value;
+        }
+
+        public List<ParseTreeNode> children(ParseTreeNode node) {
+            return node.children;
+        }
+
+        public ParseTreeNode create(String value) {
+            return new ParseTreeNode(value);
+        }
+
+        public void addChild(ParseTreeNode parent, ParseTreeNode child) {
+            parent.addChild(child);
+        }
+    });
+
+    static final TreeSerializer<SyntaxTreeeNode> SYNTAX_TREE = new TreeSerializer<>(new Adapter<SyntaxTreeeNode>() {
+        public String value(SyntaxTreeeNode node) {
+            return node.value;
+        }
+
+        public List<SyntaxTreeeNode> children(SyntaxTreeeNode node) {
+            return node.children;
+        }
+
+        public SyntaxTreeeNode create(String value) {
+            return new SyntaxTreeeNode(value);
+        }
+
+        public void addChild(SyntaxTreeeNode parent, SyntaxTreeeNode child) {
+            parent.addChild(child);
+        }
+    });
+
+    private static final int BINARY_MAGIC = 0x54524545; // "TREE"
+    private static final int BINARY_VERSION = 1;
+
+    private final Adapter<N> adapter;
+
+    TreeSerializer(Adapter<N> adapter) {
+        this.adapter = adapter;
+    }
+
+    // Nodes are numbered breadth first: n0 [label="..."]; n0 -> n1;
+    void writeDot(N root, Writer writer) throws IOException {
+        CharSink out = new CharSink(writer);
+        out.append("digraph tree {\n");
+        ArrayDeque<N> queue = new ArrayDeque<>();
+        queue.add(root);
+        int id = 0;
+        int next = 1;
+        while (!queue.isEmpty()) {
+            N node = queue.poll();
+            out.append("  n").append(id).append(" [label=\"");
+            out.appendDotEscaped(adapter.value(node));
+            out.append("\"];\n");
+            for (N child : adapter.children(node)) {
+                queue.add(child);
+                out.append("  n").append(id).append(" -> n").append(next).append(";\n");
+                next++;
+            }
+            id++;
+        }
+        out.append("}\n");
+        out.flush();
+    }
+
+    // {"value":"...","children":[...]}
+    void writeJson(N root, Writer writer) throws IOException {
+        CharSink out = new CharSink(writer);
+        List<N> stack = new ArrayList<>();
+        int[] positions = new int[16];
+        stack.add(root);
+        openJson(out, root);
+        while (!stack.isEmpty()) {
+            int top = stack.size() - 1;
+            List<N> children = adapter.children(stack.get(top));
+            int position = positions[top];
+            if (position == children.size()) {
+                out.append("]}");
+                stack.remove(top);
+                continue;
+            }
+            if (position > 0) {
+                out.append(',');
+            }
+            positions[top] = position + 1;
+            N child = children.get(position);
+            if (stack.size() == positions.length) {
+                positions = Arrays.copyOf(positions, positions.length * 2);
+            }
+            positions[stack.size()] = 0;
+            stack.add(child);
+            openJson(out, child);
+        }
+        out.flush();
+    }
+
+    private void openJson(CharSink out, N node) throws IOException {
+        out.append("{\"value\":\"");
+        out.appendJsonEscaped(adapter.value(node));
+        out.append("\",\"children\":[");
+    }
+
+    // Preorder; each node is a value reference followed by its child count. Values
+    // go into a string table on first use, later uses only write the index.
+    void writeBinary(N root, OutputStream stream) throws IOException {
+        ByteSink out = new ByteSink(stream);
+        out.writeInt(BINARY_MAGIC);
+        out.writeVarint(BINARY_VERSION);
+        Map<String, Integer> strings = new HashMap<>();
+        List<N> stack = new ArrayList<>();
+        stack.add(root);
+        while (!stack.isEmpty()) {
+            N node = stack.remove(stack.size() - 1);
+            String value = adapter.value(node);
+            Integer index = strings.get(value);
+            if (index != null) {
+                out.writeVarint(index);
+            } else {
+                out.writeVarint(strings.size());
+                strings.put(value, strings.size());
+                out.writeString(value);
+            }
+            List<N> children = adapter.children(node);
+            out.writeVarint(children.size());
+            for (int i = children.size() - 1; i >= 0; i--) {
+                stack.add(children.get(i));
+            }
+        }
+        out.flush();
+    }
+
+    N readBinary(InputStream stream) throws IOException {
+        ByteSource in = new ByteSource(stream);
+        if (in.readInt() != BINARY_MAGIC || in.readVarint() != BINARY_VERSION) {
+            throw new IOException("Not a serialized tree");
+        }
+        List<String> strings = new ArrayList<>();
+        List<N> parents = new ArrayList<>();
+        int[] remaining = new int[16];
+        N root = null;
+        do {
+            int index = in.readVarint();
+            if (index == strings.size()) {
+                strings.add(in.readString());
+            } else if (index > strings.size()) {
+                throw new IOException("Bad string reference " + index);
+            }
+            N node = adapter.create(strings.get(index));
+            int childCount = in.readVarint();
+            if (parents.isEmpty()) {
+                root = node;
+            } else {
+                int top = parents.size() - 1;
+                adapter.addChild(parents.get(top), node);
+                remaining[top]--;
+            }
+            if (childCount > 0) {
+                if (parents.size() == remaining.length) {
+                    remaining = Arrays.copyOf(remaining, remaining.length * 2);
+                }
+                remaining[parents.size()] = childCount;
+                parents.add(node);
+            }
+            while (!parents.isEmpty() && remaining[parents.size() - 1] == 0) {
+                parents.remove(parents.size() - 1);
+            }
+        } while (!parents.isEmpty());
+        return root;
+    }
+
+    // Same values in the same shape; walked with a stack, as trees can be deep
+    boolean sameTree(N a, N b) {
+        List<N> stack = new ArrayList<>();
+        stack.add(a);
+        stack.add(b);
+        while (!stack.isEmpty()) {
+            N right = stack.remove(stack.size() - 1);
+            N left = stack.remove(stack.size() - 1);
+            List<N> leftChildren = adapter.children(left);
+            List<N> rightChildren = adapter.children(right);
+            if (!adapter.value(left).equals(adapter.value(right)) || leftChildren.size() != rightChildren.size()) {
+                return false;
+            }
+            for (int i = 0; i < leftChildren.size(); i++) {
+                stack.add(leftChildren.get(i));
+                stack.add(rightChildren.get(i));
+            }
+        }
+        return true;
+    }
+
+    public static void RunSerializerTest() {
+        System.out.println("\u001B[33m ###Testing the Tree Serializer###");
+        ParseTreeNode parsed;
+        try {
+            parsed = new Parser(TokenBuffer.scan("#include<iostream>\nusing namespace std;\nint main() {\nint x = 1;\n"
+                    + "while (x < 10) {\nx = x * 2 + 1;\n}\ncout << \"x: \" << x << endl;\nreturn 0;\n}")).parse();
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+        roundTrip("parse tree", PARSE_TREE, parsed);
+
+        SyntaxTreeeNode deep = new SyntaxTreeeNode("0");
+        SyntaxTreeeNode leaf = deep;
+        for (int i = 1; i < 100000; i++) {
+            SyntaxTreeeNode child = new SyntaxTreeeNode(Integer.toString(i % 7));
+            leaf.addChild(child);
+            leaf = child;
+        }
+        roundTrip("100000 levels deep", SYNTAX_TREE, deep);
+
+        SyntaxTreeeNode text = new SyntaxTreeeNode("tab\tand \"quote\" \\ & \u00e9\u20ac");
+        text.addChild(new SyntaxTreeeNode(""));
+        text.addChild(new SyntaxTreeeNode("line\nbreak"));
+        roundTrip("escapes and non-ASCII", SYNTAX_TREE, text);
+
+        StringWriter dot = new StringWriter();
+        StringWriter json = new StringWriter();
+        try {
+            SYNTAX_TREE.writeDot(text, dot);
+            SYNTAX_TREE.writeJson(text, json);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        String dotLabel = "label=\"tab&#9;and \\\"quote\\\" \\\\ &amp; \u00e9\u20ac\"";
+        String jsonValue = "\"value\":\"tab\\u0009and \\\"quote\\\" \\\\ & \u00e9\u20ac\"";
+        report("DOT " + dotLabel, dot.toString().contains(dotLabel));
+        report("JSON " + jsonValue, json.toString().contains(jsonValue));
+    }
+
+    private static <N> void roundTrip(String name, TreeSerializer<N> serializer, N tree) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        boolean same;
+        try {
+            serializer.writeBinary(tree, bytes);
+            same = serializer.sameTree(tree, serializer.readBinary(new ByteArrayInputStream(bytes.toByteArray())));
+        } catch (IOException e) {
+            same = false;
+        }
+        report(name + ": " + bytes.size() + " bytes", same);
+    }
+
+    private static void report(String name, boolean passed) {
+        System.out.println((passed ? "\u001B[32m+ " : "\u001B[31m- ") + name);
+    }
+
+    // Buffered character output with JSON and DOT string escaping
+    private static final class CharSink {
+        private final Writer writer;
+        private final char[] buffer = new char[8192];
+        private int length;
+
+        CharSink(Writer writer) {
+            this.writer = writer;
+        }
+
+        CharSink append(char c) throws IOException {
+            if (length == buffer.length) {
+                flushBuffer();
+            }
+            buffer[length++] = c;
+            return this;
+        }
+
+        CharSink append(String s) throws IOException {
+            for (int i = 0; i < s.length(); i++) {
+                append(s.charAt(i));
+            }
+            return this;
+        }
+
+        CharSink append(int value) throws IOException {
+            if (value < 0) {
+                append('-');
+                value = -value;
+            }
+            int divisor = 1;
+            while (value / divisor >= 10) {
+                divisor *= 10;
+            }
+            for (; divisor > 0; divisor /= 10) {
+                append((char) ('0' + (value / divisor) % 10));
+            }
+            return this;
+        }
+
+        void appendJsonEscaped(String s) throws IOException {
+            for (int i = 0; i < s.length(); i++) {
+                char c = s.charAt(i);
+                if (c == '"' || c == '\\') {
+                    append('\\').append(c);
+                } else if (c == '\n') {
+                    append('\\').append('n');
+                } else if (c < ' ') {
+                    append("\\u00").append(HEX[c >> 4]).append(HEX[c & 15]);
+                } else {
+                    append(c);
+                }
+            }
+        }
+
+        // DOT strings have no escape for control characters besides \n, so those
+        // and & go in as the HTML entities Graphviz reads in labels
+        void appendDotEscaped(String s) throws IOException {
+            for (int i = 0; i < s.length(); i++) {
+                char c = s.charAt(i);
+                if (c == '"' || c == '\\') {
+                    append('\\').append(c);
+                } else if (c == '\n') {
+                    append('\\').append('n');
+                } else if (c == '&') {
+                    append("&amp;");
+                } else if (c < ' ') {
+                    append("&#").append((int) c).append(';');
+                } else {
+                    append(c);
+                }
+            }
+        }
+
+        private void flushBuffer() throws IOException {
+            writer.write(buffer, 0, length);
+            length = 0;
+        }
+
+        void flush() throws IOException {
+            flushBuffer();
+            writer.flush();
+        }
+    }
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private static final class ByteSink {
+        private final OutputStream stream;
+        private final byte[] buffer = new byte[8192];
+        private int length;
+
+        ByteSink(OutputStream stream) {
+            this.stream = stream;
+        }
+
+        void write(int b) throws IOException {
+            if (length == buffer.length) {
+                stream.write(buffer, 0, length);
+                length = 0;
+            }
+            buffer[length++] = (byte) b;
+        }
+
+        void writeInt(int value) throws IOException {
+            write(value >>> 24);
+            write(value >>> 16);
+            write(value >>> 8);
+            write(value);
+        }
+
+        void writeVarint(int value) throws IOException {
+            while ((value & ~0x7f) != 0) {
+                write((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            write(value);
+        }
+
+        // Length in chars, then the chars as UTF-8
+        void writeString(String s) throws IOException {
+            writeVarint(s.length());
+            for (int i = 0; i < s.length(); i++) {
+                char c = s.charAt(i);
+                if (c < 0x80) {
+                    write(c);
+                } else if (c < 0x800) {
+                    write(0xc0 | (c >> 6));
+                    write(0x80 | (c & 0x3f));
+                } else {
+                    write(0xe0 | (c >> 12));
+                    write(0x80 | ((c >> 6) & 0x3f));
+                    write(0x80 | (c & 0x3f));
+                }
+            }
+        }
+
+        void flush() throws IOException {
+            stream.write(buffer, 0, length);
+            length = 0;
+            stream.flush();
+        }
+    }
+
+    private static final class ByteSource {
+        private final InputStream stream;
+        private final byte[] buffer = new byte[8192];
+        private int position;
+        private int limit;
+
+        ByteSource(InputStream stream) {
+            this.stream = stream;
+        }
+
+        int read() throws IOException {
+            if (position == limit) {
+                limit = stream.read(buffer, 0, buffer.length);
+                position = 0;
+                if (limit <= 0) {
+                    limit = 0;
+                    throw new EOFException();
+                }
+            }
+            return buffer[position++] & 0xff;
+        }
+
+        int readInt() throws IOException {
+            return (read() << 24) | (read() << 16) | (read() << 8) | read();
+        }
+
+        int readVarint() throws IOException {
+            int value = 0;
+            for (int shift = 0; shift < 35; shift += 7) {
+                int b = read();
+                value |= (b & 0x7f) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IOException("Malformed varint");
+        }
+
+        String readString() throws IOException {
+            int length = readVarint();
+            char[] chars = new char[length];
+            for (int i = 0; i < length; i++) {
+                int b = read();
+                if (b < 0x80) {
+                    chars[i] = (char) b;
+                } else if (b < 0xe0) {
+                    chars[i] = (char) (((b & 0x1f) << 6) | (read() & 0x3f));
+                } else {
+                    chars[i] = (char) (((b & 0x0f) << 12) | ((read() & 0x3f) << 6) | (read() & 0x3f));
+                }
+            }
+            return new String(chars);
+        }
+    }
+}
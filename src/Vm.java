@@ -0,0 +1,645 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+// Register machine for Tac. compile() turns a Tac into a dense int[] of
+// opcodes and operands; every variable, temp and constant has a register in
+// an int file or a double file, chosen by its Tac type. Operations on mixed
+// types get explicit conversions at compile time, so each opcode knows the
+// file of every operand and the dispatch loop is a plain switch over int
+// arrays with no allocation or type checks. Ints wrap like 32-bit C++ ints.
+final class Vm {
+    // Opcodes; operands follow in code[]. d, a and b are registers of the
+    // file the opcode names, t a code offset, k an immediate, s a string.
+    static final int HALT = 0;
+    static final int MOVI = 1;       // d a
+    static final int MOVF = 2;       // d a
+    static final int I2F = 3;        // d(float) a(int)
+    static final int F2I = 4;        // d(int) a(float)
+    static final int JMP = 5;        // t
+    static final int JFI = 6;        // a t: jump if int a is 0
+    static final int JFF = 7;        // a t: jump if float a is 0
+    static final int READI = 8;      // d
+    static final int READF = 9;      // d
+    static final int WRITEI = 10;    // a
+    static final int WRITEF = 11;    // a
+    static final int WRITES = 12;    // s
+    static final int RETI = 13;      // a
+    static final int RETF = 14;      // a
+    static final int CALL = 15;      // s
+    static final int INEG = 16;      // d a
+    static final int FNEG = 17;      // d a
+    static final int INOT = 18;      // d(int) a
+    static final int FNOT = 19;      // d(int) a(float)
+
+    // Binary operators in Tac order, int then float: d a b. Comparisons and
+    // logic give an int d.
+    static final int IADD = 20;
+    static final int ISUB = 21;
+    static final int IMUL = 22;
+    static final int IDIV = 23;
+    static final int IMOD = 24;
+    static final int ILT = 25;
+    static final int IGT = 26;
+    static final int ILE = 27;
+    static final int IGE = 28;
+    static final int IEQ = 29;
+    static final int INE = 30;
+    static final int IAND = 31;
+    static final int IOR = 32;
+    static final int FADD = 33;
+    static final int FSUB = 34;
+    static final int FMUL = 35;
+    static final int FDIV = 36;
+    static final int FMOD = 37;
+    static final int FLT = 38;
+    static final int FGT = 39;
+    static final int FLE = 40;
+    static final int FGE = 41;
+    static final int FEQ = 42;
+    static final int FNE = 43;
+    static final int FAND = 44;
+    static final int FOR = 45;
+
+    // Superinstructions. A comparison whose temp only feeds the following
+    // ifFalse becomes one compare-and-branch (a b t, jumps when the comparison
+    // is false); x = y + constant becomes an add of an immediate (d a k).
+    static final int JNLTI = 46;
+    static final int JNGTI = 47;
+    static final int JNLEI = 48;
+    static final int JNGEI = 49;
+    static final int JNEQI = 50;
+    static final int JNNEI = 51;
+    static final int JNLTF = 52;
+    static final int JNGTF = 53;
+    static final int JNLEF = 54;
+    static final int JNGEF = 55;
+    static final int JNEQF = 56;
+    static final int JNNEF = 57;
+    static final int IADDK = 58;
+
+    // Single precision: F2S rounds float d to the nearest single in place,
+    // after any instruction storing to a C++ float; READS reads one
+    static final int F2S = 59;       // d
+    static final int READS = 60;     // d
+
+    private static final int BINARY_OFFSET = Tac.Opcode.ADD.ordinal();
+    private static final int COMPARISON_OFFSET = Tac.Opcode.LT.ordinal();
+
+    private int[] code = new int[64];
+    private int codeSize;
+    private int[] intInit = new int[16];
+    private int intRegisters;
+    private double[] floatInit = new double[16];
+    private int floatRegisters;
+    private byte[][] strings = new byte[4][];
+    private int stringCount;
+
+    // Backward jumps a run may take before it is stopped, so a program that
+    // never terminates cannot hold a grading thread forever
+    long jumpBudget = Long.MAX_VALUE;
+
+    // Compile state, dropped once code is generated
+    private Tac tac;
+    private int[] slotRegisters;
+    private int intScratch;
+    private int floatScratch;
+    private Map<Integer, Integer> intConstants;
+    private Map<Long, Integer> floatConstants;
+
+    private Vm() {
+    }
+
+    static Vm compile(Tac tac) {
+        Vm vm = new Vm();
+        vm.generate(tac);
+        return vm;
+    }
+
+    int codeSize() {
+        return codeSize;
+    }
+
+    int intRegisters() {
+        return intRegisters;
+    }
+
+    int floatRegisters() {
+        return floatRegisters;
+    }
+
+    // Code generation
+
+    private void generate(Tac tac) {
+        this.tac = tac;
+        intConstants = new HashMap<>();
+        floatConstants = new HashMap<>();
+        slotRegisters = new int[tac.slotCount()];
+        for (int slot = 0; slot < slotRegisters.length; slot++) {
+            slotRegisters[slot] = tac.isFloat(tac.slotOperand(slot)) ? newFloatRegister(0) : newIntRegister(0);
+        }
+        // One int result and two float operands plus a float result to convert through
+        intScratch = newIntRegister(0);
+        floatScratch = newFloatRegister(0);
+        newFloatRegister(0);
+        newFloatRegister(0);
+
+        ControlFlowGraph cfg = new ControlFlowGraph(tac);
+        Dataflow live = Dataflow.liveness(cfg);
+        int[] labelOffsets = new int[tac.labelCount()];
+        int[] patches = new int[16];
+        int patchCount = 0;
+        for (int i = 0; i < tac.size(); i++) {
+            Tac.Opcode op = tac.op(i);
+            int dst = tac.dst(i);
+            int a = tac.a(i);
+            int b = tac.b(i);
+            // Constants are rounded as they are moved
+            boolean round = tac.roundsToSingle(i) && !(op == Tac.Opcode.COPY && Tac.isConstant(a));
+            switch (op) {
+                case COPY:
+                    move(dst, a);
+                    break;
+                case READ:
+                    emit(tac.isSingle(dst) ? READS : tac.isFloat(dst) ? READF : READI, register(dst));
+                    break;
+                case WRITE:
+                    if (Tac.tag(a) == Tac.STRING) {
+                        emit(WRITES, string(a));
+                    } else if (tac.isFloat(a)) {
+                        emit(WRITEF, register(a));
+                    } else {
+                        emit(WRITEI, register(a));
+                    }
+                    break;
+                case RETURN:
+                    emit(tac.isFloat(a) ? RETF : RETI, Tac.tag(a) == Tac.NONE ? intConstant(0) : register(a));
+                    break;
+                case PARAM:
+                    // Arguments only matter to calls, which are not supported
+                    break;
+                case CALL:
+                    emit(CALL, string(a));
+                    break;
+                case LABEL:
+                    labelOffsets[Tac.index(a)] = codeSize;
+                    break;
+                case JUMP:
+                case JUMP_IF_FALSE:
+                    if (op == Tac.Opcode.JUMP) {
+                        emit(JMP, Tac.index(a));
+                    } else {
+                        emit(tac.isFloat(a) ? JFF : JFI, register(a), Tac.index(b));
+                    }
+                    if (patchCount == patches.length) {
+                        patches = Arrays.copyOf(patches, patchCount * 2);
+                    }
+                    patches[patchCount++] = codeSize - 1;
+                    break;
+                default:
+                    if (op.isUnary()) {
+                        unary(op, dst, a);
+                    } else if (isFusedBranch(i, cfg, live)) {
+                        boolean isFloat = tac.isFloat(a) || tac.isFloat(b);
+                        int x = isFloat ? floatOperand(a, floatScratch) : register(a);
+                        int y = isFloat ? floatOperand(b, floatScratch + 1) : register(b);
+                        int base = isFloat ? JNLTF : JNLTI;
+                        emit(base + op.ordinal() - COMPARISON_OFFSET, x, y, Tac.index(tac.b(i + 1)));
+                        if (patchCount == patches.length) {
+                            patches = Arrays.copyOf(patches, patchCount * 2);
+                        }
+                        patches[patchCount++] = codeSize - 1;
+                        i++;
+                    } else {
+                        binary(op, dst, a, b);
+                    }
+            }
+            if (round) {
+                emit(F2S, register(dst));
+            }
+        }
+        emit(HALT);
+        for (int p = 0; p < patchCount; p++) {
+            code[patches[p]] = labelOffsets[code[patches[p]]];
+        }
+        code = Arrays.copyOf(code, codeSize);
+        intInit = Arrays.copyOf(intInit, intRegisters);
+        floatInit = Arrays.copyOf(floatInit, floatRegisters);
+        this.tac = null;
+        slotRegisters = null;
+        intConstants = null;
+        floatConstants = null;
+    }
+
+    // A comparison into a temp that is only read by the ifFalse right after it
+    private boolean isFusedBranch(int i, ControlFlowGraph cfg, Dataflow live) {
+        Tac.Opcode op = tac.op(i);
+        if (op.ordinal() < COMPARISON_OFFSET || op.ordinal() > Tac.Opcode.NE.ordinal() || i + 1 == tac.size()) {
+            return false;
+        }
+        int dst = tac.dst(i);
+        return tac.op(i + 1) == Tac.Opcode.JUMP_IF_FALSE && tac.a(i + 1) == dst && Tac.tag(dst) == Tac.TEMP
+                && dst != tac.a(i) && dst != tac.b(i) && !live.out(cfg.blockOf(i + 1), tac.slot(dst));
+    }
+
+    private void move(int dst, int a) {
+        boolean floatDst = tac.isFloat(dst);
+        if (Tac.isConstant(a) && tac.isSingle(dst)) {
+            double value = Tac.tag(a) == Tac.INT ? (int) tac.intValue(a) : tac.floatValue(a);
+            emit(MOVF, register(dst), floatConstant((float) value));
+        } else if (Tac.isConstant(a)) {
+            // Constants are converted here rather than at run time
+            emit(floatDst ? MOVF : MOVI, register(dst), floatDst ? floatOperand(a, -1) : intOperand(a));
+        } else if (floatDst == tac.isFloat(a)) {
+            emit(floatDst ? MOVF : MOVI, register(dst), register(a));
+        } else {
+            emit(floatDst ? I2F : F2I, register(dst), register(a));
+        }
+    }
+
+    private void unary(Tac.Opcode op, int dst, int a) {
+        boolean isFloat = tac.isFloat(a);
+        boolean floatResult = isFloat && op == Tac.Opcode.NEG;
+        int opcode = op == Tac.Opcode.NEG ? (isFloat ? FNEG : INEG) : (isFloat ? FNOT : INOT);
+        int result = result(dst, floatResult);
+        emit(opcode, result, register(a));
+        convertResult(dst, floatResult, result);
+    }
+
+    private void binary(Tac.Opcode op, int dst, int a, int b) {
+        boolean isFloat = tac.isFloat(a) || tac.isFloat(b);
+        boolean floatResult = isFloat && op.isArithmetic();
+        int offset = op.ordinal() - BINARY_OFFSET;
+        if (!isFloat && !tac.isFloat(dst) && (op == Tac.Opcode.ADD || op == Tac.Opcode.SUB)) {
+            // Immediate adds: x = y + 1, x = 1 + y, x = y - 1
+            if (Tac.tag(b) == Tac.INT) {
+                int k = (int) tac.intValue(b);
+                emit(IADDK, register(dst), register(a), op == Tac.Opcode.ADD ? k : -k);
+                return;
+            }
+            if (Tac.tag(a) == Tac.INT && op == Tac.Opcode.ADD) {
+                emit(IADDK, register(dst), register(b), (int) tac.intValue(a));
+                return;
+            }
+        }
+        int x = isFloat ? floatOperand(a, floatScratch) : register(a);
+        int y = isFloat ? floatOperand(b, floatScratch + 1) : register(b);
+        int result = result(dst, floatResult);
+        emit((isFloat ? FADD : IADD) + offset, result, x, y);
+        convertResult(dst, floatResult, result);
+    }
+
+    // Register the operation writes: dst itself when the types agree, else scratch
+    private int result(int dst, boolean floatResult) {
+        if (tac.isFloat(dst) == floatResult) {
+            return register(dst);
+        }
+        return floatResult ? floatScratch + 2 : intScratch;
+    }
+
+    private void convertResult(int dst, boolean floatResult, int result) {
+        if (tac.isFloat(dst) != floatResult) {
+            emit(floatResult ? F2I : I2F, register(dst), result);
+        }
+    }
+
+    // Float register holding the operand; an int variable or temp is
+    // converted into scratch first
+    private int floatOperand(int operand, int scratch) {
+        if (Tac.tag(operand) == Tac.INT) {
+            return floatConstant((int) tac.intValue(operand));
+        }
+        if (tac.isFloat(operand)) {
+            return register(operand);
+        }
+        emit(I2F, scratch, register(operand));
+        return scratch;
+    }
+
+    // Int register holding a constant, a float one truncated
+    private int intOperand(int constant) {
+        return Tac.tag(constant) == Tac.FLOAT ? intConstant((int) tac.floatValue(constant)) : register(constant);
+    }
+
+    // Register of a variable, temp or constant in the file of its own type
+    private int register(int operand) {
+        switch (Tac.tag(operand)) {
+            case Tac.INT:
+                return intConstant((int) tac.intValue(operand));
+            case Tac.FLOAT:
+                return floatConstant(tac.floatValue(operand));
+            default:
+                return slotRegisters[tac.slot(operand)];
+        }
+    }
+
+    private int intConstant(int value) {
+        Integer register = intConstants.get(value);
+        if (register == null) {
+            register = newIntRegister(value);
+            intConstants.put(value, register);
+        }
+        return register;
+    }
+
+    private int floatConstant(double value) {
+        Long bits = Double.doubleToLongBits(value);
+        Integer register = floatConstants.get(bits);
+        if (register == null) {
+            register = newFloatRegister(value);
+            floatConstants.put(bits, register);
+        }
+        return register;
+    }
+
+    private int newIntRegister(int value) {
+        if (intRegisters == intInit.length) {
+            intInit = Arrays.copyOf(intInit, intRegisters * 2);
+        }
+        intInit[intRegisters] = value;
+        return intRegisters++;
+    }
+
+    private int newFloatRegister(double value) {
+        if (floatRegisters == floatInit.length) {
+            floatInit = Arrays.copyOf(floatInit, floatRegisters * 2);
+        }
+        floatInit[floatRegisters] = value;
+        return floatRegisters++;
+    }
+
+    private int string(int operand) {
+        if (stringCount == strings.length) {
+            strings = Arrays.copyOf(strings, stringCount * 2);
+        }
+        // Literals keep their quotes and escapes; call names are plain
+        String text = tac.stringValue(operand);
+        strings[stringCount] = text.startsWith("\"") ? ProgramOutput.literalBytes(text) : text.getBytes(StandardCharsets.UTF_8);
+        return stringCount++;
+    }
+
+    private void emit(int... words) {
+        if (codeSize + words.length > code.length) {
+            code = Arrays.copyOf(code, Math.max(code.length * 2, codeSize + words.length));
+        }
+        System.arraycopy(words, 0, code, codeSize, words.length);
+        codeSize += words.length;
+    }
+
+    // Interpreter
+
+    // Runs the program to its return or its end and gives the exit code
+    int run(InputStream input, OutputStream output) throws IOException {
+        ProgramInput in = new ProgramInput(input);
+        ProgramOutput out = new ProgramOutput(output);
+        try {
+            return execute(in, out);
+        } finally {
+            out.flush();
+        }
+    }
+
+    private int execute(ProgramInput in, ProgramOutput out) throws IOException {
+        final int[] code = this.code;
+        final int[] r = intInit.clone();
+        final double[] f = floatInit.clone();
+        long budget = jumpBudget;
+        int pc = 0;
+        while (true) {
+            switch (code[pc]) {
+                case HALT:
+                    return 0;
+                case MOVI:
+                    r[code[pc + 1]] = r[code[pc + 2]];
+                    pc += 3;
+                    break;
+                case MOVF:
+                    f[code[pc + 1]] = f[code[pc + 2]];
+                    pc += 3;
+                    break;
+                case I2F:
+                    f[code[pc + 1]] = r[code[pc + 2]];
+                    pc += 3;
+                    break;
+                case F2I:
+                    r[code[pc + 1]] = (int) f[code[pc + 2]];
+                    pc += 3;
+                    break;
+                case JMP: {
+                    int target = code[pc + 1];
+                    if (target <= pc && --budget < 0) {
+                        throw new IllegalStateException("jump budget exhausted");
+                    }
+                    pc = target;
+                    break;
+                }
+                case JFI:
+                    pc = r[code[pc + 1]] == 0 ? code[pc + 2] : pc + 3;
+                    break;
+                case JFF:
+                    pc = f[code[pc + 1]] == 0 ? code[pc + 2] : pc + 3;
+                    break;
+                case READI:
+                    r[code[pc + 1]] = in.readInt();
+                    pc += 2;
+                    break;
+                case READF:
+                    f[code[pc + 1]] = in.readFloat();
+                    pc += 2;
+                    break;
+                case READS:
+                    f[code[pc + 1]] = in.readSingle();
+                    pc += 2;
+                    break;
+                case F2S:
+                    f[code[pc + 1]] = (float) f[code[pc + 1]];
+                    pc += 2;
+                    break;
+                case WRITEI:
+                    out.writeInt(r[code[pc + 1]]);
+                    pc += 2;
+                    break;
+                case WRITEF:
+                    out.writeFloat(f[code[pc + 1]]);
+                    pc += 2;
+                    break;
+                case WRITES:
+                    out.writeBytes(strings[code[pc + 1]]);
+                    pc += 2;
+                    break;
+                case RETI:
+                    return r[code[pc + 1]];
+                case RETF:
+                    return (int) f[code[pc + 1]];
+                case CALL:
+                    throw new IllegalStateException("call to " + new String(strings[code[pc + 1]]) + " is not supported");
+                case INEG:
+                    r[code[pc + 1]] = -r[code[pc + 2]];
+                    pc += 3;
+                    break;
+                case FNEG:
+                    f[code[pc + 1]] = -f[code[pc + 2]];
+                    pc += 3;
+                    break;
+                case INOT:
+                    r[code[pc + 1]] = r[code[pc + 2]] == 0 ? 1 : 0;
+                    pc += 3;
+                    break;
+                case FNOT:
+                    r[code[pc + 1]] = f[code[pc + 2]] == 0 ? 1 : 0;
+                    pc += 3;
+                    break;
+                case IADD:
+                    r[code[pc + 1]] = r[code[pc + 2]] + r[code[pc + 3]];
+                    pc += 4;
+                    break;
+                case ISUB:
+                    r[code[pc + 1]] = r[code[pc + 2]] - r[code[pc + 3]];
+                    pc += 4;
+                    break;
+                case IMUL:
+                    r[code[pc + 1]] = r[code[pc + 2]] * r[code[pc + 3]];
+                    pc += 4;
+                    break;
+                case IDIV:
+                    r[code[pc + 1]] = r[code[pc + 2]] / r[code[pc + 3]];
+                    pc += 4;
+                    break;
+                case IMOD:
+                    r[code[pc + 1]] = r[code[pc + 2]] % r[code[pc + 3]];
+                    pc += 4;
+                    break;
+                case ILT:
+                    r[code[pc + 1]] = r[code[pc + 2]] < r[code[pc + 3]] ? 1 : 0;
+                    pc += 4;
+                    break;
+                case IGT:
+                    r[code[pc + 1]] = r[code[pc + 2]] > r[code[pc + 3]] ? 1 : 0;
+                    pc += 4;
+                    break;
+                case ILE:
+                    r[code[pc + 1]] = r[code[pc + 2]] <= r[code[pc + 3]] ? 1 : 0;
+                    pc += 4;
+                    break;
+                case IGE:
+                    r[code[pc + 1]] = r[code[pc + 2]] >= r[code[pc + 3]] ? 1 : 0;
+                    pc += 4;
+                    break;
+                case IEQ:
+                    r[code[pc + 1]] = r[code[pc + 2]] == r[code[pc + 3]] ? 1 : 0;
+                    pc += 4;
+                    break;
+                case INE:
+                    r[code[pc + 1]] = r[code[pc + 2]] != r[code[pc + 3]] ? 1 : 0;
+                    pc += 4;
+                    break;
+                case IAND:
+                    r[code[pc + 1]] = r[code[pc + 2]] != 0 && r[code[pc + 3]] != 0 ? 1 : 0;
+                    pc += 4;
+                    break;
+                case IOR:
+                    r[code[pc + 1]] = r[code[pc + 2]] != 0 || r[code[pc + 3]] != 0 ? 1 : 0;
+                    pc += 4;
+                    break;
+                case FADD:
+                    f[code[pc + 1]] = f[code[pc + 2]] + f[code[pc + 3]];
+                    pc += 4;
+                    break;
+                case FSUB:
+                    f[code[pc + 1]] = f[code[pc + 2]] - f[code[pc + 3]];
+                    pc += 4;
+                    break;
+                case FMUL:
+                    f[code[pc + 1]] = f[code[pc + 2]] * f[code[pc + 3]];
+                    pc += 4;
+                    break;
+                case FDIV:
+                    f[code[pc + 1]] = f[code[pc + 2]] / f[code[pc + 3]];
+                    pc += 4;
+                    break;
+                case FMOD:
+                    f[code[pc + 1]] = f[code[pc + 2]] % f[code[pc + 3]];
+                    pc += 4;
+                    break;
+                case FLT:
+                    r[code[pc + 1]] = f[code[pc + 2]] < f[code[pc + 3]] ? 1 : 0;
+                    pc += 4;
+                    break;
+                case FGT:
+                    r[code[pc + 1]] = f[code[pc + 2]] > f[code[pc + 3]] ? 1 : 0;
+                    pc += 4;
+                    break;
+                case FLE:
+                    r[code[pc + 1]] = f[code[pc + 2]] <= f[code[pc + 3]] ? 1 : 0;
+                    pc += 4;
+                    break;
+                case FGE:
+                    r[code[pc + 1]] = f[code[pc + 2]] >= f[code[pc + 3]] ? 1 : 0;
+                    pc += 4;
+                    break;
+                case FEQ:
+                    r[code[pc + 1]] = f[code[pc + 2]] == f[code[pc + 3]] ? 1 : 0;
+                    pc += 4;
+                    break;
+                case FNE:
+                    r[code[pc + 1]] = f[code[pc + 2]] != f[code[pc + 3]] ? 1 : 0;
+                    pc += 4;
+                    break;
+                case FAND:
+                    r[code[pc + 1]] = f[code[pc + 2]] != 0 && f[code[pc + 3]] != 0 ? 1 : 0;
+                    pc += 4;
+                    break;
+                case FOR:
+                    r[code[pc + 1]] = f[code[pc + 2]] != 0 || f[code[pc + 3]] != 0 ? 1 : 0;
+                    pc += 4;
+                    break;
+                case JNLTI:
+                    pc = r[code[pc + 1]] < r[code[pc + 2]] ? pc + 4 : code[pc + 3];
+                    break;
+                case JNGTI:
+                    pc = r[code[pc + 1]] > r[code[pc + 2]] ? pc + 4 : code[pc + 3];
+                    break;
+                case JNLEI:
+                    pc = r[code[pc + 1]] <= r[code[pc + 2]] ? pc + 4 : code[pc + 3];
+                    break;
+                case JNGEI:
+                    pc = r[code[pc + 1]] >= r[code[pc + 2]] ? pc + 4 : code[pc + 3];
+                    break;
+                case JNEQI:
+                    pc = r[code[pc + 1]] == r[code[pc + 2]] ? pc + 4 : code[pc + 3];
+                    break;
+                case JNNEI:
+                    pc = r[code[pc + 1]] != r[code[pc + 2]] ? pc + 4 : code[pc + 3];
+                    break;
+                case JNLTF:
+                    pc = f[code[pc + 1]] < f[code[pc + 2]] ? pc + 4 : code[pc + 3];
+                    break;
+                case JNGTF:
+                    pc = f[code[pc + 1]] > f[code[pc + 2]] ? pc + 4 : code[pc + 3];
+                    break;
+                case JNLEF:
+                    pc = f[code[pc + 1]] <= f[code[pc + 2]] ? pc + 4 : code[pc + 3];
+                    break;
+                case JNGEF:
+                    pc = f[code[pc + 1]] >= f[code[pc + 2]] ? pc + 4 : code[pc + 3];
+                    break;
+                case JNEQF:
+                    pc = f[code[pc + 1]] == f[code[pc + 2]] ? pc + 4 : code[pc + 3];
+                    break;
+                case JNNEF:
+                    pc = f[code[pc + 1]] != f[code[pc + 2]] ? pc + 4 : code[pc + 3];
+                    break;
+                case IADDK:
+                    r[code[pc + 1]] = r[code[pc + 2]] + code[pc + 3];
+                    pc += 4;
+                    break;
+                default:
+                    throw new IllegalStateException("bad opcode " + code[pc] + " at " + pc);
+            }
+        }
+    }
+}
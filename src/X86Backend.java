@@ -0,0 +1,468 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// x86-64 System V assembly (AT&T syntax, for the GNU assembler) from a Tac.
+// The program becomes main(). Every variable and temp has an 8-byte slot in
+// main's frame, zeroed on entry like the VM's registers. Ints are 32-bit,
+// floats are doubles in SSE registers, rounded through cvtsd2ss when stored
+// to a C++ float, and instructions are picked per Tac operator with constants as immediates and slots as memory operands where
+// the instruction allows. cout and cin are printf and scanf calls, with
+// floats printed by %g as an ostream does. Output is position independent,
+// so it assembles and links with a plain gcc file.s.
+final class X86Backend {
+    private final Tac tac;
+    private final StringBuilder text = new StringBuilder();
+    private final StringBuilder data = new StringBuilder();
+    private final Map<Long, String> doubleLabels = new HashMap<>();
+    private int dataCount;
+    // Local label for the end of a comparison or truth test
+    private int localCount;
+
+    private X86Backend(Tac tac) {
+        this.tac = tac;
+    }
+
+    static String assemble(Tac tac) {
+        X86Backend backend = new X86Backend(tac);
+        backend.generate();
+        return backend.text.toString() + backend.data;
+    }
+
+    static List<String> assembleLines(Tac tac) {
+        List<String> lines = new ArrayList<>();
+        for (String line : assemble(tac).split("\n")) {
+            lines.add(line);
+        }
+        return lines;
+    }
+
+    private void generate() {
+        int slots = tac.slotCount();
+        // Slots, rounded up so calls see a 16-byte aligned stack
+        int frame = (8 * slots + 15) & ~15;
+        line("\t.text");
+        line("\t.globl\tmain");
+        line("\t.type\tmain, @function");
+        line("main:");
+        line("\tpushq\t%rbp");
+        line("\tmovq\t%rsp, %rbp");
+        if (frame > 0) {
+            line("\tsubq\t$" + frame + ", %rsp");
+            line("\tmovq\t%rsp, %rdi");
+            line("\tmovl\t$" + frame / 8 + ", %ecx");
+            line("\txorl\t%eax, %eax");
+            line("\trep stosq");
+        }
+        data.append("\t.section\t.rodata\n");
+        data.append(".Lint:\n\t.string\t\"%d\"\n");
+        data.append(".Lfloat:\n\t.string\t\"%g\"\n");
+        data.append(".Lstring:\n\t.string\t\"%s\"\n");
+        data.append(".Lreadint:\n\t.string\t\"%d\"\n");
+        data.append(".Lreadfloat:\n\t.string\t\"%lf\"\n");
+        data.append(".Lreadsingle:\n\t.string\t\"%f\"\n");
+
+        ControlFlowGraph cfg = new ControlFlowGraph(tac);
+        Dataflow live = Dataflow.liveness(cfg);
+        for (int i = 0; i < tac.size(); i++) {
+            Tac.Opcode op = tac.op(i);
+            int dst = tac.dst(i);
+            int a = tac.a(i);
+            int b = tac.b(i);
+            line("\t# " + tac.instructionText(i));
+            switch (op) {
+                case COPY:
+                    if (tac.isFloat(dst)) {
+                        loadFloat(a, "%xmm0");
+                        storeFloat("%xmm0", dst);
+                    } else {
+                        loadInt(a, "%eax");
+                        storeInt("%eax", dst);
+                    }
+                    break;
+                case READ:
+                    // cin >> x leaves 0 in x when nothing can be read
+                    line("\tmovq\t$0, " + slot(dst));
+                    line("\tleaq\t" + slot(dst) + ", %rsi");
+                    line("\tleaq\t" + (tac.isSingle(dst) ? ".Lreadsingle" : tac.isFloat(dst) ? ".Lreadfloat" : ".Lreadint")
+                            + "(%rip), %rdi");
+                    line("\txorl\t%eax, %eax");
+                    line("\tcall\tscanf@PLT");
+                    if (tac.isSingle(dst)) {
+                        // %f stored a float in the low half of the slot
+                        line("\tcvtss2sd\t" + slot(dst) + ", %xmm0");
+                        line("\tmovsd\t%xmm0, " + slot(dst));
+                    }
+                    break;
+                case WRITE:
+                    if (Tac.tag(a) == Tac.STRING) {
+                        line("\tleaq\t" + string(tac.stringValue(a)) + "(%rip), %rsi");
+                        line("\tleaq\t.Lstring(%rip), %rdi");
+                        line("\txorl\t%eax, %eax");
+                    } else if (tac.isFloat(a)) {
+                        loadFloat(a, "%xmm0");
+                        line("\tleaq\t.Lfloat(%rip), %rdi");
+                        line("\tmovl\t$1, %eax");
+                    } else {
+                        loadInt(a, "%esi");
+                        line("\tleaq\t.Lint(%rip), %rdi");
+                        line("\txorl\t%eax, %eax");
+                    }
+                    line("\tcall\tprintf@PLT");
+                    break;
+                case RETURN:
+                    if (Tac.tag(a) == Tac.NONE) {
+                        line("\txorl\t%eax, %eax");
+                    } else {
+                        loadInt(a, "%eax");
+                    }
+                    line("\tleave");
+                    line("\tret");
+                    break;
+                case PARAM:
+                    // Arguments only matter to calls, which are not supported
+                    break;
+                case CALL:
+                    line("\tcall\tabort@PLT");
+                    break;
+                case LABEL:
+                    line(".L" + Tac.index(a) + ":");
+                    break;
+                case JUMP:
+                    line("\tjmp\t.L" + Tac.index(a));
+                    break;
+                case JUMP_IF_FALSE:
+                    truth(a);
+                    line("\tje\t.L" + Tac.index(b));
+                    break;
+                default:
+                    if (op.isUnary()) {
+                        unary(op, dst, a);
+                    } else if (isFusedBranch(i, cfg, live)) {
+                        // cmp and a conditional jump, without materializing the flag
+                        loadInt(a, "%eax");
+                        line("\tcmpl\t" + intOperand(b) + ", %eax");
+                        line("\t" + negatedJump(op) + "\t.L" + Tac.index(tac.b(i + 1)));
+                        i++;
+                    } else {
+                        binary(op, dst, a, b);
+                    }
+            }
+        }
+        line("\txorl\t%eax, %eax");
+        line("\tleave");
+        line("\tret");
+        line("\t.size\tmain, .-main");
+        data.append("\t.section\t.note.GNU-stack,\"\",@progbits\n");
+    }
+
+    // An int comparison into a temp that only the ifFalse right after it reads
+    private boolean isFusedBranch(int i, ControlFlowGraph cfg, Dataflow live) {
+        Tac.Opcode op = tac.op(i);
+        if (op.compareTo(Tac.Opcode.LT) < 0 || op.compareTo(Tac.Opcode.NE) > 0 || i + 1 == tac.size()) {
+            return false;
+        }
+        int dst = tac.dst(i);
+        return tac.op(i + 1) == Tac.Opcode.JUMP_IF_FALSE && tac.a(i + 1) == dst && Tac.tag(dst) == Tac.TEMP
+                && !tac.isFloat(tac.a(i)) && !tac.isFloat(tac.b(i))
+                && !live.out(cfg.blockOf(i + 1), tac.slot(dst));
+    }
+
+    private static String negatedJump(Tac.Opcode op) {
+        switch (op) {
+            case LT:
+                return "jge";
+            case GT:
+                return "jle";
+            case LE:
+                return "jg";
+            case GE:
+                return "jl";
+            case EQ:
+                return "jne";
+            default:
+                return "je";
+        }
+    }
+
+    private void unary(Tac.Opcode op, int dst, int a) {
+        if (op == Tac.Opcode.NOT) {
+            truth(a);
+            line("\tsete\t%al");
+            line("\tmovzbl\t%al, %eax");
+            storeInt("%eax", dst);
+        } else if (tac.isFloat(a)) {
+            // Flip the sign bit, so -0.0 comes out right
+            loadFloat(a, "%xmm0");
+            line("\tmovq\t%xmm0, %rax");
+            line("\tbtcq\t$63, %rax");
+            line("\tmovq\t%rax, %xmm0");
+            storeFloat("%xmm0", dst);
+        } else {
+            loadInt(a, "%eax");
+            line("\tnegl\t%eax");
+            storeInt("%eax", dst);
+        }
+    }
+
+    private void binary(Tac.Opcode op, int dst, int a, int b) {
+        boolean isFloat = tac.isFloat(a) || tac.isFloat(b);
+        if (op == Tac.Opcode.AND || op == Tac.Opcode.OR) {
+            truth(a);
+            line("\tsetne\t%dl");
+            truth(b);
+            line("\tsetne\t%al");
+            line("\t" + (op == Tac.Opcode.AND ? "andb" : "orb") + "\t%dl, %al");
+            line("\tmovzbl\t%al, %eax");
+            storeInt("%eax", dst);
+        } else if (isFloat) {
+            floatBinary(op, dst, a, b);
+        } else {
+            intBinary(op, dst, a, b);
+        }
+    }
+
+    private void intBinary(Tac.Opcode op, int dst, int a, int b) {
+        loadInt(a, "%eax");
+        switch (op) {
+            case ADD:
+                line("\taddl\t" + intOperand(b) + ", %eax");
+                break;
+            case SUB:
+                line("\tsubl\t" + intOperand(b) + ", %eax");
+                break;
+            case MUL:
+                line("\timull\t" + intOperand(b) + ", %eax");
+                break;
+            case DIV:
+            case MOD:
+                loadInt(b, "%ecx");
+                line("\tcltd");
+                line("\tidivl\t%ecx");
+                if (op == Tac.Opcode.MOD) {
+                    line("\tmovl\t%edx, %eax");
+                }
+                break;
+            default:
+                line("\tcmpl\t" + intOperand(b) + ", %eax");
+                line("\t" + intSet(op) + "\t%al");
+                line("\tmovzbl\t%al, %eax");
+        }
+        storeInt("%eax", dst);
+    }
+
+    private static String intSet(Tac.Opcode op) {
+        switch (op) {
+            case LT:
+                return "setl";
+            case GT:
+                return "setg";
+            case LE:
+                return "setle";
+            case GE:
+                return "setge";
+            case EQ:
+                return "sete";
+            default:
+                return "setne";
+        }
+    }
+
+    private void floatBinary(Tac.Opcode op, int dst, int a, int b) {
+        loadFloat(a, "%xmm0");
+        loadFloat(b, "%xmm1");
+        switch (op) {
+            case ADD:
+                line("\taddsd\t%xmm1, %xmm0");
+                break;
+            case SUB:
+                line("\tsubsd\t%xmm1, %xmm0");
+                break;
+            case MUL:
+                line("\tmulsd\t%xmm1, %xmm0");
+                break;
+            case DIV:
+                line("\tdivsd\t%xmm1, %xmm0");
+                break;
+            case MOD:
+                // fmod by partial remainders on the x87 stack
+                line("\tmovsd\t%xmm1, -8(%rsp)");
+                line("\tmovsd\t%xmm0, -16(%rsp)");
+                line("\tfldl\t-8(%rsp)");
+                line("\tfldl\t-16(%rsp)");
+                String again = local();
+                line(again + ":");
+                line("\tfprem");
+                line("\tfnstsw\t%ax");
+                line("\ttestb\t$4, %ah");
+                line("\tjne\t" + again);
+                line("\tfstp\t%st(1)");
+                line("\tfstpl\t-8(%rsp)");
+                line("\tmovsd\t-8(%rsp), %xmm0");
+                break;
+            default:
+                floatCompare(op);
+                storeInt("%eax", dst);
+                return;
+        }
+        storeFloat("%xmm0", dst);
+    }
+
+    // Compares %xmm0 with %xmm1 into %eax. ucomisd reports unordered as
+    // below and equal, so < and <= are asked the other way round with
+    // seta/setae, and == and != look at the parity flag; every comparison
+    // with NaN is false except !=.
+    private void floatCompare(Tac.Opcode op) {
+        switch (op) {
+            case LT:
+            case LE:
+                line("\tucomisd\t%xmm0, %xmm1");
+                line("\t" + (op == Tac.Opcode.LT ? "seta" : "setae") + "\t%al");
+                break;
+            case GT:
+            case GE:
+                line("\tucomisd\t%xmm1, %xmm0");
+                line("\t" + (op == Tac.Opcode.GT ? "seta" : "setae") + "\t%al");
+                break;
+            case EQ:
+                line("\tucomisd\t%xmm1, %xmm0");
+                line("\tsete\t%al");
+                line("\tsetnp\t%dl");
+                line("\tandb\t%dl, %al");
+                break;
+            default:
+                line("\tucomisd\t%xmm1, %xmm0");
+                line("\tsetne\t%al");
+                line("\tsetp\t%dl");
+                line("\torb\t%dl, %al");
+        }
+        line("\tmovzbl\t%al, %eax");
+    }
+
+    // Sets ZF when the operand is zero; NaN counts as non-zero
+    private void truth(int operand) {
+        if (!tac.isFloat(operand)) {
+            loadInt(operand, "%eax");
+            line("\ttestl\t%eax, %eax");
+            return;
+        }
+        loadFloat(operand, "%xmm0");
+        line("\txorpd\t%xmm1, %xmm1");
+        line("\tucomisd\t%xmm1, %xmm0");
+        // Unordered sets ZF too; clear it through a compare that is never equal
+        String done = local();
+        line("\tjnp\t" + done);
+        line("\tcmpl\t$0, %esp");
+        line(done + ":");
+    }
+
+    // Operand access
+
+    private String slot(int operand) {
+        return -8 * (tac.slot(operand) + 1) + "(%rbp)";
+    }
+
+    // Source operand of a 32-bit instruction: an immediate, an int slot, or
+    // %ecx loaded with a converted float
+    private String intOperand(int operand) {
+        if (Tac.tag(operand) == Tac.INT) {
+            return "$" + (int) tac.intValue(operand);
+        }
+        if (Tac.tag(operand) == Tac.FLOAT || tac.isFloat(operand)) {
+            loadInt(operand, "%ecx");
+            return "%ecx";
+        }
+        return slot(operand);
+    }
+
+    private void loadInt(int operand, String register) {
+        switch (Tac.tag(operand)) {
+            case Tac.INT:
+                line("\tmovl\t$" + (int) tac.intValue(operand) + ", " + register);
+                return;
+            case Tac.FLOAT:
+                line("\tmovl\t$" + (int) tac.floatValue(operand) + ", " + register);
+                return;
+            default:
+                line((tac.isFloat(operand) ? "\tcvttsd2si\t" : "\tmovl\t") + slot(operand) + ", " + register);
+        }
+    }
+
+    private void loadFloat(int operand, String register) {
+        switch (Tac.tag(operand)) {
+            case Tac.INT:
+                line("\tmovsd\t" + doubleConstant((int) tac.intValue(operand)) + "(%rip), " + register);
+                return;
+            case Tac.FLOAT:
+                line("\tmovsd\t" + doubleConstant(tac.floatValue(operand)) + "(%rip), " + register);
+                return;
+            default:
+                line((tac.isFloat(operand) ? "\tmovsd\t" : "\tcvtsi2sdl\t") + slot(operand) + ", " + register);
+        }
+    }
+
+    private void storeInt(String register, int dst) {
+        if (tac.isSingle(dst)) {
+            line("\tcvtsi2ssl\t" + register + ", %xmm2");
+            line("\tcvtss2sd\t%xmm2, %xmm2");
+            line("\tmovsd\t%xmm2, " + slot(dst));
+        } else if (tac.isFloat(dst)) {
+            line("\tcvtsi2sdl\t" + register + ", %xmm2");
+            line("\tmovsd\t%xmm2, " + slot(dst));
+        } else {
+            line("\tmovl\t" + register + ", " + slot(dst));
+        }
+    }
+
+    private void storeFloat(String register, int dst) {
+        if (tac.isSingle(dst)) {
+            line("\tcvtsd2ss\t" + register + ", " + register);
+            line("\tcvtss2sd\t" + register + ", " + register);
+            line("\tmovsd\t" + register + ", " + slot(dst));
+        } else if (tac.isFloat(dst)) {
+            line("\tmovsd\t" + register + ", " + slot(dst));
+        } else {
+            line("\tcvttsd2si\t" + register + ", %eax");
+            line("\tmovl\t%eax, " + slot(dst));
+        }
+    }
+
+    // Data
+
+    private String doubleConstant(double value) {
+        long bits = Double.doubleToRawLongBits(value);
+        String label = doubleLabels.get(bits);
+        if (label == null) {
+            label = ".Ld" + dataCount++;
+            doubleLabels.put(bits, label);
+            data.append("\t.align\t8\n").append(label).append(":\n\t.quad\t").append(bits).append('\n');
+        }
+        return label;
+    }
+
+    // Bytes of the literal as octal escapes where needed
+    private String string(String literal) {
+        String label = ".Ls" + dataCount++;
+        data.append(label).append(":\n\t.string\t\"");
+        for (byte b : ProgramOutput.literalBytes(literal)) {
+            int c = b & 0xff;
+            if (c >= ' ' && c < 0x7f && c != '"' && c != '\\') {
+                data.append((char) c);
+            } else {
+                data.append('\\').append(Integer.toOctalString(c / 64)).append(Integer.toOctalString(c / 8 % 8))
+                        .append(Integer.toOctalString(c % 8));
+            }
+        }
+        data.append("\"\n");
+        return label;
+    }
+
+    private String local() {
+        return ".Lx" + localCount++;
+    }
+
+    private void line(String line) {
+        text.append(line).append('\n');
+    }
+}